@@ -1,4 +1,15 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.random.*;
 
 // ================================================
 // Jogo RPG Textual - Versão Java para o Trabalho
@@ -16,10 +27,107 @@ import java.util.*;
 // ================================================
 
 public class Main {
-    public static void main(String[] args) {
-        // Ponto de entrada do jogo: cria a "engine" JogoRPG e inicia o loop principal.
-        JogoRPG jogo = new JogoRPG();
-        jogo.iniciar();
+    static final String ARQUIVO_JORNADA = "jornada.sav";
+
+    public static void main(String[] args) throws Exception {
+        // Sem argumentos o jogo roda no console, como sempre.
+        // "servidor [porta]" hospeda o MUD via TCP ("raide [porta]" com um chefe único para todos), "arena [porta] [tickMs]" hospeda a arena por ticks,
+        // "carga ..." dispara o gerador de carga local
+        // e "simular ..." roda o simulador de balanceamento sem interface.
+        // "bench [nome...]" mede os caminhos quentes do jogo.
+        // "diario [arquivo]" joga gravando cada entrada e rolagem; "reproduzir <arquivo>" refaz a sessão sem interface.
+        // "carregar [arquivo]" retoma uma jornada salva pelo menu do jogo.
+        // "treinar [ms]" joga sessões roteirizadas sem interface (gera o arquivo CDS em empacotar.sh).
+        // "console <semente>" repete uma sessão exatamente como ela foi jogada.
+        // No MUD, o placar das jornadas terminadas fica em placar.dat (ou em -Deldoria.placar=arquivo).
+        String modo = args.length > 0 ? args[0] : "console";
+        // -Deldoria.metricas liga as métricas em qualquer modo (-Deldoria.metricas=porta também as serve por HTTP).
+        Metricas.configurar();
+
+        switch (modo) {
+            case "bench":
+                Benchmarks.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "simular":
+                SimuladorCombate.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "servidor":
+            case "raide":
+                int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorMUD.PORTA_PADRAO;
+                ServidorMUD servidor = new ServidorMUD(porta);
+                if (args.length > 2) servidor.setDiretorioDiarios(Paths.get(args[2]));
+                if (modo.equals("raide")) servidor.setRaide(new Raide(RegrasCombate.VIDA_CHEFE_RAIDE));
+                Path arquivoPlacar = Paths.get(System.getProperty("eldoria.placar", Placar.ARQUIVO_PADRAO));
+                Placar placar = Placar.carregar(arquivoPlacar);
+                placar.gravarPeriodicamente(arquivoPlacar, 5000);
+                servidor.setPlacar(placar);
+                DefinicoesJogo.vigiarArquivo(1000);
+                aquecerSePedido();
+                servidor.executar();
+                break;
+            case "arena":
+                ServidorArena arena = new ServidorArena(
+                        args.length > 1 ? Integer.parseInt(args[1]) : ServidorArena.PORTA_PADRAO,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 100);
+                arena.executar();
+                break;
+            case "treinar":
+                long inicioTreino = System.nanoTime();
+                long treinadas = Treino.executar(args.length > 1 ? Long.parseLong(args[1]) : Treino.DURACAO_PADRAO_MS);
+                System.out.println("Treino: " + treinadas + " sessões em " + (System.nanoTime() - inicioTreino) / 1_000_000 + " ms");
+                break;
+            case "carga":
+                ClienteCarga.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "diario":
+                Path diario = Paths.get(args.length > 1 ? args[1] : "sessao.diario");
+                JogoRPG registrado = new JogoRPG();
+                try (DiarioSessao registroDiario = DiarioSessao.criar(diario, registrado.getSemente(), true)) {
+                    registrado.setRegistro(registroDiario);
+                    registrado.iniciar();
+                }
+                break;
+            case "reproduzir":
+                ReprodutorDiario.main(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "carregar":
+                Path arquivo = Paths.get(args.length > 1 ? args[1] : ARQUIVO_JORNADA);
+                try {
+                    EstadoSessao estado;
+                    try (ArquivoSessoes sessoes = ArquivoSessoes.abrirExistente(arquivo)) {
+                        estado = sessoes.ler(0);
+                    }
+                    if (estado == null) {
+                        System.out.println("Nenhuma jornada salva em " + arquivo + ".");
+                        break;
+                    }
+                    JogoRPG retomado = new JogoRPG();
+                    retomado.setArquivoJornada(arquivo);
+                    retomado.retomar(estado);
+                } catch (IOException e) {
+                    // [5] Tratamento de exceções: jornada ilegível é relatada, sem rastro de pilha.
+                    System.err.println("Não foi possível carregar a jornada de " + arquivo + ": " + e.getMessage());
+                    System.exit(1);
+                }
+                break;
+            default:
+                // Ponto de entrada do jogo: cria a "engine" JogoRPG e inicia o loop principal.
+                JogoRPG jogo = args.length > 1
+                        ? new JogoRPG(new EntradaConsole(), new SaidaConsole(), new AleatorioSessao(Long.parseLong(args[1])))
+                        : new JogoRPG();
+                jogo.setArquivoJornada(Paths.get(ARQUIVO_JORNADA));
+                jogo.iniciar();
+        }
+    }
+
+    // -Deldoria.aquecer[=ms]: o servidor treina os caminhos quentes antes de abrir a porta (ver Treino).
+    private static void aquecerSePedido() {
+        String aquecer = System.getProperty("eldoria.aquecer");
+        if (aquecer == null) return;
+        long duracao = aquecer.isEmpty() ? Treino.AQUECIMENTO_PADRAO_MS : Long.parseLong(aquecer);
+        long inicio = System.nanoTime();
+        long sessoes = Treino.executar(duracao);
+        System.out.println("Aquecido: " + sessoes + " sessões de treino em " + (System.nanoTime() - inicio) / 1_000_000 + " ms");
     }
 }
 
@@ -30,6 +138,7 @@ abstract class PersonagemBase implements Descrevivel {
     // [1] Encapsulamento (0,5 pt): todos os atributos são privados, só acessados por métodos públicos controlados.
     private String nome;
     private String classe;
+    private int numeroClasse; // posição em JogoRPG.CLASSES + 1 (0 se não estiver lá); indexa Habilidades
     private int vida;
     private int ataqueBase;
 
@@ -37,6 +146,7 @@ abstract class PersonagemBase implements Descrevivel {
     public PersonagemBase(String nome, String classe, int vida, int ataqueBase) {
         this.nome = nome;
         this.classe = classe;
+        this.numeroClasse = JogoRPG.numeroDaClasse(classe);
         this.vida = vida;
         this.ataqueBase = ataqueBase;
     }
@@ -50,6 +160,10 @@ abstract class PersonagemBase implements Descrevivel {
         return classe;
     }
 
+    public int getNumeroClasse() {
+        return numeroClasse;
+    }
+
     public int getVida() {
         return vida;
     }
@@ -67,6 +181,12 @@ abstract class PersonagemBase implements Descrevivel {
     // [3] Polimorfismo (0,5 pt): cada subclasse será obrigada a fornecer sua própria descrição de habilidade.
     public abstract String getDescricaoHabilidade();
 
+    // [3] Polimorfismo: cada subclasse soma o efeito mecânico da sua habilidade na linha de modificadores
+    // (colunas de Habilidades). É chamado uma vez por classe, quando a tabela é montada; o combate só lê
+    // a tabela pronta, sem instanceof e sem chamada virtual.
+    protected void contribuirModificadores(int[] linha) {
+    }
+
     // Implementação padrão da interface Descrevivel para personagens (nome, classe, vida e ataque).
     @Override
     public String descrever() {
@@ -85,118 +205,381 @@ interface Descrevivel {
 // [3] Polimorfismo (0,5 pt): cada classe sobrescreve getDescricaoHabilidade de forma diferente.
 
 class Cavaleiro extends PersonagemBase {
-    public Cavaleiro(String nome) {
-        super(nome, "Cavaleiro", 40, 8);
+    public Cavaleiro(String nome, int vida, int ataqueBase) {
+        super(nome, "Cavaleiro", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Escudo de Fé: reduz o primeiro dano recebido em cada combate.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.REDUCAO_DANO] += RegrasCombate.REDUCAO_ESCUDO_DE_FE;
+    }
 }
 
 class Mago extends PersonagemBase {
-    public Mago(String nome) {
-        super(nome, "Mago", 28, 10);
+    public Mago(String nome, int vida, int ataqueBase) {
+        super(nome, "Mago", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Rajada Arcana: pode causar dano extra em inimigos frágeis.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.BONUS_CONTRA_FRAGIL] += RegrasCombate.BONUS_RAJADA_ARCANA;
+    }
 }
 
 class Arqueiro extends PersonagemBase {
-    public Arqueiro(String nome) {
-        super(nome, "Arqueiro", 32, 9);
+    public Arqueiro(String nome, int vida, int ataqueBase) {
+        super(nome, "Arqueiro", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Tiro Preciso: maior chance de atacar primeiro.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.RODADAS_INICIATIVA] += RegrasCombate.RODADAS_TIRO_PRECISO;
+    }
 }
 
 class Berserk extends PersonagemBase {
-    public Berserk(String nome) {
-        super(nome, "Berserk", 38, 11);
+    public Berserk(String nome, int vida, int ataqueBase) {
+        super(nome, "Berserk", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Fúria Incontrolável: quanto menor a vida, maior o ataque.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.FURIA] += RegrasCombate.PONTOS_FURIA;
+    }
 }
 
 class Viking extends PersonagemBase {
-    public Viking(String nome) {
-        super(nome, "Viking", 36, 9);
+    public Viking(String nome, int vida, int ataqueBase) {
+        super(nome, "Viking", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Grito de Guerra: intimida inimigos e reduz o ataque deles.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.REDUCAO_ATAQUE_INIMIGO] += RegrasCombate.REDUCAO_GRITO_DE_GUERRA;
+    }
 }
 
 class Elfo extends PersonagemBase {
-    public Elfo(String nome) {
-        super(nome, "Elfo", 30, 8);
+    public Elfo(String nome, int vida, int ataqueBase) {
+        super(nome, "Elfo", vida, ataqueBase);
     }
 
     @Override
     public String getDescricaoHabilidade() {
         return "Graça Silvestre: se cura levemente ao avançar entre regiões.";
     }
+
+    @Override
+    protected void contribuirModificadores(int[] linha) {
+        linha[Habilidades.BONUS_CURA_DESCANSO] += RegrasCombate.BONUS_CURA_GRACA_SILVESTRE;
+    }
 }
 
 // [8] Classe genérica: Inventario<T> (0,5 pt)
 // Representa um inventário genérico que pode armazenar qualquer tipo de item.
-// Usa coleções internamente [7].
+// Itens iguais são empilhados: o inventário guarda uma contagem por tipo de item (multiconjunto),
+// então adicionar, remover e contar não dependem de quantos itens o jogador acumule.
+// Quase todo jogador carrega poucos tipos de item: até LIMITE_COMPACTO tipos as pilhas ficam em dois
+// arrays paralelos (busca linear em poucas posições e nenhum objeto por pilha), o que mantém pequena a
+// memória de cada sessão. Passando disso, vão de vez para um mapa [7], com custo O(1) por tipo.
 class Inventario<T> {
-    // [7] Coleções (0,5 pt): uso de List<T> para armazenar dinamicamente os itens do inventário.
-    private List<T> itens;
+    static final int SEM_LIMITE = Integer.MAX_VALUE;
+    static final int LIMITE_COMPACTO = 8;
+
+    // Modo compacto: tipos[i] tem quantidades[i] unidades, na ordem em que o item apareceu.
+    private Object[] tipos; // null até o primeiro item
+    private int[] quantidades;
+    private int quantosTipos;
+    // [7] Coleções (0,5 pt): uso de Map<T, int[]> para guardar a pilha de cada tipo de item.
+    // O contador é um int[1] mutável para que somar e subtrair não crie objetos Integer.
+    // LinkedHashMap mantém as pilhas na ordem em que o item apareceu pela primeira vez.
+    private Map<T, int[]> pilhas; // null enquanto o inventário é compacto
+    private int total;
+    private int capacidade;
 
     public Inventario() {
-        this.itens = new ArrayList<>();
+        this(SEM_LIMITE);
+    }
+
+    // Inventário com limite de itens (somando todas as pilhas).
+    public Inventario(int capacidade) {
+        this.capacidade = capacidade;
+    }
+
+    // Adiciona um item genérico ao inventário. Retorna false se o inventário estiver cheio.
+    public boolean adicionar(T item) {
+        return adicionar(item, 1);
+    }
+
+    // Adiciona várias unidades do mesmo item de uma vez; se não couberem todas, nada é adicionado.
+    public boolean adicionar(T item, int quantidade) {
+        if (quantidade <= 0) return quantidade == 0;
+        if (quantidade > capacidade - total) return false;
+
+        if (pilhas == null) {
+            int posicao = posicao(item);
+            if (posicao < 0) {
+                if (quantosTipos == LIMITE_COMPACTO) {
+                    migrarParaMapa();
+                    return adicionar(item, quantidade);
+                }
+                if (tipos == null) {
+                    tipos = new Object[2];
+                    quantidades = new int[2];
+                } else if (quantosTipos == tipos.length) {
+                    tipos = Arrays.copyOf(tipos, 2 * quantosTipos);
+                    quantidades = Arrays.copyOf(quantidades, 2 * quantosTipos);
+                }
+                posicao = quantosTipos++;
+                tipos[posicao] = item;
+            }
+            quantidades[posicao] += quantidade;
+        } else {
+            int[] pilha = pilhas.get(item);
+            if (pilha == null) {
+                pilha = new int[1];
+                pilhas.put(item, pilha);
+            }
+            pilha[0] += quantidade;
+        }
+        total += quantidade;
+        return true;
     }
 
-    // Adiciona um item genérico ao inventário.
-    public void adicionar(T item) {
-        itens.add(item);
+    // Adiciona todos os itens de outro inventário, mantendo as quantidades (tudo ou nada).
+    public boolean adicionarTodos(Inventario<? extends T> outro) {
+        if (outro.total > capacidade - total) return false;
+        for (T item : outro.getItens()) {
+            adicionar(item, outro.contar(item));
+        }
+        return true;
     }
 
     // Remove um item genérico do inventário (se existir).
     public boolean remover(T item) {
-        return itens.remove(item);
+        return remover(item, 1);
+    }
+
+    // Remove várias unidades do mesmo item; se não houver o suficiente, nada é removido.
+    public boolean remover(T item, int quantidade) {
+        if (quantidade <= 0) return false;
+        if (pilhas != null) {
+            int[] pilha = pilhas.get(item);
+            if (pilha == null || pilha[0] < quantidade) return false;
+
+            pilha[0] -= quantidade;
+            total -= quantidade;
+            if (pilha[0] == 0) {
+                pilhas.remove(item);
+            }
+            return true;
+        }
+        int posicao = posicao(item);
+        if (posicao < 0 || quantidades[posicao] < quantidade) return false;
+
+        quantidades[posicao] -= quantidade;
+        total -= quantidade;
+        if (quantidades[posicao] == 0) {
+            // Pilha vazia sai do meio sem mudar a ordem das outras.
+            int depois = --quantosTipos - posicao;
+            System.arraycopy(tipos, posicao + 1, tipos, posicao, depois);
+            System.arraycopy(quantidades, posicao + 1, quantidades, posicao, depois);
+            tipos[quantosTipos] = null;
+            quantidades[quantosTipos] = 0;
+        }
+        return true;
+    }
+
+    // Quantas unidades do item existem no inventário.
+    public int quantidade(T item) {
+        return contar(item);
+    }
+
+    private int contar(Object item) {
+        if (pilhas == null) {
+            int posicao = posicao(item);
+            return posicao < 0 ? 0 : quantidades[posicao];
+        }
+        int[] pilha = pilhas.get(item);
+        return pilha == null ? 0 : pilha[0];
+    }
+
+    public boolean contem(T item) {
+        return pilhas == null ? posicao(item) >= 0 : pilhas.containsKey(item);
+    }
+
+    private int posicao(Object item) {
+        for (int i = 0; i < quantosTipos; i++) {
+            if (tipos[i] == item || tipos[i].equals(item)) return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void migrarParaMapa() {
+        pilhas = new LinkedHashMap<>();
+        for (int i = 0; i < quantosTipos; i++) {
+            pilhas.put((T) tipos[i], new int[] {quantidades[i]});
+        }
+        tipos = null;
+        quantidades = null;
+        quantosTipos = 0;
+    }
+
+    // Esvazia o inventário mantendo os arrays do modo compacto (reaproveitado a cada partida do simulador).
+    public void limpar() {
+        if (tipos != null) {
+            Arrays.fill(tipos, 0, quantosTipos, null);
+            Arrays.fill(quantidades, 0, quantosTipos, 0);
+        }
+        quantosTipos = 0;
+        pilhas = null;
+        total = 0;
+    }
+
+    // Total de itens, somando todas as pilhas.
+    public int total() {
+        return total;
+    }
+
+    public int getCapacidade() {
+        return capacidade;
     }
 
     // Verifica se o inventário está vazio.
     public boolean estaVazio() {
-        return itens.isEmpty();
+        return total == 0;
     }
 
-    // Retorna uma visão somente leitura da lista de itens (protege a lista interna).
+    // Retorna os tipos de item presentes (uma entrada por pilha), em lista somente leitura.
+    @SuppressWarnings("unchecked")
     public List<T> getItens() {
+        if (pilhas != null) return Collections.unmodifiableList(new ArrayList<>(pilhas.keySet()));
+        List<T> itens = new ArrayList<>(quantosTipos);
+        for (int i = 0; i < quantosTipos; i++) itens.add((T) tipos[i]);
         return Collections.unmodifiableList(itens);
     }
 
-    // [8] Método genérico adicional (0,5 pt): imprime qualquer lista de qualquer tipo E.
-    public static <E> void imprimirLista(List<E> lista) {
+    // [8] Método genérico adicional (0,5 pt): imprime qualquer lista de qualquer tipo E na saída da sessão.
+    public static <E> void imprimirLista(List<E> lista, SaidaJogo saida) {
         for (E elemento : lista) {
-            System.out.println(" - " + elemento);
+            saida.escreverLinha(" - " + elemento);
+        }
+    }
+}
+
+// Tipo de item do jogo. Cada tipo existe uma única vez (criado pelo CatalogoItens) e recebe
+// um id inteiro pequeno: inventários comparam itens por referência e usam o id como hash,
+// sem nunca percorrer o texto do nome. O nome só é usado na hora de exibir.
+final class Item {
+    private final int id;
+    private final String nome;
+    private final byte[] nomeUtf8; // como vai para os arquivos de jornada
+
+    Item(int id, String nome) {
+        this.id = id;
+        this.nome = nome;
+        this.nomeUtf8 = nome.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    byte[] getNomeUtf8() {
+        return nomeUtf8;
+    }
+
+    // equals fica o de Object (identidade): só há uma instância por tipo de item.
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return nome;
+    }
+}
+
+// Catálogo global de tipos de item, compartilhado por todas as sessões.
+// Os ids são atribuídos em ordem de registro (0, 1, 2...), então cabem como índice de array.
+final class CatalogoItens {
+    private static final List<Item> itens = new ArrayList<>();
+    private static final Map<String, Item> porNome = new HashMap<>();
+
+    // Itens da trama, registrados no carregamento da classe.
+    static final Item POCAO_CURA_MENOR = registrar("Poção de cura menor");
+    static final Item FRAGMENTO_DE_MAPA = registrar("Fragmento de mapa");
+    static final Item BRASA_DO_LIDER = registrar("Brasa do líder"); // espólio de quem derruba o chefe no raide
+
+    private CatalogoItens() {
+    }
+
+    // Devolve o item com esse nome, criando-o com o próximo id se ainda não existir.
+    static synchronized Item registrar(String nome) {
+        Item item = porNome.get(nome);
+        if (item == null) {
+            item = new Item(itens.size(), nome);
+            itens.add(item);
+            porNome.put(nome, item);
         }
+        return item;
+    }
+
+    static synchronized Item porId(int id) {
+        return itens.get(id);
+    }
+
+    static synchronized int quantidade() {
+        return itens.size();
     }
 }
 
 // Representa uma região do mapa.
 // Participa da composição com Mapa e também aplica encapsulamento.
+// O texto exibido ao entrar na região é montado uma única vez e guardado (também já codificado em
+// UTF-8, pronto para ir ao socket); só é refeito quando a descrição ou o chefe mudam.
 class Regiao implements Descrevivel {
     // [1] Encapsulamento: atributos privados, acessados apenas por métodos públicos.
     private String nome;
     private String descricao;
     private boolean temChefe;
 
+    // Cache do texto renderizado (null = precisa renderizar). volatile porque regiões são
+    // compartilhadas entre sessões; no pior caso duas threads renderizam o mesmo texto.
+    private volatile String textoRenderizado;
+    private volatile byte[] textoUtf8;
+
     public Regiao(String nome, String descricao, boolean temChefe) {
         this.nome = nome;
         this.descricao = descricao;
@@ -211,26 +594,384 @@ class Regiao implements Descrevivel {
         return temChefe;
     }
 
+    public void setDescricao(String descricao) {
+        this.descricao = descricao;
+        invalidarTexto();
+    }
+
+    public void setTemChefe(boolean temChefe) {
+        this.temChefe = temChefe;
+        invalidarTexto();
+    }
+
+    private void invalidarTexto() {
+        textoRenderizado = null;
+        textoUtf8 = null;
+    }
+
     // [9] Trama / enredo (0,5 pt): a descrição textual da região contribui para a ambientação do RPG.
     @Override
     public String descrever() {
-        return "[" + nome + "] " + descricao + (temChefe ? " (Sente-se uma presença ameaçadora...)" : "");
+        String texto = textoRenderizado;
+        if (texto == null) {
+            texto = "[" + nome + "] " + descricao + (temChefe ? " (Sente-se uma presença ameaçadora...)" : "");
+            textoRenderizado = texto;
+        }
+        return texto;
+    }
+
+    // A mesma descrição já em UTF-8, numa visão somente leitura (o array interno não é copiado).
+    public ByteBuffer descreverUtf8() {
+        byte[] bytes = textoUtf8;
+        if (bytes == null) {
+            bytes = descrever().getBytes(StandardCharsets.UTF_8);
+            textoUtf8 = bytes;
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
     }
 }
 
 // [6] Composição: Mapa possui Regioes (0,5 pt)
-// O Mapa é formado pela agregação de múltiplas instâncias de Regiao.
+// O Mapa é formado pela agregação de múltiplas instâncias de Regiao, ligadas entre si como um grafo.
+// As conexões ficam em arrays primitivos (uma lista de arestas e, para consulta, o formato CSR:
+// os vizinhos da região r estão em vizinhos[inicio[r] .. inicio[r + 1])), o que suporta dezenas
+// de milhares de regiões sem um objeto por conexão.
+// Atalhos são conexões que só se abrem para quem carrega um item (ex.: Fragmento de mapa).
+// As rotas calculadas ficam num cache limitado; uma nova conexão só invalida as rotas das duas
+// componentes conectadas que ela une, não o cache inteiro.
+// Só as mudanças são synchronized. A adjacência CSR, os itens de atalho, as componentes e o índice
+// da fortaleza do chefe formam um retrato imutável (Grafo), montado uma vez depois de cada mudança e
+// publicado num campo volatile: destinosLiberados e rota leem o retrato sem lock, com os buffers da
+// busca em largura de cada thread, e sessões que exploram ao mesmo tempo não se enfileiram no mapa.
+// Os textos do mapa (completo e paginado) também são renderizados uma vez e refeitos só quando
+// uma região nova entra no mapa.
 class Mapa implements Descrevivel {
+    static final int CAPACIDADE_CACHE_ROTAS = 4096;
+    static final int REGIOES_POR_PAGINA = 20;
+    private static final String CABECALHO =
+            "O mundo de Eldoria está em caos. Você sente o peso das escolhas à frente.\n\n";
+    // Máximo de tipos de item que abrem atalhos (cada um ocupa um bit da chave do cache).
+    static final int MAXIMO_ITENS_DE_ATALHO = 16;
+    // A chave do cache de rotas guarda origem e destino em 24 bits cada, acima dos 16 da máscara.
+    static final int MAXIMO_REGIOES = 1 << 24;
+
     // [7] Coleções (0,5 pt): uso de List<Regiao> para armazenar as regiões do mundo.
     private List<Regiao> regioes;
 
+    // Arestas não direcionadas na ordem em que foram criadas.
+    // requisitoAresta guarda o bit do item exigido (índice em itensDeAtalho) ou -1.
+    private int[] origemAresta = new int[16];
+    private int[] destinoAresta = new int[16];
+    private int[] requisitoAresta = new int[16];
+    private int quantidadeArestas;
+    private List<Item> itensDeAtalho = new ArrayList<>();
+
+    // Retrato atual do grafo; null depois de uma mudança, remontado na próxima consulta.
+    private volatile Grafo grafo;
+
+    // Buffers da busca em largura de cada thread, reaproveitados entre consultas.
+    private static final ThreadLocal<BuscaEmLargura> BUSCAS = ThreadLocal.withInitial(BuscaEmLargura::new);
+
+    // Union-find das regiões (ignorando requisitos) + versão de cada componente, para invalidar o cache.
+    private int[] componente = new int[16];
+    private int[] versaoComponente = new int[16];
+    private final ConcurrentHashMap<Long, RotaEmCache> cacheRotas = new ConcurrentHashMap<>();
+
+    // Textos renderizados: o mapa completo, cada página e as versões em UTF-8 (null = refazer).
+    private String textoCompleto;
+    private String[] paginas = new String[0];
+    private byte[][] paginasUtf8 = new byte[0][];
+
+    // Formato CSR, itens de atalho, raiz e versão da componente de cada região e índice da primeira
+    // região com chefe, calculados uma vez por versão do mapa. Nada aqui muda depois de publicado.
+    private static final class Grafo {
+        final int[] inicio;
+        final int[] vizinhos;
+        final int[] requisitos;
+        final List<Item> itensDeAtalho;
+        final int[] raiz;
+        final int[] versao; // versão de cada componente, indexada pela raiz
+        final int indiceDoChefe;
+
+        Grafo(int[] inicio, int[] vizinhos, int[] requisitos, List<Item> itensDeAtalho,
+                int[] raiz, int[] versao, int indiceDoChefe) {
+            this.inicio = inicio;
+            this.vizinhos = vizinhos;
+            this.requisitos = requisitos;
+            this.itensDeAtalho = itensDeAtalho;
+            this.raiz = raiz;
+            this.versao = versao;
+            this.indiceDoChefe = indiceDoChefe;
+        }
+
+        int quantidadeRegioes() {
+            return inicio.length - 1;
+        }
+    }
+
+    // Fila, predecessores e marcas de visita de uma thread; crescem com o maior mapa consultado.
+    private static final class BuscaEmLargura {
+        int[] fila = new int[0];
+        int[] anterior = new int[0];
+        int[] visitado = new int[0];
+        int marcaVisita;
+    }
+
+    // Rota calculada + componente/versão da origem no momento do cálculo.
+    private static final class RotaEmCache {
+        final int[] caminho; // null quando o destino é inalcançável
+        final int raiz;
+        final int versao;
+
+        RotaEmCache(int[] caminho, int raiz, int versao) {
+            this.caminho = caminho;
+            this.raiz = raiz;
+            this.versao = versao;
+        }
+    }
+
     public Mapa() {
         this.regioes = new ArrayList<>();
     }
 
     // Adiciona uma nova região ao mapa (parte da composição do mundo).
-    public void adicionarRegiao(Regiao regiao) {
+    public synchronized void adicionarRegiao(Regiao regiao) {
+        int indice = regioes.size();
+        if (indice == MAXIMO_REGIOES) {
+            throw new IllegalStateException("Regiões demais no mapa.");
+        }
         regioes.add(regiao);
+        if (indice == componente.length) {
+            componente = Arrays.copyOf(componente, indice * 2);
+            versaoComponente = Arrays.copyOf(versaoComponente, indice * 2);
+        }
+        componente[indice] = indice;
+        grafo = null;
+        textoCompleto = null;
+        paginas = new String[(regioes.size() + REGIOES_POR_PAGINA - 1) / REGIOES_POR_PAGINA];
+        paginasUtf8 = new byte[paginas.length][];
+    }
+
+    // Liga duas regiões nos dois sentidos.
+    public void conectar(int a, int b) {
+        adicionarAresta(a, b, null);
+    }
+
+    // Liga duas regiões por um caminho que só se abre para quem tem o item exigido.
+    public void conectarComAtalho(int a, int b, Item requisito) {
+        adicionarAresta(a, b, requisito);
+    }
+
+    private synchronized void adicionarAresta(int a, int b, Item requisito) {
+        validarIndice(a);
+        validarIndice(b);
+        int bit = -1;
+        if (requisito != null) {
+            bit = itensDeAtalho.indexOf(requisito);
+            if (bit < 0) {
+                if (itensDeAtalho.size() == MAXIMO_ITENS_DE_ATALHO) {
+                    throw new IllegalStateException("Itens de atalho demais no mapa.");
+                }
+                itensDeAtalho.add(requisito);
+                bit = itensDeAtalho.size() - 1;
+            }
+        }
+        if (quantidadeArestas == origemAresta.length) {
+            int novaCapacidade = quantidadeArestas * 2;
+            origemAresta = Arrays.copyOf(origemAresta, novaCapacidade);
+            destinoAresta = Arrays.copyOf(destinoAresta, novaCapacidade);
+            requisitoAresta = Arrays.copyOf(requisitoAresta, novaCapacidade);
+        }
+        origemAresta[quantidadeArestas] = a;
+        destinoAresta[quantidadeArestas] = b;
+        requisitoAresta[quantidadeArestas] = bit;
+        quantidadeArestas++;
+        grafo = null;
+
+        // Só rotas que partem das componentes de a ou de b podem mudar: elas ganham uma nova versão,
+        // o que torna obsoletas apenas as entradas de cache calculadas nelas.
+        int raizA = raiz(a);
+        int raizB = raiz(b);
+        versaoComponente[raizA]++;
+        if (raizA != raizB) {
+            componente[raizB] = raizA;
+        }
+    }
+
+    private int raiz(int regiao) {
+        while (componente[regiao] != regiao) {
+            componente[regiao] = componente[componente[regiao]]; // compressão de caminho pela metade
+            regiao = componente[regiao];
+        }
+        return regiao;
+    }
+
+    private void validarIndice(int indice) {
+        validarIndice(indice, regioes.size());
+    }
+
+    private static void validarIndice(int indice, int quantidade) {
+        if (indice < 0 || indice >= quantidade) {
+            throw new IndexOutOfBoundsException("Região inexistente: " + indice);
+        }
+    }
+
+    // O retrato atual, montado aqui se alguma mudança o descartou.
+    private Grafo grafo() {
+        Grafo atual = grafo;
+        return atual != null ? atual : montarGrafo();
+    }
+
+    // Monta o formato CSR a partir da lista de arestas (contagem de graus + soma de prefixos).
+    private synchronized Grafo montarGrafo() {
+        if (grafo != null) return grafo;
+        int n = regioes.size();
+        int[] novoInicio = new int[n + 1];
+        for (int i = 0; i < quantidadeArestas; i++) {
+            novoInicio[origemAresta[i] + 1]++;
+            novoInicio[destinoAresta[i] + 1]++;
+        }
+        for (int r = 0; r < n; r++) {
+            novoInicio[r + 1] += novoInicio[r];
+        }
+        int[] posicao = Arrays.copyOf(novoInicio, n);
+        int[] novosVizinhos = new int[quantidadeArestas * 2];
+        int[] novosRequisitos = new int[quantidadeArestas * 2];
+        for (int i = 0; i < quantidadeArestas; i++) {
+            int a = origemAresta[i];
+            int b = destinoAresta[i];
+            novosVizinhos[posicao[a]] = b;
+            novosRequisitos[posicao[a]++] = requisitoAresta[i];
+            novosVizinhos[posicao[b]] = a;
+            novosRequisitos[posicao[b]++] = requisitoAresta[i];
+        }
+        int[] raizes = new int[n];
+        int[] versoes = new int[n];
+        int chefe = -1;
+        for (int r = 0; r < n; r++) {
+            raizes[r] = raiz(r);
+            versoes[r] = versaoComponente[r];
+            if (chefe < 0 && regioes.get(r).temChefe()) chefe = r;
+        }
+        grafo = new Grafo(novoInicio, novosVizinhos, novosRequisitos, List.copyOf(itensDeAtalho),
+                raizes, versoes, chefe);
+        return grafo;
+    }
+
+    // Bits dos itens de atalho que o inventário possui.
+    private static int mascaraDeAtalhos(Grafo g, Inventario<Item> inventario) {
+        int mascara = 0;
+        if (inventario == null) return mascara;
+        for (int bit = 0; bit < g.itensDeAtalho.size(); bit++) {
+            if (inventario.contem(g.itensDeAtalho.get(bit))) mascara |= 1 << bit;
+        }
+        return mascara;
+    }
+
+    // Cópia da adjacência compacta {início, vizinhos, bit do requisito ou -1} para quem consulta o grafo
+    // por conta própria (os fragmentos de MundoFragmentado).
+    public int[][] copiarAdjacencia() {
+        Grafo g = grafo();
+        return new int[][] {g.inicio.clone(), g.vizinhos.clone(), g.requisitos.clone()};
+    }
+
+    // Itens de atalho na ordem dos bits usados em copiarAdjacencia().
+    public List<Item> getItensDeAtalho() {
+        return grafo().itensDeAtalho;
+    }
+
+    // Regiões vizinhas de origem cujas conexões estão abertas para este inventário.
+    public int[] destinosLiberados(int origem, Inventario<Item> inventario) {
+        Grafo g = grafo();
+        validarIndice(origem, g.quantidadeRegioes());
+        int mascara = mascaraDeAtalhos(g, inventario);
+        int[] destinos = new int[g.inicio[origem + 1] - g.inicio[origem]];
+        int n = 0;
+        for (int k = g.inicio[origem]; k < g.inicio[origem + 1]; k++) {
+            int bit = g.requisitos[k];
+            if (bit < 0 || (mascara & (1 << bit)) != 0) {
+                destinos[n++] = g.vizinhos[k];
+            }
+        }
+        return Arrays.copyOf(destinos, n);
+    }
+
+    // Menor caminho (em número de conexões) de origem até destino, incluindo as duas pontas,
+    // usando apenas conexões abertas para o inventário. Retorna null se não houver caminho.
+    // O array devolvido vem do cache: não deve ser alterado.
+    // Cheio, o cache descarta uma entrada qualquer para cada nova: sem ordem de acesso para manter,
+    // uma consulta que acerta o cache é só uma leitura no ConcurrentHashMap.
+    public int[] rota(int origem, int destino, Inventario<Item> inventario) {
+        Grafo g = grafo();
+        validarIndice(origem, g.quantidadeRegioes());
+        validarIndice(destino, g.quantidadeRegioes());
+        int mascara = mascaraDeAtalhos(g, inventario);
+        long chave = ((long) origem << 40) | ((long) destino << 16) | mascara;
+
+        int raizOrigem = g.raiz[origem];
+        RotaEmCache emCache = cacheRotas.get(chave);
+        if (emCache != null && emCache.raiz == raizOrigem && emCache.versao == g.versao[raizOrigem]) {
+            return emCache.caminho;
+        }
+
+        int[] caminho = buscarEmLargura(g, origem, destino, mascara);
+        if (cacheRotas.size() >= CAPACIDADE_CACHE_ROTAS) {
+            Iterator<Long> chaves = cacheRotas.keySet().iterator();
+            if (chaves.hasNext()) {
+                chaves.next();
+                chaves.remove();
+            }
+        }
+        cacheRotas.put(chave, new RotaEmCache(caminho, raizOrigem, g.versao[raizOrigem]));
+        return caminho;
+    }
+
+    private static int[] buscarEmLargura(Grafo g, int origem, int destino, int mascara) {
+        int[] inicio = g.inicio;
+        int[] vizinhos = g.vizinhos;
+        int[] requisitos = g.requisitos;
+        BuscaEmLargura busca = BUSCAS.get();
+        if (busca.fila.length < g.quantidadeRegioes()) {
+            busca.fila = new int[g.quantidadeRegioes()];
+            busca.anterior = new int[g.quantidadeRegioes()];
+            busca.visitado = new int[g.quantidadeRegioes()];
+            busca.marcaVisita = 0;
+        }
+        int[] fila = busca.fila;
+        int[] anterior = busca.anterior;
+        int[] visitado = busca.visitado;
+        if (++busca.marcaVisita == Integer.MAX_VALUE) {
+            Arrays.fill(visitado, 0);
+            busca.marcaVisita = 1;
+        }
+        int marcaVisita = busca.marcaVisita;
+        int cabeca = 0;
+        int cauda = 0;
+        fila[cauda++] = origem;
+        visitado[origem] = marcaVisita;
+        anterior[origem] = -1;
+
+        while (cabeca < cauda) {
+            int atual = fila[cabeca++];
+            if (atual == destino) break;
+            for (int k = inicio[atual]; k < inicio[atual + 1]; k++) {
+                int bit = requisitos[k];
+                if (bit >= 0 && (mascara & (1 << bit)) == 0) continue;
+                int proxima = vizinhos[k];
+                if (visitado[proxima] != marcaVisita) {
+                    visitado[proxima] = marcaVisita;
+                    anterior[proxima] = atual;
+                    fila[cauda++] = proxima;
+                }
+            }
+        }
+        if (visitado[destino] != marcaVisita) return null;
+
+        int passos = 0;
+        for (int r = destino; r != -1; r = anterior[r]) passos++;
+        int[] caminho = new int[passos];
+        for (int r = destino; r != -1; r = anterior[r]) caminho[--passos] = r;
+        return caminho;
     }
 
     // [5] Tratamento de exceções (0,5 pt):
@@ -246,15 +987,69 @@ class Mapa implements Descrevivel {
         return regioes.size();
     }
 
+    // temChefe() de todas as regiões, na ordem dos índices.
+    public synchronized boolean[] regioesComChefe() {
+        boolean[] comChefe = new boolean[regioes.size()];
+        for (int i = 0; i < comChefe.length; i++) comChefe[i] = regioes.get(i).temChefe();
+        return comChefe;
+    }
+
+    // Índice da primeira região com chefe (o objetivo da jornada), ou -1. Vem pronto no retrato
+    // do grafo: consultá-lo não percorre as regiões nem toma o lock do mapa.
+    public int indiceDoChefe() {
+        return grafo().indiceDoChefe;
+    }
+
     // Exibe um resumo do mundo, listando as regiões disponíveis para exploração.
     @Override
-    public String descrever() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("O mundo de Eldoria está em caos. Você sente o peso das escolhas à frente.\n\n");
-        for (int i = 0; i < regioes.size(); i++) {
+    public synchronized String descrever() {
+        if (textoCompleto == null) {
+            StringBuilder sb = new StringBuilder(CABECALHO);
+            listarRegioes(sb, 0, regioes.size());
+            textoCompleto = sb.toString();
+        }
+        return textoCompleto;
+    }
+
+    public int quantidadePaginas() {
+        return Math.max(1, paginas.length);
+    }
+
+    // Resumo com no máximo REGIOES_POR_PAGINA regiões (numeradas pela posição no mapa), para que
+    // um mundo com milhares de regiões não seja despejado inteiro a cada prompt.
+    public synchronized String descreverPagina(int pagina) {
+        if (paginas.length == 0) return CABECALHO;
+        if (pagina < 0 || pagina >= paginas.length) {
+            throw new IndexOutOfBoundsException("Página inexistente: " + pagina);
+        }
+        if (paginas[pagina] == null) {
+            int primeira = pagina * REGIOES_POR_PAGINA;
+            int fim = Math.min(regioes.size(), primeira + REGIOES_POR_PAGINA);
+            StringBuilder sb = new StringBuilder(CABECALHO);
+            listarRegioes(sb, primeira, fim);
+            if (paginas.length > 1) {
+                sb.append("(página ").append(pagina + 1).append(" de ").append(paginas.length)
+                        .append(", ").append(regioes.size()).append(" regiões no total)\n");
+            }
+            paginas[pagina] = sb.toString();
+        }
+        return paginas[pagina];
+    }
+
+    // A página já em UTF-8, numa visão somente leitura pronta para escrever no socket.
+    public synchronized ByteBuffer descreverPaginaUtf8(int pagina) {
+        String texto = descreverPagina(pagina);
+        if (paginas.length == 0) return ByteBuffer.wrap(texto.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        if (paginasUtf8[pagina] == null) {
+            paginasUtf8[pagina] = texto.getBytes(StandardCharsets.UTF_8);
+        }
+        return ByteBuffer.wrap(paginasUtf8[pagina]).asReadOnlyBuffer();
+    }
+
+    private void listarRegioes(StringBuilder sb, int primeira, int fim) {
+        for (int i = primeira; i < fim; i++) {
             sb.append(i + 1).append(") ").append(regioes.get(i).getNome()).append("\n");
         }
-        return sb.toString();
     }
 }
 
@@ -266,342 +1061,6515 @@ class OpcaoInvalidaException extends Exception {
     }
 }
 
-// Núcleo do jogo (engine principal).
-// [6] Agregação (0,5 pt): JogoRPG agrega Mapa, PersonagemBase e Inventario sem ser "dono" exclusivo deles.
-class JogoRPG {
-    // [1] Encapsulamento: atributos privados que representam o estado interno do jogo.
-    private Scanner scanner;
-    private PersonagemBase jogador;
-    private Mapa mapa;
-    private Inventario<String> inventario; // [8] Uso real da classe genérica Inventario<T> com T = String.
-
-    public JogoRPG() {
-        scanner = new Scanner(System.in);
-        inventario = new Inventario<>();
-        montarMapaInicial();
-    }
+// Exceção não checada usada quando a entrada da sessão acaba (EOF no console ou conexão fechada).
+// Sobe até iniciar(), que encerra a sessão sem derrubar o servidor.
+class SessaoEncerradaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
 
-    // [9] Trama / enredo (0,5 pt):
-    // Cria o mapa inicial com três regiões bem caracterizadas, estabelecendo o enredo do culto da Chama Vazia.
-    private void montarMapaInicial() {
-        mapa = new Mapa();
-        mapa.adicionarRegiao(new Regiao(
-                "Vilarejo de Cinzas",
-                "Casas queimadas e muros destruídos, sinais do avanço do Culto da Chama Vazia.",
-                false
-        ));
-        mapa.adicionarRegiao(new Regiao(
-                "Bosque Sussurrante",
-                "Árvores retorcidas que parecem cochichar segredos antigos ao vento.",
-                false
-        ));
-        mapa.adicionarRegiao(new Regiao(
-                "Fortaleza de Brasamorta",
-                "O coração do culto. Um castelo negro recortado pelo brilho alaranjado de lava distante.",
-                true
-        ));
+    public SessaoEncerradaException() {
+        super("Sessão encerrada pelo jogador.");
     }
+}
 
-    // Método que controla o fluxo geral do jogo:
-    // criação do personagem, exibição de status e entrada no loop principal.
-    public void iniciar() {
-        System.out.println("====================================");
-        System.out.println("        Devil's Bob MUD: Eldoria");
-        System.out.println("====================================\n");
+// Gerador pseudoaleatório de uma única sessão (algoritmo SplitMix64, o mesmo do SplittableRandom).
+// Cada rolagem só atualiza um long: nada é alocado. Diferente do SplittableRandom, a semente inicial
+// e o estado atual ficam expostos, o que permite registrar, salvar e repetir a sessão.
+// Não é thread-safe: pertence à thread que executa a sessão.
+class AleatorioSessao implements RandomGenerator {
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
 
-        criarPersonagem();
-        System.out.println("\nSeu personagem:");
-        // [3] Polimorfismo: o método descrever() é chamado via tipo PersonagemBase,
-        // mas a implementação vem da classe concreta específica do personagem.
-        System.out.println(jogador.descrever());
-        // [3] Polimorfismo: cada classe concreta fornece uma habilidade diferente.
-        System.out.println("Habilidade: " + jogador.getDescricaoHabilidade());
+    private final long semente;
+    private long estado;
 
-        loopPrincipal();
+    public AleatorioSessao(long semente) {
+        this.semente = semente;
+        this.estado = semente;
+    }
 
-        System.out.println("\nObrigado por jogar! Até a próxima.");
+    public long getSemente() {
+        return semente;
     }
 
-    // Lê o nome e permite ao usuário escolher uma das classes concretas de personagem.
-    private void criarPersonagem() {
-        System.out.print("Digite o nome do seu personagem: ");
-        String nome = scanner.nextLine();
+    public long getEstado() {
+        return estado;
+    }
 
-        while (nome.trim().isEmpty()) {
-            System.out.print("Nome não pode ser vazio. Digite novamente: ");
-            nome = scanner.nextLine();
-        }
+    public void setEstado(long estado) {
+        this.estado = estado;
+    }
 
-        System.out.println("\nEscolha uma classe:");
-        System.out.println("1) Cavaleiro");
-        System.out.println("2) Mago");
-        System.out.println("3) Arqueiro");
-        System.out.println("4) Berserk");
-        System.out.println("5) Viking");
-        System.out.println("6) Elfo");
+    @Override
+    public long nextLong() {
+        long z = (estado += GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
 
-        int opcao = lerOpcaoMenu(1, 6);
+// Ponto único de criação dos geradores das sessões.
+// A semente de cada sessão vem do ThreadLocalRandom da thread que a cria, então sessões abertas
+// em paralelo não disputam nenhuma semente global.
+final class ServicoAleatorio {
+    private ServicoAleatorio() {
+    }
 
+    public static AleatorioSessao novaSessao() {
+        return new AleatorioSessao(ThreadLocalRandom.current().nextLong());
+    }
+}
+
+// Regras numéricas do combate, compartilhadas pela engine interativa e pelo simulador,
+// para que o balanceamento medido seja exatamente o jogado.
+final class RegrasCombate {
+    static final int VIDA_CHEFE = 45;
+    static final int VIDA_CHEFE_RAIDE = 450;     // chefe único do servidor no modo raide
+    static final int VIDA_MAXIMA = 40;
+    static final int CURA_POCAO = 10;
+    static final int REDUCAO_ESCUDO_DE_FE = 3;       // Cavaleiro: menos dano de qualquer fonte
+    static final int REDUCAO_GRITO_DE_GUERRA = 2;    // Viking: golpes de inimigos mais fracos
+    static final int BONUS_RAJADA_ARCANA = 4;        // Mago: dano extra em inimigo frágil
+    static final int VIDA_INIMIGO_FRAGIL = 15;
+    static final int VIDA_POR_PONTO_DE_FURIA = 5;    // Berserk: +PONTOS_FURIA de dano a cada 5 de vida perdida
+    static final int PONTOS_FURIA = 1;
+    static final int RODADAS_TIRO_PRECISO = 1;       // Arqueiro: o inimigo não revida nas primeiras rodadas
+    static final int CURA_DESCANSO = 5;
+    static final int BONUS_CURA_GRACA_SILVESTRE = 3; // Elfo: descansa melhor
+    static final int VARIACAO_ATAQUE = 4;        // ataque do jogador: base + 0..3
+    static final int DANO_CHEFE_MINIMO = 7;      // contra-ataque: 7..11
+    static final int DANO_DIALOGO_MINIMO = 8;    // resposta ao diálogo: 8..12
+    static final int VARIACAO_DANO_CHEFE = 5;
+    // Efeitos com duração da arena por ticks.
+    static final int REGENERACAO_POCAO_POR_TICK = 2;  // a poção cura os mesmos 10 pontos, em 5 ticks
+    static final int TICKS_REGENERACAO_POCAO = 5;
+    static final int QUEIMADURA_POR_TICK = 1;         // o fogo negro do chefe queima por 3 ticks
+    static final int TICKS_QUEIMADURA = 3;
+
+    private RegrasCombate() {
+    }
+}
+
+// ================================================
+// Definições do jogo (classes, regiões, eventos) carregadas de dados
+// ================================================
+
+// Tabelas imutáveis, em arrays, com os números e textos do jogo. São carregadas uma vez no início
+// e compartilhadas por todas as sessões sem cópia. Para recarregar, uma tabela nova é montada à parte
+// e a referência atual é trocada atomicamente: ninguém espera, e quem já estava usando a antiga
+// segue com ela até terminar.
+//
+// Formato (uma definição por linha, campos separados por |, # para comentários):
+//   classe|Nome|vida|ataque
+//   regiao|Nome|temChefe|descrição          (a primeira região é onde todos começam)
+//   conexao|Região A|Região B
+//   atalho|Região A|Região B|Item exigido
+//   evento|id|item|Nome do item|texto
+//   evento|id|dano|mínimo|variação|texto     (dano = mínimo + 0..variação-1)
+//   eventoRegiao|Região|id do evento|peso[|condição]
+// O peso é um número ou uma raridade (comum, incomum, raro, lendario). A condição é classe=Nome,
+// item=Nome do item, ou as mesmas precedidas de ! para negar. Região sem linhas eventoRegiao
+// sorteia entre todos os eventos com a mesma chance.
+// Os dados vêm de -Deldoria.dados=arquivo, senão de dados/eldoria.txt, senão de DADOS_PADRAO.
+final class DefinicoesJogo {
+    static final String PROPRIEDADE_ARQUIVO = "eldoria.dados";
+    static final String ARQUIVO_PADRAO = "dados/eldoria.txt";
+    static final int EVENTO_ITEM = 0;
+    static final int EVENTO_DANO = 1;
+
+    static final String DADOS_PADRAO = """
+            # Classes jogáveis: vida e ataque iniciais
+            classe|Cavaleiro|40|8
+            classe|Mago|28|10
+            classe|Arqueiro|32|9
+            classe|Berserk|38|11
+            classe|Viking|36|9
+            classe|Elfo|30|8
+
+            # Regiões de Eldoria
+            regiao|Vilarejo de Cinzas|false|Casas queimadas e muros destruídos, sinais do avanço do Culto da Chama Vazia.
+            regiao|Bosque Sussurrante|false|Árvores retorcidas que parecem cochichar segredos antigos ao vento.
+            regiao|Fortaleza de Brasamorta|true|O coração do culto. Um castelo negro recortado pelo brilho alaranjado de lava distante.
+
+            # A estrada passa pelo bosque; o fragmento de mapa revela uma trilha direta até a fortaleza.
+            conexao|Vilarejo de Cinzas|Bosque Sussurrante
+            conexao|Bosque Sussurrante|Fortaleza de Brasamorta
+            atalho|Vilarejo de Cinzas|Fortaleza de Brasamorta|Fragmento de mapa
+
+            # Eventos das regiões comuns
+            evento|viajante|item|Poção de cura menor|Você encontra um viajante misterioso que lhe oferece uma poção.
+            evento|saqueadores|dano|5|6|Um bando de saqueadores o embosca!
+            evento|fragmento|item|Fragmento de mapa|Você encontra um fragmento de mapa que revela um atalho até a Fortaleza de Brasamorta.
+
+            # Exemplo de tabela ponderada (sem estas linhas cada região sorteia os eventos por igual):
+            # eventoRegiao|Bosque Sussurrante|viajante|comum
+            # eventoRegiao|Bosque Sussurrante|saqueadores|incomum|!classe=Elfo
+            # eventoRegiao|Bosque Sussurrante|fragmento|raro|!item=Fragmento de mapa
+            """;
+
+    private static final AtomicReference<DefinicoesJogo> atual = new AtomicReference<>();
+
+    private final String[] nomesClasses; // na ordem do menu de criação (a dos dados)
+    private final int[] numeroClasse; // número da classe (posição em JogoRPG.CLASSES + 1) de cada opção do menu
+    private final int[] vidaClasse;
+    private final int[] ataqueClasse;
+    private final Mapa mapa;
+    private final String[] idEvento;
+    private final String[] textoEvento;
+    private final int[] tipoEvento;
+    private final Item[] itemEvento;
+    private final int[] danoMinimoEvento;
+    private final int[] variacaoDanoEvento;
+    private final EventosRegiao[] eventosRegiao;
+    private final String origem;
+
+    // Uma linha dos dados, já separada em campos, com a origem e o número da linha para as mensagens
+    // de erro: um erro em qualquer etapa da montagem das tabelas aponta para arquivo:linha.
+    static final class LinhaDados {
+        final String[] campos;
+        final String local;
+
+        LinhaDados(String[] campos, String local) {
+            this.campos = campos;
+            this.local = local;
+        }
+
+        IllegalArgumentException erro(String mensagem) {
+            return new IllegalArgumentException(local + ": " + mensagem);
+        }
+
+        int inteiro(int campo) {
+            try {
+                return Integer.parseInt(campos[campo]);
+            } catch (NumberFormatException e) {
+                throw erro("número inválido: " + campos[campo]);
+            }
+        }
+    }
+
+    private DefinicoesJogo(String origem, List<LinhaDados> classes, List<LinhaDados> regioes,
+                           List<LinhaDados> conexoes, List<LinhaDados> eventos, List<LinhaDados> eventosPorRegiao) {
+        this.origem = origem;
+        nomesClasses = new String[classes.size()];
+        numeroClasse = new int[classes.size()];
+        vidaClasse = new int[classes.size()];
+        ataqueClasse = new int[classes.size()];
+        boolean[] definida = new boolean[JogoRPG.CLASSES.length + 1];
+        for (int i = 0; i < classes.size(); i++) {
+            LinhaDados c = classes.get(i);
+            nomesClasses[i] = c.campos[1];
+            numeroClasse[i] = JogoRPG.numeroDaClasse(c.campos[1]);
+            if (numeroClasse[i] == 0) {
+                throw c.erro("classe sem implementação: " + c.campos[1] + " (as classes do jogo são "
+                        + String.join(", ", JogoRPG.CLASSES) + ")");
+            }
+            if (definida[numeroClasse[i]]) throw c.erro("classe repetida: " + c.campos[1]);
+            definida[numeroClasse[i]] = true;
+            vidaClasse[i] = c.inteiro(2);
+            ataqueClasse[i] = c.inteiro(3);
+            // Descanso e poções curam até RegrasCombate.VIDA_MAXIMA: começar acima dela não teria volta.
+            if (vidaClasse[i] < 1 || vidaClasse[i] > RegrasCombate.VIDA_MAXIMA) {
+                throw c.erro("a vida da classe precisa estar entre 1 e " + RegrasCombate.VIDA_MAXIMA + ": " + vidaClasse[i]);
+            }
+            if (ataqueClasse[i] < 1) throw c.erro("o ataque da classe precisa ser positivo: " + ataqueClasse[i]);
+        }
+        // Toda classe do jogo precisa de vida e ataque: jornadas salvas, o placar e as habilidades contam
+        // com todas elas. A falta é apontada na última linha de classe dos dados.
+        if (!classes.isEmpty()) {
+            List<String> faltando = new ArrayList<>();
+            for (int numero = 1; numero < definida.length; numero++) {
+                if (!definida[numero]) faltando.add(JogoRPG.CLASSES[numero - 1]);
+            }
+            if (!faltando.isEmpty()) {
+                throw classes.get(classes.size() - 1).erro("faltam as classes " + String.join(", ", faltando));
+            }
+        }
+
+        mapa = new Mapa();
+        Map<String, Integer> indices = new HashMap<>(regioes.size() * 2);
+        for (LinhaDados r : regioes) {
+            if (indices.putIfAbsent(r.campos[1], mapa.quantidadeRegioes()) != null) {
+                throw r.erro("região repetida: " + r.campos[1]);
+            }
+            try {
+                mapa.adicionarRegiao(new Regiao(r.campos[1], r.campos[3], booleano(r, 2)));
+            } catch (IllegalStateException e) {
+                throw r.erro(e.getMessage());
+            }
+        }
+        for (LinhaDados c : conexoes) {
+            int a = indiceDaRegiao(indices, c, 1);
+            int b = indiceDaRegiao(indices, c, 2);
+            if (c.campos[0].equals("atalho")) {
+                try {
+                    mapa.conectarComAtalho(a, b, CatalogoItens.registrar(c.campos[3]));
+                } catch (IllegalStateException e) {
+                    throw c.erro(e.getMessage());
+                }
+            } else {
+                mapa.conectar(a, b);
+            }
+        }
+
+        int n = eventos.size();
+        idEvento = new String[n];
+        textoEvento = new String[n];
+        tipoEvento = new int[n];
+        itemEvento = new Item[n];
+        danoMinimoEvento = new int[n];
+        variacaoDanoEvento = new int[n];
+        for (int i = 0; i < n; i++) {
+            LinhaDados e = eventos.get(i);
+            idEvento[i] = e.campos[1];
+            if (e.campos[2].equals("item")) {
+                tipoEvento[i] = EVENTO_ITEM;
+                itemEvento[i] = CatalogoItens.registrar(e.campos[3]);
+                textoEvento[i] = e.campos[4];
+            } else if (e.campos[2].equals("dano")) {
+                tipoEvento[i] = EVENTO_DANO;
+                danoMinimoEvento[i] = e.inteiro(3);
+                variacaoDanoEvento[i] = e.inteiro(4);
+                if (danoMinimoEvento[i] < 0) throw e.erro("o dano mínimo não pode ser negativo");
+                if (variacaoDanoEvento[i] <= 0) throw e.erro("a variação do dano precisa ser positiva");
+                textoEvento[i] = e.campos[5];
+            } else {
+                throw e.erro("tipo de evento desconhecido: " + e.campos[2]);
+            }
+        }
+        if (nomesClasses.length == 0 || mapa.quantidadeRegioes() == 0 || n == 0) {
+            throw new IllegalArgumentException(origem + ": os dados precisam de ao menos uma classe, uma região e um evento.");
+        }
+
+        // Tabelas de sorteio de cada região, montadas já na carga.
+        Map<String, Integer> indicesEventos = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            if (indicesEventos.put(idEvento[i], i) != null) {
+                throw eventos.get(i).erro("evento repetido: " + idEvento[i]);
+            }
+        }
+        List<List<LinhaDados>> linhasPorRegiao = new ArrayList<>(regioes.size());
+        for (int i = 0; i < regioes.size(); i++) linhasPorRegiao.add(new ArrayList<>());
+        for (LinhaDados e : eventosPorRegiao) {
+            linhasPorRegiao.get(indiceDaRegiao(indices, e, 1)).add(e);
+        }
+        EventosRegiao todosPorIgual = EventosRegiao.uniforme(n);
+        eventosRegiao = new EventosRegiao[regioes.size()];
+        for (int r = 0; r < eventosRegiao.length; r++) {
+            List<LinhaDados> linhas = linhasPorRegiao.get(r);
+            eventosRegiao[r] = linhas.isEmpty()
+                    ? todosPorIgual
+                    : EventosRegiao.montar(regioes.get(r), linhas, indicesEventos);
+        }
+    }
+
+    // Só "true" ou "false": um erro de digitação não pode virar false em silêncio.
+    private static boolean booleano(LinhaDados linha, int campo) {
+        switch (linha.campos[campo]) {
+            case "true": return true;
+            case "false": return false;
+            default: throw linha.erro("esperava true ou false: " + linha.campos[campo]);
+        }
+    }
+
+    private static int indiceDaRegiao(Map<String, Integer> indices, LinhaDados linha, int campo) {
+        Integer indice = indices.get(linha.campos[campo]);
+        if (indice == null) throw linha.erro("região desconhecida: " + linha.campos[campo]);
+        return indice;
+    }
+
+    // Tabela vigente; na primeira chamada carrega a partir da origem padrão.
+    static DefinicoesJogo atual() {
+        DefinicoesJogo definicoes = atual.get();
+        if (definicoes == null) {
+            definicoes = carregarPadrao();
+            if (!atual.compareAndSet(null, definicoes)) {
+                definicoes = atual.get();
+            }
+        }
+        return definicoes;
+    }
+
+    // Troca a tabela vigente. Em caso de erro nos dados a tabela antiga continua valendo.
+    static DefinicoesJogo recarregar(Path arquivo) throws IOException {
+        DefinicoesJogo nova = interpretar(arquivo.toString(), Files.readString(arquivo, StandardCharsets.UTF_8));
+        atual.set(nova);
+        return nova;
+    }
+
+    private static DefinicoesJogo carregarPadrao() {
+        Path arquivo = arquivoDeDados();
+        try {
+            if (arquivo != null) {
+                return interpretar(arquivo.toString(), Files.readString(arquivo, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível ler " + arquivo, e);
+        }
+        return interpretar("(dados embutidos)", DADOS_PADRAO);
+    }
+
+    // Arquivo de dados configurado, ou null para usar os dados embutidos.
+    static Path arquivoDeDados() {
+        String propriedade = System.getProperty(PROPRIEDADE_ARQUIVO);
+        if (propriedade != null) return Paths.get(propriedade);
+        Path padrao = Paths.get(ARQUIVO_PADRAO);
+        return Files.isRegularFile(padrao) ? padrao : null;
+    }
+
+    static DefinicoesJogo interpretar(String origem, String texto) {
+        List<LinhaDados> classes = new ArrayList<>();
+        List<LinhaDados> regioes = new ArrayList<>();
+        List<LinhaDados> conexoes = new ArrayList<>();
+        List<LinhaDados> eventos = new ArrayList<>();
+        List<LinhaDados> eventosPorRegiao = new ArrayList<>();
+        int numeroLinha = 0;
+        for (String linha : texto.split("\n")) {
+            numeroLinha++;
+            linha = linha.trim();
+            if (linha.isEmpty() || linha.startsWith("#")) continue;
+            String[] campos = linha.split("\\|");
+            int esperado;
+            List<LinhaDados> destino;
+            switch (campos[0]) {
+                case "eventoRegiao": esperado = campos.length == 5 ? 5 : 4; destino = eventosPorRegiao; break;
+                case "classe": esperado = 4; destino = classes; break;
+                case "regiao": esperado = 4; destino = regioes; break;
+                case "conexao": esperado = 3; destino = conexoes; break;
+                case "atalho": esperado = 4; destino = conexoes; break;
+                case "evento": esperado = campos.length > 2 && campos[2].equals("dano") ? 6 : 5; destino = eventos; break;
+                default:
+                    throw new IllegalArgumentException(origem + ":" + numeroLinha + ": definição desconhecida: " + campos[0]);
+            }
+            if (campos.length != esperado) {
+                throw new IllegalArgumentException(origem + ":" + numeroLinha + ": esperava " + esperado + " campos");
+            }
+            destino.add(new LinhaDados(campos, origem + ":" + numeroLinha));
+        }
+        return new DefinicoesJogo(origem, classes, regioes, conexoes, eventos, eventosPorRegiao);
+    }
+
+    // Recarrega o arquivo de dados sempre que ele mudar (verificado a cada intervalo).
+    // Não faz nada quando o jogo usa os dados embutidos.
+    static void vigiarArquivo(long intervaloMs) {
+        Path arquivo = arquivoDeDados();
+        if (arquivo == null) return;
+        ScheduledExecutorService vigia = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "vigia-definicoes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] ultimaModificacao = {modificacao(arquivo)};
+        vigia.scheduleWithFixedDelay(() -> {
+            long modificacao = modificacao(arquivo);
+            if (modificacao == ultimaModificacao[0]) return;
+            ultimaModificacao[0] = modificacao;
+            try {
+                recarregar(arquivo);
+                System.out.println("Definições recarregadas de " + arquivo);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Definições mantidas; erro ao recarregar " + arquivo + ": " + e.getMessage());
+            }
+        }, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static long modificacao(Path arquivo) {
+        try {
+            return Files.getLastModifiedTime(arquivo).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public String getOrigem() {
+        return origem;
+    }
+
+    public Mapa getMapa() {
+        return mapa;
+    }
+
+    private int indiceDaClasse(String classe) {
+        for (int i = 0; i < nomesClasses.length; i++) {
+            if (nomesClasses[i].equals(classe)) return i;
+        }
+        throw new IllegalArgumentException("Classe sem definição: " + classe);
+    }
+
+    public int vidaDaClasse(String classe) {
+        return vidaClasse[indiceDaClasse(classe)];
+    }
+
+    public int ataqueDaClasse(String classe) {
+        return ataqueClasse[indiceDaClasse(classe)];
+    }
+
+    // Menu de criação de personagem: as classes na ordem dos dados, opções de 1 a quantidadeClasses().
+    public int quantidadeClasses() {
+        return nomesClasses.length;
+    }
+
+    public String nomeDaOpcao(int opcao) {
+        return nomesClasses[opcao - 1];
+    }
+
+    // Número da classe escolhida na opção do menu (o que vai para jornadas salvas, placar e habilidades).
+    public int classeDaOpcao(int opcao) {
+        return numeroClasse[opcao - 1];
+    }
+
+    public String[] nomesDasClasses() {
+        return nomesClasses.clone();
+    }
+
+    public int quantidadeEventos() {
+        return textoEvento.length;
+    }
+
+    public String idDoEvento(int evento) {
+        return idEvento[evento];
+    }
+
+    public String textoDoEvento(int evento) {
+        return textoEvento[evento];
+    }
+
+    public int tipoDoEvento(int evento) {
+        return tipoEvento[evento];
+    }
+
+    public Item itemDoEvento(int evento) {
+        return itemEvento[evento];
+    }
+
+    public int danoMinimoDoEvento(int evento) {
+        return danoMinimoEvento[evento];
+    }
+
+    public int variacaoDanoDoEvento(int evento) {
+        return variacaoDanoEvento[evento];
+    }
+
+    public EventosRegiao eventosDaRegiao(int regiao) {
+        return eventosRegiao[regiao];
+    }
+}
+
+// Eventos de uma região com suas condições (classe do jogador, item no inventário).
+// Cada combinação de condições atendidas tem a sua tabela de sorteio pronta desde a carga,
+// então escolher um evento é só montar a máscara das condições e sortear em O(1).
+final class EventosRegiao {
+    static final int MAXIMO_CONDICOES = 8;
+
+    private static final int CONDICAO_CLASSE = 0;
+    private static final int CONDICAO_ITEM = 1;
+
+    private final int[] tipoCondicao;
+    private final boolean[] negada;
+    private final String[] classeCondicao;
+    private final Item[] itemCondicao;
+    private final TabelaEventos[] porMascara;
+
+    private EventosRegiao(int[] tipoCondicao, boolean[] negada, String[] classeCondicao,
+                          Item[] itemCondicao, TabelaEventos[] porMascara) {
+        this.tipoCondicao = tipoCondicao;
+        this.negada = negada;
+        this.classeCondicao = classeCondicao;
+        this.itemCondicao = itemCondicao;
+        this.porMascara = porMascara;
+    }
+
+    // Todos os eventos com a mesma chance e sem condições (o comportamento original do jogo).
+    static EventosRegiao uniforme(int quantidadeEventos) {
+        int[] eventos = new int[quantidadeEventos];
+        int[] pesos = new int[quantidadeEventos];
+        for (int i = 0; i < quantidadeEventos; i++) {
+            eventos[i] = i;
+            pesos[i] = 1;
+        }
+        return new EventosRegiao(new int[0], new boolean[0], new String[0], new Item[0],
+                new TabelaEventos[]{new TabelaEventos(eventos, pesos)});
+    }
+
+    // Linhas no formato eventoRegiao|Região|id|peso[|condição]; regiao é a linha que define a região.
+    static EventosRegiao montar(DefinicoesJogo.LinhaDados regiao, List<DefinicoesJogo.LinhaDados> linhas,
+                                Map<String, Integer> indicesEventos) {
+        int n = linhas.size();
+        int[] eventos = new int[n];
+        int[] pesos = new int[n];
+        int[] condicaoDaLinha = new int[n];
+        List<String> condicoes = new ArrayList<>();
+        List<DefinicoesJogo.LinhaDados> primeiraComCondicao = new ArrayList<>();
+        boolean temIncondicional = false;
+        for (int i = 0; i < n; i++) {
+            DefinicoesJogo.LinhaDados linha = linhas.get(i);
+            Integer evento = indicesEventos.get(linha.campos[2]);
+            if (evento == null) throw linha.erro("evento desconhecido: " + linha.campos[2]);
+            eventos[i] = evento;
+            try {
+                pesos[i] = TabelaEventos.peso(linha.campos[3]);
+            } catch (NumberFormatException e) {
+                throw linha.erro("peso inválido: " + linha.campos[3]);
+            }
+            if (pesos[i] <= 0) throw linha.erro("o peso precisa ser positivo: " + pesos[i]);
+            if (linha.campos.length < 5) {
+                condicaoDaLinha[i] = -1;
+                temIncondicional = true;
+                continue;
+            }
+            int indice = condicoes.indexOf(linha.campos[4]);
+            if (indice < 0) {
+                indice = condicoes.size();
+                condicoes.add(linha.campos[4]);
+                primeiraComCondicao.add(linha);
+            }
+            condicaoDaLinha[i] = indice;
+        }
+        if (!temIncondicional) {
+            throw regiao.erro("a região " + regiao.campos[1] + " precisa de ao menos um evento sem condição");
+        }
+        int k = condicoes.size();
+        if (k > MAXIMO_CONDICOES) {
+            throw primeiraComCondicao.get(MAXIMO_CONDICOES).erro("a região " + regiao.campos[1] + " tem mais de "
+                    + MAXIMO_CONDICOES + " condições diferentes");
+        }
+
+        int[] tipoCondicao = new int[k];
+        boolean[] negada = new boolean[k];
+        String[] classeCondicao = new String[k];
+        Item[] itemCondicao = new Item[k];
+        for (int c = 0; c < k; c++) {
+            String condicao = condicoes.get(c);
+            negada[c] = condicao.startsWith("!");
+            if (negada[c]) condicao = condicao.substring(1);
+            if (condicao.startsWith("classe=")) {
+                tipoCondicao[c] = CONDICAO_CLASSE;
+                classeCondicao[c] = condicao.substring("classe=".length());
+                if (JogoRPG.numeroDaClasse(classeCondicao[c]) == 0) {
+                    throw primeiraComCondicao.get(c).erro("classe desconhecida na condição: " + classeCondicao[c]
+                            + " (as classes do jogo são " + String.join(", ", JogoRPG.CLASSES) + ")");
+                }
+            } else if (condicao.startsWith("item=")) {
+                tipoCondicao[c] = CONDICAO_ITEM;
+                itemCondicao[c] = CatalogoItens.registrar(condicao.substring("item=".length()));
+            } else {
+                throw primeiraComCondicao.get(c).erro("condição desconhecida: " + condicoes.get(c));
+            }
+        }
+
+        TabelaEventos[] porMascara = new TabelaEventos[1 << k];
+        int[] ativos = new int[n];
+        int[] pesosAtivos = new int[n];
+        for (int mascara = 0; mascara < porMascara.length; mascara++) {
+            int quantos = 0;
+            for (int i = 0; i < n; i++) {
+                int c = condicaoDaLinha[i];
+                if (c < 0 || (mascara & (1 << c)) != 0) {
+                    ativos[quantos] = eventos[i];
+                    pesosAtivos[quantos++] = pesos[i];
+                }
+            }
+            porMascara[mascara] = new TabelaEventos(Arrays.copyOf(ativos, quantos), Arrays.copyOf(pesosAtivos, quantos));
+        }
+        return new EventosRegiao(tipoCondicao, negada, classeCondicao, itemCondicao, porMascara);
+    }
+
+    // Tabela que vale para este jogador agora.
+    TabelaEventos tabelaPara(PersonagemBase jogador, Inventario<Item> inventario) {
+        int mascara = 0;
+        for (int c = 0; c < tipoCondicao.length; c++) {
+            boolean atendida = tipoCondicao[c] == CONDICAO_CLASSE
+                    ? classeCondicao[c].equals(jogador.getClasse())
+                    : inventario.contem(itemCondicao[c]);
+            if (atendida != negada[c]) mascara |= 1 << c;
+        }
+        return porMascara[mascara];
+    }
+}
+
+// Sorteio ponderado em O(1) pelo método alias (variante de Vose), com aritmética inteira.
+// Cada coluna guarda um evento, um limiar de 0 a ESCALA e um evento alternativo: um único número
+// sorteado em [0, limiteSorteio()) escolhe a coluna pelos bits altos e compara os bits baixos com
+// o limiar. Assim cada evento continua custando uma só rolagem no diário da sessão.
+// Tabelas com pesos todos iguais sorteiam direto em [0, n), igual ao jogo antes das tabelas.
+final class TabelaEventos {
+    static final int BITS_ESCALA = 16;
+    static final int ESCALA = 1 << BITS_ESCALA;
+    static final int MAXIMO_EVENTOS = Integer.MAX_VALUE >> BITS_ESCALA;
+
+    static final int PESO_COMUM = 100;
+    static final int PESO_INCOMUM = 40;
+    static final int PESO_RARO = 10;
+    static final int PESO_LENDARIO = 2;
+
+    private final int[] evento;
+    private final int[] limiar;
+    private final int[] alias;
+    private final boolean uniforme;
+
+    TabelaEventos(int[] eventos, int[] pesos) {
+        int n = eventos.length;
+        if (n == 0 || n > MAXIMO_EVENTOS) {
+            throw new IllegalArgumentException("Uma tabela precisa de 1 a " + MAXIMO_EVENTOS + " eventos");
+        }
+        evento = eventos.clone();
+        limiar = new int[n];
+        alias = new int[n];
+
+        long total = 0;
+        boolean iguais = true;
+        for (int peso : pesos) {
+            if (peso <= 0) throw new IllegalArgumentException("Peso precisa ser positivo: " + peso);
+            total += peso;
+            iguais &= peso == pesos[0];
+        }
+        uniforme = iguais;
+
+        // Em unidades onde uma coluna cheia vale "total": cada evento ocupa peso * n.
+        long[] restante = new long[n];
+        int[] pequenos = new int[n];
+        int[] grandes = new int[n];
+        int quantosPequenos = 0;
+        int quantosGrandes = 0;
+        for (int i = 0; i < n; i++) {
+            restante[i] = (long) pesos[i] * n;
+            if (restante[i] < total) pequenos[quantosPequenos++] = i;
+            else grandes[quantosGrandes++] = i;
+        }
+        while (quantosPequenos > 0 && quantosGrandes > 0) {
+            int pequeno = pequenos[--quantosPequenos];
+            int grande = grandes[--quantosGrandes];
+            limiar[pequeno] = (int) (restante[pequeno] * ESCALA / total);
+            alias[pequeno] = evento[grande];
+            restante[grande] -= total - restante[pequeno];
+            if (restante[grande] < total) pequenos[quantosPequenos++] = grande;
+            else grandes[quantosGrandes++] = grande;
+        }
+        // O que sobrou ocupa a coluna inteira (só diferenças de arredondamento ficam aqui).
+        while (quantosGrandes > 0) fecharColuna(grandes[--quantosGrandes]);
+        while (quantosPequenos > 0) fecharColuna(pequenos[--quantosPequenos]);
+    }
+
+    private void fecharColuna(int coluna) {
+        limiar[coluna] = ESCALA;
+        alias[coluna] = evento[coluna];
+    }
+
+    // Número ou nome de raridade.
+    static int peso(String texto) {
+        switch (texto) {
+            case "comum": return PESO_COMUM;
+            case "incomum": return PESO_INCOMUM;
+            case "raro": return PESO_RARO;
+            case "lendario": return PESO_LENDARIO;
+            default: return Integer.parseInt(texto);
+        }
+    }
+
+    public int quantidade() {
+        return evento.length;
+    }
+
+    // Limite exclusivo do número a sortear para escolher().
+    public int limiteSorteio() {
+        return uniforme ? evento.length : evento.length << BITS_ESCALA;
+    }
+
+    public int escolher(int sorteio) {
+        if (uniforme) return evento[sorteio];
+        int coluna = sorteio >>> BITS_ESCALA;
+        return (sorteio & (ESCALA - 1)) < limiar[coluna] ? evento[coluna] : alias[coluna];
+    }
+}
+
+// Estado mutável de uma sessão reduzido a primitivos: é o que os arquivos de jornada gravam.
+// contagens[id] = quantidade do item com aquele id no CatalogoItens deste processo (no arquivo o item
+// vai pelo nome).
+class EstadoSessao {
+    int classe; // número da classe, como em JogoRPG.CLASSES (1 = Cavaleiro)
+    String nome;
+    int vida;
+    int ataqueBase;
+    int regiaoAtual;
+    long semente;
+    long estadoAleatorio;
+    int[] contagens = new int[0];
+}
+
+// Arquivo binário versionado de sessões, acessado por mapeamento em memória (MappedByteBuffer).
+// Cada sessão ocupa um slot de tamanho fixo, então gravar ou ler a sessão N é um acesso direto
+// ao deslocamento CABECALHO + N * TAMANHO_SLOT, sem percorrer o arquivo.
+//
+// Cabeçalho: int mágico "ELDR", short versão, short tamanho do slot, int quantidade de slots.
+// Slot: byte ocupado, byte classe, short vida, short ataque, int região, long semente,
+//       long estado do gerador, byte tamanho do nome + até 48 bytes UTF-8,
+//       short quantidade de pilhas + pilhas (byte tamanho do nome do item + nome UTF-8, int quantidade),
+//       até o fim do slot.
+// Os itens vão pelo nome, não pelo id do CatalogoItens: os ids dependem da ordem em que os dados
+// registram os itens, e uma jornada precisa sobreviver a outro arquivo de dados ou a uma recarga.
+// Versão 2: itens pelo nome (a 1 gravava o id).
+class ArquivoSessoes implements Closeable {
+    static final int MAGICO = 0x454C4452; // "ELDR"
+    static final short VERSAO = 2;
+    static final int CABECALHO = 12;
+    static final int TAMANHO_SLOT = 512;
+    static final int MAXIMO_BYTES_NOME = 48;
+    private static final int INICIO_PILHAS = 1 + 1 + 2 + 2 + 4 + 8 + 8 + 1 + MAXIMO_BYTES_NOME;
+
+    private FileChannel canal;
+    private MappedByteBuffer mapa;
+    private int quantidade;
+
+    private ArquivoSessoes(FileChannel canal, MappedByteBuffer mapa, int quantidade) {
+        this.canal = canal;
+        this.mapa = mapa;
+        this.quantidade = quantidade;
+    }
+
+    // Cria (ou reaproveita) um arquivo com espaço para a quantidade de sessões pedida.
+    static ArquivoSessoes abrir(Path arquivo, int quantidade) throws IOException {
+        if (arquivo.getParent() != null) Files.createDirectories(arquivo.getParent());
+        FileChannel canal = FileChannel.open(arquivo,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long tamanho = CABECALHO + (long) quantidade * TAMANHO_SLOT;
+        MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanho);
+        mapa.putInt(0, MAGICO);
+        mapa.putShort(4, VERSAO);
+        mapa.putShort(6, (short) TAMANHO_SLOT);
+        mapa.putInt(8, quantidade);
+        return new ArquivoSessoes(canal, mapa, quantidade);
+    }
+
+    // Abre um arquivo já gravado, validando o cabeçalho.
+    static ArquivoSessoes abrirExistente(Path arquivo) throws IOException {
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (canal.size() < CABECALHO) throw new IOException("Arquivo de jornada vazio ou corrompido.");
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+            if (mapa.getInt(0) != MAGICO) throw new IOException("Não é um arquivo de jornada.");
+            if (mapa.getShort(4) != VERSAO || mapa.getShort(6) != TAMANHO_SLOT) {
+                throw new IOException("Versão de arquivo de jornada não suportada: " + mapa.getShort(4));
+            }
+            int quantidade = mapa.getInt(8);
+            if (CABECALHO + (long) quantidade * TAMANHO_SLOT > canal.size()) {
+                throw new IOException("Arquivo de jornada truncado.");
+            }
+            return new ArquivoSessoes(canal, mapa, quantidade);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    public int quantidade() {
+        return quantidade;
+    }
+
+    public void gravar(int slot, EstadoSessao estado) {
+        codificar(mapa, deslocamento(slot), estado);
+    }
+
+    // Lê o slot, ou devolve null se ele nunca foi gravado.
+    public EstadoSessao ler(int slot) throws IOException {
+        return decodificar(mapa, deslocamento(slot));
+    }
+
+    // Escreve o estado no formato de slot a partir de base (também usado pelos instantâneos do diário).
+    static void codificar(ByteBuffer mapa, int base, EstadoSessao estado) {
+        byte[] nome = nomeLimitado(estado.nome);
+        mapa.put(base, (byte) 1);
+        mapa.put(base + 1, (byte) estado.classe);
+        mapa.putShort(base + 2, (short) estado.vida);
+        mapa.putShort(base + 4, (short) estado.ataqueBase);
+        mapa.putInt(base + 6, estado.regiaoAtual);
+        mapa.putLong(base + 10, estado.semente);
+        mapa.putLong(base + 18, estado.estadoAleatorio);
+        mapa.put(base + 26, (byte) nome.length);
+        mapa.put(base + 27, nome);
+
+        int pilhas = 0;
+        int posicao = base + INICIO_PILHAS + 2;
+        for (int id = 0; id < estado.contagens.length; id++) {
+            if (estado.contagens[id] == 0) continue;
+            byte[] nomeItem = CatalogoItens.porId(id).getNomeUtf8();
+            if (nomeItem.length > 255) {
+                throw new IllegalArgumentException("Nome de item longo demais para um slot de jornada: " + CatalogoItens.porId(id));
+            }
+            if (posicao + 1 + nomeItem.length + 4 > base + TAMANHO_SLOT) {
+                throw new IllegalArgumentException("Itens diferentes demais para um slot de jornada.");
+            }
+            mapa.put(posicao, (byte) nomeItem.length);
+            mapa.put(posicao + 1, nomeItem);
+            posicao += 1 + nomeItem.length;
+            mapa.putInt(posicao, estado.contagens[id]);
+            posicao += 4;
+            pilhas++;
+        }
+        mapa.putShort(base + INICIO_PILHAS, (short) pilhas);
+    }
+
+    // Lê o slot a partir de base. O conteúdo vem do disco e pode ser de outro programa ou estar
+    // corrompido: cada campo é conferido e qualquer valor impossível vira IOException, nunca um
+    // estado que só explode mais tarde no jogo. A região só é conferida contra o mapa na restauração.
+    static EstadoSessao decodificar(ByteBuffer mapa, int base) throws IOException {
+        byte ocupado = mapa.get(base);
+        if (ocupado == 0) return null;
+        if (ocupado != 1) throw new IOException("Slot de jornada corrompido: marcador " + ocupado + ".");
+
+        EstadoSessao estado = new EstadoSessao();
+        estado.classe = mapa.get(base + 1);
+        if (estado.classe < 1 || estado.classe > JogoRPG.CLASSES.length) {
+            throw new IOException("Slot de jornada corrompido: classe " + estado.classe + ".");
+        }
+        estado.vida = mapa.getShort(base + 2);
+        estado.ataqueBase = mapa.getShort(base + 4);
+        if (estado.vida < 0 || estado.ataqueBase < 0) {
+            throw new IOException("Slot de jornada corrompido: vida " + estado.vida + ", ataque " + estado.ataqueBase + ".");
+        }
+        estado.regiaoAtual = mapa.getInt(base + 6);
+        if (estado.regiaoAtual < 0) {
+            throw new IOException("Slot de jornada corrompido: região " + estado.regiaoAtual + ".");
+        }
+        estado.semente = mapa.getLong(base + 10);
+        estado.estadoAleatorio = mapa.getLong(base + 18);
+        int bytesNome = mapa.get(base + 26);
+        if (bytesNome < 0 || bytesNome > MAXIMO_BYTES_NOME) {
+            throw new IOException("Slot de jornada corrompido: nome de " + bytesNome + " bytes.");
+        }
+        byte[] nome = new byte[bytesNome];
+        mapa.get(base + 27, nome);
+        estado.nome = new String(nome, StandardCharsets.UTF_8);
+
+        int pilhas = mapa.getShort(base + INICIO_PILHAS);
+        if (pilhas < 0) throw new IOException("Slot de jornada corrompido: " + pilhas + " pilhas de itens.");
+        // Lê o slot inteiro antes de registrar qualquer nome: um slot corrompido não deixa itens no catálogo.
+        String[] nomesItens = new String[pilhas];
+        int[] quantidades = new int[pilhas];
+        int posicao = base + INICIO_PILHAS + 2;
+        for (int i = 0; i < pilhas; i++) {
+            int bytesItem = mapa.get(posicao) & 0xFF;
+            if (bytesItem == 0 || posicao + 1 + bytesItem + 4 > base + TAMANHO_SLOT) {
+                throw new IOException("Slot de jornada corrompido: pilha de itens " + i + " fora do slot.");
+            }
+            byte[] nomeItem = new byte[bytesItem];
+            mapa.get(posicao + 1, nomeItem);
+            nomesItens[i] = new String(nomeItem, StandardCharsets.UTF_8);
+            posicao += 1 + bytesItem;
+            quantidades[i] = mapa.getInt(posicao);
+            if (quantidades[i] <= 0) {
+                throw new IOException("Slot de jornada corrompido: " + quantidades[i] + " de " + nomesItens[i] + ".");
+            }
+            posicao += 4;
+        }
+        Item[] itens = new Item[pilhas];
+        int maiorId = -1;
+        for (int i = 0; i < pilhas; i++) {
+            itens[i] = CatalogoItens.registrar(nomesItens[i]);
+            maiorId = Math.max(maiorId, itens[i].getId());
+        }
+        estado.contagens = new int[maiorId + 1];
+        for (int i = 0; i < pilhas; i++) {
+            estado.contagens[itens[i].getId()] += quantidades[i];
+        }
+        return estado;
+    }
+
+    // Garante que o conteúdo mapeado chegou ao disco.
+    public void sincronizar() {
+        mapa.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    private int deslocamento(int slot) {
+        if (slot < 0 || slot >= quantidade) {
+            throw new IndexOutOfBoundsException("Slot de jornada inexistente: " + slot);
+        }
+        return CABECALHO + slot * TAMANHO_SLOT;
+    }
+
+    // Nome em UTF-8 cortado em MAXIMO_BYTES_NOME sem partir um caractere ao meio.
+    private static byte[] nomeLimitado(String nome) {
+        byte[] bytes = nome.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAXIMO_BYTES_NOME) return bytes;
+        int tamanho = MAXIMO_BYTES_NOME;
+        while (tamanho > 0 && (bytes[tamanho] & 0xC0) == 0x80) tamanho--;
+        return Arrays.copyOf(bytes, tamanho);
+    }
+}
+
+// Núcleo do jogo (engine principal).
+// [6] Agregação (0,5 pt): JogoRPG agrega Mapa, PersonagemBase e Inventario sem ser "dono" exclusivo deles.
+class JogoRPG {
+    // [1] Encapsulamento: atributos privados que representam o estado interno do jogo.
+    // A engine não conhece System.in/System.out: cada sessão recebe sua própria entrada e saída.
+    private EntradaJogo entrada;
+    private SaidaJogo saida;
+    // Gerador próprio da sessão: nenhum estado compartilhado entre sessões e replay pela semente.
+    private AleatorioSessao aleatorio;
+    // Recebe cada entrada e cada rolagem da sessão (diário em disco ou verificador de replay); pode ser null.
+    private RegistroSessao registro;
+    private int entradasDesdeInstantaneo;
+    private PersonagemBase jogador;
+    private DefinicoesJogo definicoes;
+    private Mapa mapa;
+    private int regiaoAtual; // índice no mapa da região onde o jogador está
+    private Path arquivoJornada; // onde "Salvar jornada" grava; null desativa a opção
+    private Raide raide; // chefe compartilhado com as outras sessões; null = chefe próprio da sessão
+    private Placar placar; // onde a jornada entra quando termina; null = sem placar (console)
+    private CanaisRegiao.Inscricao inscricao; // canal da região onde o jogador está; null = jogando sozinho
+    private int turnosJornada; // ações no menu principal desde o início da jornada
+    private int danoCausadoJornada;
+    private long inicioJornada;
+    private int classeJogador; // número da classe (1 a 6), para os contadores por classe
+    private int habilidadesJogador; // modificadores da classe do jogador, empacotados (ver Habilidades)
+    // Métricas da sessão (ver Metricas): contadores próprios, criados na primeira contagem,
+    // e a amostragem de latência, que desconta o tempo bloqueado esperando o jogador.
+    private long[] contadores;
+    private int contadorAmostragem = ThreadLocalRandom.current().nextInt();
+    private int medicoesAbertas;
+    private long nanosEsperandoEntrada;
+    private static final long SEM_MEDICAO = Long.MIN_VALUE;
+    private final LeitorComandos leitor = new LeitorComandos(); // última linha lida pelos menus
+    private Inventario<Item> inventario; // [8] Uso real da classe genérica Inventario<T> com T = Item.
+
+    // Sessão local no console (modo original do jogo).
+    public JogoRPG() {
+        this(new EntradaConsole(), new SaidaConsole());
+    }
+
+    // Sessão com entrada/saída arbitrárias (ex.: uma conexão TCP do servidor MUD).
+    public JogoRPG(EntradaJogo entrada, SaidaJogo saida) {
+        this(entrada, saida, ServicoAleatorio.novaSessao());
+    }
+
+    // Sessão com gerador explícito: com a mesma semente e as mesmas entradas o jogo se repete igual.
+    public JogoRPG(EntradaJogo entrada, SaidaJogo saida, AleatorioSessao aleatorio) {
+        this.entrada = entrada;
+        this.saida = saida;
+        this.aleatorio = aleatorio;
+        inventario = new Inventario<>();
+        montarMapaInicial();
+    }
+
+    // [9] Trama / enredo (0,5 pt):
+    // O mapa (regiões do enredo do culto da Chama Vazia e seus caminhos) vem das definições do jogo.
+    // É o mesmo objeto para todas as sessões: nada do mundo é copiado por jogador.
+    // A sessão fica com as definições (mapa e eventos) vigentes quando começou, mesmo que os dados
+    // sejam recarregados depois: os índices das regiões precisam bater com as tabelas de eventos.
+    private void montarMapaInicial() {
+        definicoes = DefinicoesJogo.atual();
+        mapa = definicoes.getMapa();
+        regiaoAtual = 0;
+    }
+
+    // Método que controla o fluxo geral do jogo:
+    // criação do personagem, exibição de status e entrada no loop principal.
+    public void iniciar() {
+        try {
+            jogar();
+        } catch (SessaoEncerradaException e) {
+            // O jogador fechou a entrada (EOF ou conexão caiu): a sessão simplesmente termina.
+        } finally {
+            saida.descarregar();
+            encerrarContadores();
+        }
+    }
+
+    // Continua uma jornada salva: restaura o estado e volta direto ao menu principal.
+    // Um estado que não cabe nesta sessão falha com IOException antes de qualquer saída.
+    public void retomar(EstadoSessao estado) throws IOException {
+        restaurarEstado(estado);
+        try {
+            saida.escreverLinha("Jornada retomada. " + jogador.descrever());
+            loopPrincipal();
+            saida.escreverLinha("\nObrigado por jogar! Até a próxima.");
+        } catch (SessaoEncerradaException e) {
+            // mesma regra de iniciar(): entrada encerrada termina a sessão
+        } finally {
+            saida.descarregar();
+            encerrarContadores();
+        }
+    }
+
+    public void setRegistro(RegistroSessao registro) {
+        this.registro = registro;
+    }
+
+    public void setRaide(Raide raide) {
+        this.raide = raide;
+    }
+
+    public void setPlacar(Placar placar) {
+        this.placar = placar;
+    }
+
+    public void setInscricao(CanaisRegiao.Inscricao inscricao) {
+        this.inscricao = inscricao;
+    }
+
+    public void setArquivoJornada(Path arquivo) {
+        this.arquivoJornada = arquivo;
+    }
+
+    // Fotografia do estado mutável da sessão, no formato usado pelos arquivos de jornada.
+    EstadoSessao capturarEstado() {
+        EstadoSessao estado = new EstadoSessao();
+        estado.classe = numeroDaClasse(jogador);
+        estado.nome = jogador.getNome();
+        estado.vida = jogador.getVida();
+        estado.ataqueBase = jogador.getAtaqueBase();
+        estado.regiaoAtual = regiaoAtual;
+        estado.semente = aleatorio.getSemente();
+        estado.estadoAleatorio = aleatorio.getEstado();
+        List<Item> itens = inventario.getItens();
+        int maiorId = -1;
+        for (Item item : itens) {
+            maiorId = Math.max(maiorId, item.getId());
+        }
+        estado.contagens = new int[maiorId + 1];
+        for (Item item : itens) {
+            estado.contagens[item.getId()] = inventario.quantidade(item);
+        }
+        return estado;
+    }
+
+    // Falha com IOException se o estado não cabe nas definições desta sessão (ex.: jornada salva com
+    // outro arquivo de dados, em que a região não existe).
+    void restaurarEstado(EstadoSessao estado) throws IOException {
+        if (estado.regiaoAtual >= mapa.quantidadeRegioes()) {
+            throw new IOException("A jornada está na região " + estado.regiaoAtual + ", mas o mapa atual tem "
+                    + mapa.quantidadeRegioes() + " regiões.");
+        }
+        definirJogador(novoPersonagem(estado.classe, estado.nome, definicoes));
+        // Sem setter de vida: a diferença é aplicada como dano (mesmo truque de descansar()).
+        jogador.receberDano(jogador.getVida() - estado.vida);
+        regiaoAtual = estado.regiaoAtual;
+        aleatorio = new AleatorioSessao(estado.semente);
+        aleatorio.setEstado(estado.estadoAleatorio);
+        inventario = new Inventario<>();
+        for (int id = 0; id < estado.contagens.length; id++) {
+            if (estado.contagens[id] > 0) {
+                inventario.adicionar(CatalogoItens.porId(id), estado.contagens[id]);
+            }
+        }
+    }
+
+    private void salvarJornada() {
+        try (ArquivoSessoes arquivo = ArquivoSessoes.abrir(arquivoJornada, 1)) {
+            arquivo.gravar(0, capturarEstado());
+            arquivo.sincronizar();
+            saida.escreverLinha("Jornada salva em " + arquivoJornada + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            // [5] Tratamento de exceções: falha ao salvar não encerra o jogo.
+            saida.escreverLinha("Não foi possível salvar a jornada: " + e.getMessage());
+        }
+    }
+
+    private void jogar() {
+        saida.escreverLinha("====================================");
+        saida.escreverLinha("        Devil's Bob MUD: Eldoria");
+        saida.escreverLinha("====================================\n");
+
+        criarPersonagem();
+        saida.escreverLinha("\nSeu personagem:");
+        // [3] Polimorfismo: o método descrever() é chamado via tipo PersonagemBase,
+        // mas a implementação vem da classe concreta específica do personagem.
+        saida.escreverLinha(jogador.descrever());
+        // [3] Polimorfismo: cada classe concreta fornece uma habilidade diferente.
+        saida.escreverLinha("Habilidade: " + jogador.getDescricaoHabilidade());
+
+        loopPrincipal();
+
+        saida.escreverLinha("\nObrigado por jogar! Até a próxima.");
+    }
+
+    // Lê o nome e permite ao usuário escolher uma das classes concretas de personagem.
+    private void criarPersonagem() {
+        saida.escrever("Digite o nome do seu personagem: ");
+        String nome = lerLinha();
+
+        while (nome.trim().isEmpty()) {
+            saida.escrever("Nome não pode ser vazio. Digite novamente: ");
+            nome = lerLinha();
+        }
+
+        // O menu vem das definições da sessão: as classes aparecem na ordem em que os dados as listam.
+        saida.escreverLinha("\nEscolha uma classe:");
+        for (int i = 1; i <= definicoes.quantidadeClasses(); i++) {
+            saida.escreverLinha(i + ") " + definicoes.nomeDaOpcao(i));
+        }
+
+        int classe = definicoes.classeDaOpcao(lerOpcaoMenu(1, definicoes.quantidadeClasses()));
+
+        jogador = novoPersonagem(classe, nome, definicoes);
+        classeJogador = classe;
+
+        // As habilidades de combate são resolvidas uma única vez aqui, não a cada golpe.
+        habilidadesJogador = Habilidades.daClasse(classe);
+    }
+
+    // As classes que têm implementação (uma subclasse de PersonagemBase cada); a posição + 1 é o número
+    // da classe, o mesmo gravado nos arquivos de jornada e usado pelo placar e pelas habilidades.
+    // Os dados do jogo precisam definir vida e ataque de todas; a ordem do menu é a deles.
+    static final String[] CLASSES = {"Cavaleiro", "Mago", "Arqueiro", "Berserk", "Viking", "Elfo"};
+
+    // Número da classe com este nome, ou 0 se nenhuma subclasse a implementa.
+    static int numeroDaClasse(String classe) {
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (CLASSES[i].equals(classe)) return i + 1;
+        }
+        return 0;
+    }
+
+    // Vida e ataque iniciais vêm da tabela de classes das definições passadas (as da sessão), não das
+    // vigentes agora: uma recarga dos dados no meio da sessão não muda quem ela cria.
+    static PersonagemBase novoPersonagem(int classe, String nome, DefinicoesJogo definicoes) {
+        String nomeClasse = CLASSES[classe - 1];
+        return novoPersonagem(classe, nome, definicoes.vidaDaClasse(nomeClasse), definicoes.ataqueDaClasse(nomeClasse));
+    }
+
+    static PersonagemBase novoPersonagem(int classe, String nome, int vida, int ataqueBase) {
         // [2] Herança + [3] Polimorfismo:
-        // a variável "jogador" é do tipo PersonagemBase,
+        // o retorno é do tipo PersonagemBase,
         // mas pode referenciar qualquer uma das subclasses concretas.
-        switch (opcao) {
-            case 1: jogador = new Cavaleiro(nome); break;
-            case 2: jogador = new Mago(nome); break;
-            case 3: jogador = new Arqueiro(nome); break;
-            case 4: jogador = new Berserk(nome); break;
-            case 5: jogador = new Viking(nome); break;
-            case 6: jogador = new Elfo(nome); break;
+        switch (classe) {
+            case 1: return new Cavaleiro(nome, vida, ataqueBase);
+            case 2: return new Mago(nome, vida, ataqueBase);
+            case 3: return new Arqueiro(nome, vida, ataqueBase);
+            case 4: return new Berserk(nome, vida, ataqueBase);
+            case 5: return new Viking(nome, vida, ataqueBase);
+            case 6: return new Elfo(nome, vida, ataqueBase);
             default: // não deve acontecer devido à validação
-                jogador = new Cavaleiro(nome);
+                return new Cavaleiro(nome, vida, ataqueBase);
+        }
+    }
+
+    static int numeroDaClasse(PersonagemBase personagem) {
+        int numero = personagem.getNumeroClasse();
+        return numero > 0 ? numero : 1;
+    }
+
+    // Loop principal do RPG: exibe opções, processa ações e verifica vitória/derrota.
+    private void loopPrincipal() {
+        boolean vivo = true;
+        boolean chefeDerrotado = false;
+
+        saida.escreverLinha("\nO mundo que você deve salvar:");
+        saida.escreverUtf8(mapa.descreverPaginaUtf8(0));
+        saida.escreverLinha("");
+        inicioJornada = System.nanoTime();
+        if (inscricao != null) {
+            saida.escreverLinha("Outros heróis andam por Eldoria: comece uma linha com ' para falar com quem está na sua região.");
+            entrarNaRegiao(regiaoAtual, jogador.getNome() + " chega por aqui.");
+        }
+
+        while (vivo && !chefeDerrotado) {
+            // O menu principal é o ponto de retomada: de tempos em tempos o diário recebe um instantâneo
+            // e pode descartar tudo o que veio antes, então o replay não cresce com a idade da sessão.
+            if (registro != null && entradasDesdeInstantaneo >= RegistroSessao.ENTRADAS_POR_INSTANTANEO) {
+                registro.instantaneo(capturarEstado());
+                entradasDesdeInstantaneo = 0;
+            }
+
+            saida.escreverLinha("\nO que deseja fazer, " + jogador.getNome() + "?");
+            saida.escreverLinha("1) Explorar uma região");
+            saida.escreverLinha("2) Ver inventário");
+            saida.escreverLinha("3) Descansar");
+            saida.escreverLinha("4) Desistir da jornada");
+            if (arquivoJornada != null) {
+                saida.escreverLinha("5) Salvar jornada");
+            }
+
+            int opcao = lerOpcaoMenu(1, arquivoJornada != null ? 5 : 4);
+            turnosJornada++;
+
+            switch (opcao) {
+                case 1:
+                    long medicaoExplorar = iniciarMedicao();
+                    chefeDerrotado = explorarRegiao();
+                    encerrarMedicao(Metricas.EXPLORAR, medicaoExplorar);
+                    break;
+                case 2:
+                    mostrarInventario();
+                    break;
+                case 3:
+                    long medicaoDescansar = iniciarMedicao();
+                    descansar();
+                    encerrarMedicao(Metricas.DESCANSAR, medicaoDescansar);
+                    break;
+                case 4:
+                    saida.escreverLinha("Você decide abandonar a missão. O culto avança impune...");
+                    vivo = false;
+                    break;
+                case 5:
+                    salvarJornada();
+                    break;
+            }
+
+            if (jogador.getVida() <= 0) {
+                vivo = false;
+                saida.escreverLinha("\nVocê cai de joelhos. A escuridão toma Eldoria.");
+                if (inscricao != null) inscricao.publicar("* " + jogador.getNome() + " cai de joelhos e não se levanta mais.");
+            }
+        }
+
+        if (chefeDerrotado) {
+            saida.escreverLinha("\nCom o líder do culto derrotado, a chama vazia se apaga e Eldoria pode, enfim, reconstruir-se.");
+        }
+        if (placar != null) {
+            registrarNoPlacar(chefeDerrotado ? Placar.VITORIA : jogador.getVida() > 0 ? Placar.DESISTENCIA : Placar.MORTE);
+        }
+    }
+
+    // Leva a jornada que acabou ao placar do servidor e mostra onde ela ficou na classe e no geral.
+    private void registrarNoPlacar(int desfecho) {
+        Placar.Jornada jornada = placar.registrar(jogador.getNome(), classeJogador, desfecho, turnosJornada,
+                danoCausadoJornada, jogador.getVida(), (System.nanoTime() - inicioJornada) / 1_000_000);
+        String classe = CLASSES[classeJogador - 1];
+        saida.escreverLinha("\nPlacar: " + jornada.getPontos() + " pontos (" + Placar.DESFECHOS[desfecho] + " em "
+                + turnosJornada + " turno(s)).");
+        saida.escreverLinha(classe + ": " + placar.posicao(classeJogador, jornada.getPontos()) + "º de "
+                + placar.quantidade(classeJogador) + ". Geral: " + placar.posicao(Placar.GERAL, jornada.getPontos())
+                + "º de " + placar.quantidade(Placar.GERAL) + ".");
+        List<Placar.Jornada> melhores = placar.melhores(classeJogador, 3);
+        for (int i = 0; i < melhores.size(); i++) {
+            Placar.Jornada melhor = melhores.get(i);
+            saida.escreverLinha("  " + (i + 1) + ") " + melhor.getNome() + " - " + melhor.getPontos() + " pontos ("
+                    + Placar.DESFECHOS[melhor.getDesfecho()] + ")");
+        }
+    }
+
+    int lerOpcaoMenu(int min, int max) {
+        long medicao = iniciarMedicao();
+        int opcao = lerOpcaoValidada(min, max);
+        encerrarMedicao(Metricas.MENU, medicao);
+        return opcao;
+    }
+
+    // Início da medição de um comando sorteado pela amostragem, já descontando a espera pelo jogador até aqui.
+    private long iniciarMedicao() {
+        if (!Metricas.ligadas || (++contadorAmostragem & (Metricas.AMOSTRAGEM - 1)) != 0) return SEM_MEDICAO;
+        medicoesAbertas++;
+        return System.nanoTime() - nanosEsperandoEntrada;
+    }
+
+    // Registra quanto o comando levou sem contar o tempo em que a sessão ficou esperando entrada.
+    private void encerrarMedicao(int comando, long inicio) {
+        if (inicio == SEM_MEDICAO) return;
+        medicoesAbertas--;
+        Metricas.comando(comando, System.nanoTime() - nanosEsperandoEntrada - inicio,
+                jogador != null ? jogador.getClasse() : null);
+    }
+
+    private void contar(int contador, long valor) {
+        if (!Metricas.ligadas) return;
+        if (contadores == null) contadores = Metricas.novosContadores();
+        contadores[contador] += valor;
+    }
+
+    private void encerrarContadores() {
+        if (contadores == null) return;
+        Metricas.devolverContadores(contadores);
+        contadores = null;
+    }
+
+    // Lê a opção do usuário com validação numérica e de faixa feita direto sobre os bytes da linha
+    // (LeitorComandos): entrada inválida é o caso comum quando um cliente inunda a sessão, então não
+    // passa por String, Integer.parseInt nem exceções. Aceita o mesmo que Integer.parseInt(linha.trim()).
+    private int lerOpcaoValidada(int min, int max) {
+        while (true) {
+            saida.escrever("Sua escolha: ");
+            lerComando();
+            if (inscricao != null && inscricao.getRegiao() >= 0 && leitor.comecaCom((byte) '\'')) {
+                falar(leitor.textoSemEspacos().substring(1).trim());
+            } else if (leitor.tipo() != LeitorComandos.NUMERO) {
+                saida.escreverLinha("Digite um número válido.");
+            } else if (leitor.numero() < min || leitor.numero() > max) {
+                saida.escreverLinha("Opção fora do intervalo permitido.");
+            } else {
+                return leitor.numero();
+            }
+        }
+    }
+
+    // Fala com quem está na mesma região (linha começando com ', como nos MUDs clássicos).
+    private void falar(String texto) {
+        // Sem caracteres de controle: o texto vai direto para o terminal dos outros jogadores.
+        texto = texto.replaceAll("\\p{Cntrl}", "");
+        if (texto.isEmpty()) return;
+        int ouvintes = inscricao.publicar(jogador.getNome() + " diz: " + texto);
+        saida.escreverLinha("Você diz: " + texto + (ouvintes == 0 ? " (ninguém por perto para ouvir)" : ""));
+    }
+
+    // Move a inscrição para a região e avisa quem já está lá.
+    private void entrarNaRegiao(int regiao, String aviso) {
+        inscricao.mudarPara(regiao);
+        inscricao.publicar("* " + aviso);
+    }
+
+    // Define o personagem sem passar pelo menu de criação (benchmarks e ferramentas sem interface).
+    void definirJogador(PersonagemBase personagem) {
+        jogador = personagem;
+        classeJogador = numeroDaClasse(personagem);
+        habilidadesJogador = Habilidades.daClasse(personagem);
+    }
+
+    Mapa getMapa() {
+        return mapa;
+    }
+
+    DefinicoesJogo getDefinicoes() {
+        return definicoes;
+    }
+
+    boolean temJogador() {
+        return jogador != null;
+    }
+
+    Inventario<Item> getInventario() {
+        return inventario;
+    }
+
+    // Semente registrada no início da sessão; basta ela (e as entradas) para reproduzir a partida.
+    public long getSemente() {
+        return aleatorio.getSemente();
+    }
+
+    // Único ponto de leitura da engine: entrega o texto pendente ao jogador e aguarda a próxima linha.
+    // Com diário, o jogador só vê o resultado de um turno depois que o turno está gravado em disco.
+    private String lerLinha() {
+        long antes = prepararLeitura();
+        String linha = entrada.lerLinha();
+        concluirLeitura(antes, linha != null);
+        if (registro != null) registro.entrada(linha);
+        return linha;
+    }
+
+    // A mesma leitura, direto para o leitor de comandos dos menus. Com diário a linha é gravada
+    // como texto de qualquer forma, então a String lida serve aos dois.
+    private void lerComando() {
+        if (registro != null) {
+            leitor.definir(lerLinha());
+            return;
+        }
+        long antes = prepararLeitura();
+        concluirLeitura(antes, entrada.lerComando(leitor));
+    }
+
+    private long prepararLeitura() {
+        if (registro != null) registro.confirmar();
+        saida.descarregar();
+        return medicoesAbertas > 0 ? System.nanoTime() : SEM_MEDICAO;
+    }
+
+    private void concluirLeitura(long antes, boolean leu) {
+        if (antes != SEM_MEDICAO) nanosEsperandoEntrada += System.nanoTime() - antes;
+        if (!leu) {
+            throw new SessaoEncerradaException();
+        }
+        if (registro != null) entradasDesdeInstantaneo++;
+    }
+
+    // Única fonte de sorte da engine: passar por aqui permite registrar e conferir cada rolagem.
+    private int rolar(int limite) {
+        int valor = aleatorio.nextInt(limite);
+        if (registro != null) registro.rolagem(limite, valor);
+        return valor;
+    }
+
+    // Controla o fluxo de exploração de uma região: escolhe a região, mostra descrição
+    // e decide se haverá evento aleatório ou combate com chefe.
+    // Só é possível explorar a região atual ou seguir por uma conexão aberta a partir dela.
+    private boolean explorarRegiao() {
+        int[] vizinhas = mapa.destinosLiberados(regiaoAtual, inventario);
+        int[] opcoes = new int[vizinhas.length + 1];
+        opcoes[0] = regiaoAtual;
+        System.arraycopy(vizinhas, 0, opcoes, 1, vizinhas.length);
+
+        try {
+            saida.escreverLinha("\nEscolha a região para explorar:");
+            for (int i = 0; i < opcoes.length; i++) {
+                saida.escreverLinha((i + 1) + ") " + mapa.getRegiao(opcoes[i]).getNome()
+                        + (i == 0 ? " (você está aqui)" : ""));
+            }
+            mostrarRotaAteChefe();
+
+            int escolha = lerOpcaoMenu(1, opcoes.length);
+            int indice = opcoes[escolha - 1];
+
+            Regiao regiao = mapa.getRegiao(indice); // pode lançar OpcaoInvalidaException
+            if (inscricao != null && indice != regiaoAtual) {
+                entrarNaRegiao(indice, jogador.getNome() + " chega por aqui.");
+            }
+            regiaoAtual = indice;
+            saida.escreverLinha("");
+            saida.escreverUtf8(regiao.descreverUtf8());
+            saida.escreverLinha("");
+
+            if (regiao.temChefe()) {
+                long medicao = iniciarMedicao();
+                boolean venceu = enfrentarChefe(regiao);
+                encerrarMedicao(Metricas.CHEFE, medicao);
+                return venceu;
+            } else {
+                eventoAleatorio(regiao);
+                return false;
+            }
+        } catch (OpcaoInvalidaException e) {
+            // [5] Tratamento de exceções: mensagem amigável ao usuário em caso de erro inesperado.
+            saida.escreverLinha("Erro inesperado ao acessar a região: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Mostra o caminho mais curto até a fortaleza do chefe com os atalhos que o jogador já conhece.
+    private void mostrarRotaAteChefe() throws OpcaoInvalidaException {
+        int chefe = mapa.indiceDoChefe();
+        if (chefe < 0 || chefe == regiaoAtual) return;
+        int[] rota = mapa.rota(regiaoAtual, chefe, inventario);
+        if (rota == null) return;
+
+        StringBuilder sb = new StringBuilder("Rota até ").append(mapa.getRegiao(chefe).getNome()).append(": ");
+        for (int i = 0; i < rota.length; i++) {
+            if (i > 0) sb.append(" -> ");
+            sb.append(mapa.getRegiao(rota[i]).getNome());
+        }
+        saida.escreverLinha(sb.toString());
+    }
+
+    // Gera um evento narrativo em regiões comuns (sem chefe), sorteado na tabela da região
+    // conforme os pesos e as condições que o jogador atende agora.
+    private void eventoAleatorio(Regiao regiao) {
+        int evento = sortearEvento(definicoes, regiaoAtual, jogador, inventario, this::rolar);
+
+        saida.escreverLinha(definicoes.textoDoEvento(evento));
+        if (definicoes.tipoDoEvento(evento) == DefinicoesJogo.EVENTO_DANO) {
+            int dano = danoDoEvento(definicoes, evento, this::rolar);
+            aplicarDanoComHabilidade(dano);
+            saida.escreverLinha("Você sofre " + dano + " de dano. Vida atual: " + jogador.getVida());
+            if (inscricao != null) inscricao.publicar("* " + jogador.getNome() + " é pego de surpresa e sofre " + dano + " de dano.");
+        }
+    }
+
+    // Regras de exploração sem interface, as mesmas para a sessão e para os viajantes do MundoFragmentado.
+    // Sorteia o evento na tabela da região conforme o jogador e, se for de item, já o guarda.
+    static int sortearEvento(DefinicoesJogo definicoes, int regiao, PersonagemBase jogador,
+                             Inventario<Item> inventario, IntUnaryOperator rolar) {
+        TabelaEventos tabela = definicoes.eventosDaRegiao(regiao).tabelaPara(jogador, inventario);
+        int evento = tabela.escolher(rolar.applyAsInt(tabela.limiteSorteio()));
+        if (definicoes.tipoDoEvento(evento) == DefinicoesJogo.EVENTO_ITEM) {
+            inventario.adicionar(definicoes.itemDoEvento(evento));
+        }
+        return evento;
+    }
+
+    // Dano bruto de um evento de dano, antes das habilidades defensivas (ResolvedorCombate.danoFinal).
+    static int danoDoEvento(DefinicoesJogo definicoes, int evento, IntUnaryOperator rolar) {
+        return definicoes.danoMinimoDoEvento(evento) + rolar.applyAsInt(definicoes.variacaoDanoDoEvento(evento));
+    }
+
+    // Vida depois de um descanso: a cura da classe, sem passar da vida máxima.
+    static int vidaAposDescanso(int habilidades, int vida) {
+        return Math.min(RegrasCombate.VIDA_MAXIMA, vida + ResolvedorCombate.curaDescanso(habilidades));
+    }
+
+    // Lógica de combate contra o chefe final do culto.
+    boolean enfrentarChefe(Regiao regiao) {
+        saida.escreverLinha("\nVocê entra no salão principal da " + regiao.getNome() + ".");
+        saida.escreverLinha("O líder do Culto da Chama Vazia surge, envolto em fogo negro.\n");
+
+        // Sem raide o chefe é só desta sessão; no raide a vida dele cai com os golpes de todos.
+        ChefeCompartilhado chefe = raide != null ? raide.chefeAtual() : new ChefeCompartilhado(RegrasCombate.VIDA_CHEFE);
+        ChefeCompartilhado.Participante participante = chefe.entrar();
+        try {
+            return lutarContraChefe(chefe, participante);
+        } finally {
+            chefe.sair(participante); // também quando a conexão cai no meio da luta
+        }
+    }
+
+    // As rodadas da luta, até o chefe ou o jogador cair, e o espólio do raide.
+    private boolean lutarContraChefe(ChefeCompartilhado chefe, ChefeCompartilhado.Participante participante) {
+        contar(Metricas.LUTAS_INICIADAS + classeJogador - 1, 1);
+        if (raide != null) {
+            saida.escreverLinha("Heróis enfrentando este chefe: " + chefe.quantidadeParticipantes());
+        }
+
+        int habilidades = habilidadesJogador; // cópia da luta: a iniciativa (Tiro Preciso) se gasta nela
+        while (!chefe.derrotado() && jogador.getVida() > 0) {
+            saida.escreverLinha("Vida do chefe: " + chefe.getVida() + " | Sua vida: " + jogador.getVida());
+            saida.escreverLinha("1) Atacar");
+            saida.escreverLinha("2) Usar poção (se houver)");
+            saida.escreverLinha("3) Tentar dialogar");
+
+            int opcao = lerOpcaoMenu(1, 3);
+
+            if (opcao == 1) {
+                int danoJogador = ResolvedorCombate.danoCausado(habilidades,
+                        jogador.getAtaqueBase() + rolar(RegrasCombate.VARIACAO_ATAQUE), // base + 0..3
+                        jogador.getVida(), chefe.getVida());
+                int danoEfetivo = chefe.golpear(participante, danoJogador);
+                if (danoEfetivo == 0) break; // outro herói o derrubou antes
+                contar(Metricas.DANO_CAUSADO, danoEfetivo);
+                danoCausadoJornada += danoEfetivo;
+                saida.escreverLinha("Você ataca e causa " + danoJogador + " de dano!");
+                if (inscricao != null) inscricao.publicar("* " + jogador.getNome() + " golpeia o líder do culto: " + danoJogador + " de dano.");
+
+                if (chefe.derrotado()) break;
+                if (!ResolvedorCombate.revida(habilidades)) {
+                    habilidades = Habilidades.gastarIniciativa(habilidades);
+                    saida.escreverLinha("Seu golpe foi rápido demais: o chefe não consegue revidar.");
+                    continue;
+                }
+
+                int danoChefe = ResolvedorCombate.ataqueContra(habilidades,
+                        RegrasCombate.DANO_CHEFE_MINIMO + rolar(RegrasCombate.VARIACAO_DANO_CHEFE)); // 7..11
+                aplicarDanoComHabilidade(danoChefe);
+                saida.escreverLinha("O chefe contra-ataca e causa " + danoChefe + " de dano!");
+
+            } else if (opcao == 2) {
+                usarPocao();
+            } else {
+                saida.escreverLinha("Você tenta dialogar, mas o fanatismo do chefe é inabalável.");
+                int danoChefe = ResolvedorCombate.ataqueContra(habilidades,
+                        RegrasCombate.DANO_DIALOGO_MINIMO + rolar(RegrasCombate.VARIACAO_DANO_CHEFE));
+                aplicarDanoComHabilidade(danoChefe);
+                saida.escreverLinha("Ele responde com um ataque brutal de fogo negro! Dano: " + danoChefe);
+            }
+        }
+
+        boolean venceu = chefe.derrotado() && jogador.getVida() > 0;
+        contar((venceu ? Metricas.LUTAS_VENCIDAS : Metricas.LUTAS_PERDIDAS) + classeJogador - 1, 1);
+        if (venceu) {
+            saida.escreverLinha("\nO chefe cai derrotado. A chama vazia começa a se dissipar...");
+            if (inscricao != null) inscricao.publicar("* " + jogador.getNome() + " derrubou o líder do culto!");
+            if (raide != null) {
+                if (participante.derrubou()) saida.escreverLinha("Foi o seu golpe que o derrubou!");
+                int itens = chefe.reivindicarEspolio(participante, inventario);
+                if (itens > 0) saida.escreverLinha("Sua parte do espólio: " + itens + " item(ns). Confira o inventário.");
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    // Aplica o dano levando em conta as habilidades defensivas da classe do jogador
+    // (hoje, o Escudo de Fé do Cavaleiro reduz cada dano em 3 pontos).
+    void aplicarDanoComHabilidade(int danoBruto) {
+        danoBruto = ResolvedorCombate.danoFinal(habilidadesJogador, danoBruto);
+
+        jogador.receberDano(danoBruto);
+        contar(Metricas.DANO_RECEBIDO, danoBruto);
+    }
+
+    // Exibe o conteúdo do inventário usando o método genérico Inventario.imprimirLista.
+    private void mostrarInventario() {
+        saida.escreverLinha("\nInventário:");
+        if (inventario.estaVazio()) {
+            saida.escreverLinha("(vazio)");
+        } else {
+            // Uma linha por pilha, com a quantidade quando houver mais de uma unidade.
+            List<String> linhas = new ArrayList<>();
+            for (Item item : inventario.getItens()) {
+                int quantidade = inventario.quantidade(item);
+                linhas.add(quantidade > 1 ? item.getNome() + " (x" + quantidade + ")" : item.getNome());
+            }
+            Inventario.imprimirLista(linhas, saida);
+        }
+    }
+
+    // Simula um descanso do personagem, recuperando vida.
+    private void descansar() {
+        saida.escreverLinha("\nVocê encontra um local relativamente seguro e decide descansar um pouco.");
+        int vidaAntes = jogador.getVida();
+        // Elfo se cura mais ao descansar (Graça Silvestre); a vida máxima é simples, para fins de exemplo.
+        int novaVida = vidaAposDescanso(habilidadesJogador, vidaAntes);
+
+        // Não temos setter público, então vamos simular cura com dano negativo
+        // (apenas para o exemplo; em um projeto real seria melhor ter um método curar(int)).
+        int diferenca = novaVida - vidaAntes;
+        if (diferenca > 0) {
+            jogador.receberDano(-diferenca); // truque para "curar"
+        }
+
+        saida.escreverLinha("Você recupera " + diferenca + " pontos de vida.");
+        saida.escreverLinha("Vida atual: " + jogador.getVida());
+    }
+
+    // Usa o inventário para consumir uma poção de cura (se houver) e atualizar a vida do personagem.
+    void usarPocao() {
+        long medicao = iniciarMedicao();
+        // Consome uma unidade da pilha de poções: O(1) e sem reconstruir o inventário.
+        if (inventario.remover(CatalogoItens.POCAO_CURA_MENOR)) {
+            contar(Metricas.POCOES_USADAS, 1);
+            saida.escreverLinha("Você bebe uma poção de cura menor.");
+            int vidaAntes = jogador.getVida();
+            int cura = RegrasCombate.CURA_POCAO;
+            int vidaMaxima = RegrasCombate.VIDA_MAXIMA;
+            int novaVida = Math.min(vidaMaxima, vidaAntes + cura);
+            int diferenca = novaVida - vidaAntes;
+            if (diferenca > 0) {
+                jogador.receberDano(-diferenca);
+            }
+
+            saida.escreverLinha("Você recupera " + diferenca + " pontos de vida. Vida atual: " + jogador.getVida());
+        } else {
+            saida.escreverLinha("Você não possui nenhuma poção!");
+        }
+        encerrarMedicao(Metricas.POCAO, medicao);
+    }
+}
+
+// ================================================
+// Entrada e saída de uma sessão de jogo
+// ================================================
+
+// Contrato de entrada de uma sessão: console, socket, replay etc.
+interface EntradaJogo {
+    // Retorna a próxima linha digitada, sem o terminador, ou null quando a entrada terminou.
+    String lerLinha();
+
+    // Põe a próxima linha no leitor, já classificada; false quando a entrada terminou.
+    // O padrão passa pela String de lerLinha(); entradas que leem bytes entregam a linha sem criar String.
+    default boolean lerComando(LeitorComandos leitor) {
+        String linha = lerLinha();
+        if (linha == null) return false;
+        leitor.definir(linha);
+        return true;
+    }
+}
+
+// Monta linhas a partir dos bytes recebidos e as classifica sem criar String e sem exceções: entrada
+// inválida é o caso comum quando um bot ou um cliente atrasado inunda a sessão, e não deve custar mais
+// que a válida. Uma linha partida entre leituras fica guardada até chegar o '\n'; linhas maiores que
+// o limite são truncadas. A linha é NUMERO quando Integer.parseInt(linha.trim()) a aceitaria (só dígitos
+// ASCII), VAZIA quando só tem espaços e TEXTO no resto, que ainda pode ser uma palavra de um vocabulário.
+// A classificação só é feita na primeira consulta: quem só quer o texto (um nome) não paga por ela.
+final class LeitorComandos {
+    static final int TAMANHO_MAXIMO_LINHA = 255; // cabe no byte de tamanho do anel de entrada da arena
+    // Comandos de menu são curtos: o buffer começa pequeno e só cresce (até o máximo) quando chega
+    // uma linha longa, como um nome. Há um leitor por sessão, então isso conta na memória de cada uma.
+    static final int TAMANHO_INICIAL_LINHA = 16;
+    static final int VAZIA = 0;
+    static final int NUMERO = 1;
+    static final int TEXTO = 2;
+
+    private byte[] linha = new byte[TAMANHO_INICIAL_LINHA];
+    private int tamanho;
+    private boolean completa;
+    private boolean classificada;
+    // Classificação da última linha completa; inicio e fim delimitam a linha sem os espaços das pontas.
+    private int tipo;
+    private int numero;
+    private int inicio;
+    private int fim;
+
+    // Vocabulário de um menu em bytes minúsculos, montado uma vez; a posição + 1 é a opção.
+    static byte[][] vocabulario(String... palavras) {
+        byte[][] resultado = new byte[palavras.length][];
+        for (int i = 0; i < palavras.length; i++) {
+            resultado[i] = palavras[i].toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        }
+        return resultado;
+    }
+
+    // Consome bytes até fechar uma linha (true) ou esgotar o buffer (false, com a parte lida guardada).
+    // O que vier depois do '\n' fica no buffer para a próxima chamada.
+    boolean consumir(ByteBuffer bytes) {
+        if (completa) {
+            tamanho = 0;
+            completa = false;
+        }
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                if (tamanho > 0 && linha[tamanho - 1] == '\r') tamanho--;
+                completar();
+                return true;
+            }
+            if (tamanho < linha.length) {
+                linha[tamanho++] = b;
+            } else if (tamanho < TAMANHO_MAXIMO_LINHA) {
+                crescer(tamanho + 1);
+                linha[tamanho++] = b;
+            }
+        }
+        return false;
+    }
+
+    // Fim da entrada: o que sobrou sem '\n' vale como a última linha.
+    boolean terminar() {
+        if (completa || tamanho == 0) return false;
+        completar();
+        return true;
+    }
+
+    // Linha que já chega como texto (roteiros, replay); só texto fora de ASCII passa pelo codificador.
+    void definir(CharSequence texto) {
+        tamanho = 0;
+        crescer(Math.min(texto.length(), TAMANHO_MAXIMO_LINHA));
+        for (int i = 0; i < texto.length() && tamanho < TAMANHO_MAXIMO_LINHA; i++) {
+            char c = texto.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = texto.toString().getBytes(StandardCharsets.UTF_8);
+                tamanho = Math.min(bytes.length, TAMANHO_MAXIMO_LINHA);
+                crescer(tamanho);
+                System.arraycopy(bytes, 0, linha, 0, tamanho);
+                break;
+            }
+            linha[tamanho++] = (byte) c;
+        }
+        completar();
+    }
+
+    // Linha guardada num anel de bytes (posições tomadas módulo mascara + 1).
+    void definir(byte[] anel, int mascara, long posicao, int quantos) {
+        crescer(quantos);
+        for (int i = 0; i < quantos; i++) {
+            linha[i] = anel[(int) (posicao + i) & mascara];
+        }
+        tamanho = quantos;
+        completar();
+    }
+
+    private void crescer(int necessario) {
+        if (necessario > linha.length) {
+            linha = Arrays.copyOf(linha, Math.min(TAMANHO_MAXIMO_LINHA, Math.max(necessario, 2 * linha.length)));
+        }
+    }
+
+    private void completar() {
+        completa = true;
+        classificada = false;
+    }
+
+    private void classificar() {
+        if (classificada) return;
+        classificada = true;
+        inicio = 0;
+        fim = tamanho;
+        while (inicio < fim && (linha[inicio] & 0xFF) <= ' ') inicio++;
+        while (fim > inicio && (linha[fim - 1] & 0xFF) <= ' ') fim--;
+        tipo = inicio == fim ? VAZIA : lerNumero() ? NUMERO : TEXTO;
+    }
+
+    // Mesmas regras de Integer.parseInt: sinal opcional, ao menos um dígito e o valor cabendo em int.
+    private boolean lerNumero() {
+        int i = inicio;
+        boolean negativo = linha[i] == '-';
+        if (negativo || linha[i] == '+') i++;
+        if (i == fim) return false;
+        long valor = 0;
+        for (; i < fim; i++) {
+            int digito = linha[i] - '0';
+            if (digito < 0 || digito > 9) return false;
+            valor = valor * 10 + digito;
+            if (valor > Integer.MAX_VALUE + 1L) return false;
+        }
+        if (negativo) valor = -valor;
+        if (valor > Integer.MAX_VALUE) return false;
+        numero = (int) valor;
+        return true;
+    }
+
+    int tipo() {
+        classificar();
+        return tipo;
+    }
+
+    // Valor da linha; só vale quando tipo() é NUMERO.
+    int numero() {
+        return numero;
+    }
+
+    // Posição da linha no vocabulário (sem diferenciar maiúsculas ASCII), ou -1.
+    int palavra(byte[][] vocabulario) {
+        if (tipo() != TEXTO) return -1;
+        int n = fim - inicio;
+        for (int p = 0; p < vocabulario.length; p++) {
+            byte[] palavra = vocabulario[p];
+            if (palavra.length != n) continue;
+            int i = 0;
+            while (i < n && minuscula(linha[inicio + i]) == palavra[i]) i++;
+            if (i == n) return p;
+        }
+        return -1;
+    }
+
+    // Opção de menu de 1 a maximo, pelo número ou pela palavra do vocabulário; -1 se não for nenhuma.
+    int opcao(int maximo, byte[][] vocabulario) {
+        int valor = tipo() == NUMERO ? numero : palavra(vocabulario) + 1;
+        return valor >= 1 && valor <= maximo ? valor : -1;
+    }
+
+    private static byte minuscula(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    // Se a linha, sem os espaços das pontas, começa com o byte dado.
+    boolean comecaCom(byte b) {
+        return tipo() == TEXTO && linha[inicio] == b;
+    }
+
+    // A linha como String, só quando o texto é de fato necessário (nomes, diário).
+    String texto() {
+        return texto(StandardCharsets.UTF_8);
+    }
+
+    String texto(Charset charset) {
+        return new String(linha, 0, tamanho, charset);
+    }
+
+    String textoSemEspacos() {
+        classificar();
+        return new String(linha, inicio, fim - inicio, StandardCharsets.UTF_8);
+    }
+}
+
+// Contrato de saída de uma sessão. As implementações podem acumular o texto de um turno inteiro:
+// descarregar() é chamado antes de cada leitura (quando o jogador precisa ver o prompt).
+interface SaidaJogo {
+    void escrever(String texto);
+
+    void escreverLinha(String texto);
+
+    void descarregar();
+
+    // Texto já codificado em UTF-8 (ex.: descrições em cache). O padrão decodifica e escreve;
+    // saídas que trabalham com bytes copiam direto, sem codificar de novo.
+    default void escreverUtf8(ByteBuffer texto) {
+        escrever(StandardCharsets.UTF_8.decode(texto.duplicate()).toString());
+    }
+}
+
+// Entrada padrão do jogo local (teclado), lida em bytes como a de um socket.
+// O texto (nomes) é decodificado no charset do terminal, como fazia o Scanner.
+class EntradaConsole extends EntradaCanal {
+    public EntradaConsole() {
+        super(Channels.newChannel(System.in), Charset.defaultCharset());
+    }
+}
+
+// Saída padrão do jogo local (terminal).
+// Junta o texto do turno e entrega ao System.out de uma vez só (uma chamada sincronizada por prompt,
+// não uma por linha), mantendo a codificação padrão do terminal.
+class SaidaConsole implements SaidaJogo {
+    private StringBuilder pendente = new StringBuilder(1024);
+
+    @Override
+    public void escrever(String texto) {
+        pendente.append(texto);
+    }
+
+    @Override
+    public void escreverLinha(String texto) {
+        pendente.append(texto).append(System.lineSeparator());
+    }
+
+    @Override
+    public void descarregar() {
+        if (pendente.length() > 0) {
+            System.out.print(pendente);
+            pendente.setLength(0);
+        }
+        System.out.flush();
+    }
+}
+
+// Entrada pré-definida: devolve as linhas em ordem (repetindo-as, se pedido) e depois termina.
+// Usada por benchmarks e execuções sem interface.
+class EntradaRoteiro implements EntradaJogo {
+    private String[] linhas;
+    private boolean repetir;
+    private int proxima;
+
+    public EntradaRoteiro(String[] linhas, boolean repetir) {
+        this.linhas = linhas;
+        this.repetir = repetir;
+    }
+
+    @Override
+    public String lerLinha() {
+        if (proxima == linhas.length) {
+            if (!repetir) return null;
+            proxima = 0;
+        }
+        return linhas[proxima++];
+    }
+}
+
+// Saída que descarta todo o texto (execuções sem ninguém assistindo).
+class SaidaNula implements SaidaJogo {
+    @Override
+    public void escrever(String texto) {
+    }
+
+    @Override
+    public void escreverLinha(String texto) {
+    }
+
+    @Override
+    public void descarregar() {
+    }
+}
+
+// Lê linhas diretamente de um canal bloqueante (SocketChannel da sessão, System.in).
+// Usa buffers de tamanho fixo: o custo de memória por sessão não cresce com o que o cliente envia.
+// Os menus recebem a linha direto no LeitorComandos; só lerLinha() cria String.
+class EntradaCanal implements EntradaJogo {
+    // Um jogador manda uma linha curta por vez; o buffer só precisa de mais em rajadas (colar, bots).
+    static final int TAMANHO_BUFFER = 256;
+
+    private ReadableByteChannel canal;
+    private Charset charset;
+    private ByteBuffer buffer;
+    private LeitorComandos linha;
+
+    public EntradaCanal(ReadableByteChannel canal, Charset charset) {
+        this.canal = canal;
+        this.charset = charset;
+        this.buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+        this.buffer.flip(); // começa vazio, pronto para leitura
+        this.linha = new LeitorComandos();
+    }
+
+    @Override
+    public String lerLinha() {
+        return lerComando(linha) ? linha.texto(charset) : null;
+    }
+
+    @Override
+    public boolean lerComando(LeitorComandos leitor) {
+        try {
+            while (!leitor.consumir(buffer)) {
+                buffer.clear();
+                int lidos = canal.read(buffer);
+                buffer.flip();
+                if (lidos < 0) {
+                    return leitor.terminar();
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
+
+// Saída em lote para canais (socket da sessão): o texto de um turno é codificado em UTF-8 à medida que
+// é escrito, num único array de bytes reaproveitado, e enviado com uma escrita por prompt.
+// Nenhum lock compartilhado com outras sessões. Entre um turno e outro a sessão fica parada esperando
+// o jogador, então o buffer retido é pequeno: um turno maior o faz crescer só até o envio.
+class SaidaBufferizada implements SaidaJogo {
+    static final int CAPACIDADE_INICIAL = 1024;
+    // Se um turno fizer o buffer crescer além disso, ele volta ao tamanho inicial depois do envio.
+    static final int CAPACIDADE_RETIDA = 2048;
+
+    private WritableByteChannel canal;
+    private byte[] bytes;
+    private ByteBuffer envio; // visão de bytes para o canal, refeita só quando o array cresce
+    private int usados;
+    // Com inscrição (e canal com escrita em lote), as mensagens da região vão antes do turno,
+    // numa só escrita com vários buffers; entre um prompt e outro, um entregador do canal as escreve.
+    // O lock de escrita reveza o canal, a caixa e o lote entre a sessão e os entregadores.
+    private CanaisRegiao.Inscricao inscricao;
+    private ByteBuffer[] lote;
+    private final ReentrantLock escrita = new ReentrantLock();
+
+    public SaidaBufferizada(WritableByteChannel canal) {
+        this.canal = canal;
+        this.bytes = new byte[CAPACIDADE_INICIAL];
+        this.envio = ByteBuffer.wrap(bytes);
+    }
+
+    public SaidaBufferizada(GatheringByteChannel canal, CanaisRegiao.Inscricao inscricao) {
+        this(canal);
+        this.inscricao = inscricao;
+        this.lote = new ByteBuffer[CanaisRegiao.CAPACIDADE_CAIXA + 2];
+    }
+
+    @Override
+    public void escrever(String texto) {
+        codificar(texto);
+    }
+
+    @Override
+    public void escreverLinha(String texto) {
+        codificar(texto);
+        garantirEspaco(1);
+        bytes[usados++] = '\n';
+    }
+
+    @Override
+    public void escreverUtf8(ByteBuffer texto) {
+        int n = texto.remaining();
+        garantirEspaco(n);
+        texto.duplicate().get(bytes, usados, n);
+        usados += n;
+    }
+
+    @Override
+    public void descarregar() {
+        envio.clear().limit(usados);
+        if (inscricao == null) {
+            escreverLote(0);
+        } else {
+            escrita.lock();
+            try {
+                escreverLote(inscricao.retirar(lote));
+            } finally {
+                escrita.unlock();
+            }
+            // Um entregador que encontrou o lock ocupado desistiu: o que chegou depois do retirar é nosso.
+            if (inscricao.temPendentes()) inscricao.agendarEntrega();
+        }
+        usados = 0;
+        if (bytes.length > CAPACIDADE_RETIDA) {
+            bytes = new byte[CAPACIDADE_INICIAL];
+            envio = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    // Chamado por um entregador do canal: escreve só as mensagens pendentes, sem turno. Se a sessão (ou
+    // outro entregador) estiver escrevendo, não espera: quem está com o lock reagenda o que sobrar.
+    void entregarMensagens() {
+        if (!escrita.tryLock()) return;
+        try {
+            int mensagens = inscricao.retirar(lote);
+            if (mensagens == 0) return;
+            long restantes = 0;
+            for (int i = 0; i < mensagens; i++) restantes += lote[i].remaining();
+            while (restantes > 0) {
+                restantes -= ((GatheringByteChannel) canal).write(lote, 0, mensagens);
+            }
+        } catch (IOException e) {
+            // Conexão perdida: a sessão descobre na próxima leitura.
+        } finally {
+            Arrays.fill(lote, null); // não segura os buffers compartilhados
+            escrita.unlock();
+        }
+        if (inscricao.temPendentes()) inscricao.agendarEntrega();
+    }
+
+    // As mensagens retiradas (já em lote) e o turno, numa só escrita com vários buffers.
+    private void escreverLote(int mensagens) {
+        try {
+            if (mensagens == 0) {
+                while (envio.hasRemaining()) {
+                    canal.write(envio);
+                }
+            } else {
+                lote[mensagens] = envio;
+                long restantes = 0;
+                for (int i = 0; i <= mensagens; i++) restantes += lote[i].remaining();
+                while (restantes > 0) {
+                    restantes -= ((GatheringByteChannel) canal).write(lote, 0, mensagens + 1);
+                }
+            }
+        } catch (IOException e) {
+            // Conexão perdida: a próxima leitura devolve null e a sessão é encerrada.
+        }
+        if (mensagens > 0) Arrays.fill(lote, 0, mensagens + 1, null); // não segura os buffers compartilhados
+    }
+
+    // UTF-8 direto do String para o array, sem StringBuilder nem CharsetEncoder intermediários.
+    // Um surrogate sem par vira '?', como no CharsetEncoder com REPLACE.
+    private void codificar(String texto) {
+        int n = texto.length();
+        garantirEspaco(n);
+        for (int i = 0; i < n; i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                if (usados == bytes.length) garantirEspaco(n - i);
+                bytes[usados++] = (byte) c;
+                continue;
+            }
+            garantirEspaco(4 + n - i);
+            if (c < 0x800) {
+                bytes[usados++] = (byte) (0xC0 | c >> 6);
+                bytes[usados++] = (byte) (0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                bytes[usados++] = (byte) (0xE0 | c >> 12);
+                bytes[usados++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[usados++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int codigo = Character.toCodePoint(c, texto.charAt(++i));
+                bytes[usados++] = (byte) (0xF0 | codigo >> 18);
+                bytes[usados++] = (byte) (0x80 | codigo >> 12 & 0x3F);
+                bytes[usados++] = (byte) (0x80 | codigo >> 6 & 0x3F);
+                bytes[usados++] = (byte) (0x80 | codigo & 0x3F);
+            } else {
+                bytes[usados++] = '?';
+            }
+        }
+    }
+
+    private void garantirEspaco(int necessario) {
+        if (bytes.length - usados >= necessario) return;
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, usados + necessario));
+        envio = ByteBuffer.wrap(bytes);
+    }
+}
+
+// ================================================
+// Servidor MUD: várias sessões de JogoRPG em um único processo
+// ================================================
+
+// Aceita conexões TCP via NIO e cria uma sessão JogoRPG independente para cada uma.
+// Cada sessão roda em sua própria thread leve (pilha pequena), então uma leitura bloqueada
+// em lerOpcaoMenu só ocupa aquela sessão.
+class ServidorMUD {
+    static final int PORTA_PADRAO = 4000;
+    // Pilha reduzida: o jogo não tem recursão profunda e isso permite milhares de sessões ociosas.
+    static final long TAMANHO_PILHA_SESSAO = 256 * 1024;
+
+    private int porta;
+    private AtomicInteger sessoesAtivas;
+    private AtomicLong totalSessoes;
+    private Path diretorioDiarios; // com diretório, cada sessão grava seu diário lá
+    private Raide raide; // com raide, todas as sessões enfrentam o mesmo chefe
+    private Placar placar; // com placar, cada jornada terminada entra nele
+    private final CanaisRegiao canais = new CanaisRegiao(); // quem está na mesma região se vê e se fala
+
+    public ServidorMUD(int porta) {
+        this.porta = porta;
+        this.sessoesAtivas = new AtomicInteger();
+        this.totalSessoes = new AtomicLong();
+    }
+
+    public void setDiretorioDiarios(Path diretorio) {
+        this.diretorioDiarios = diretorio;
+    }
+
+    public void setRaide(Raide raide) {
+        this.raide = raide;
+    }
+
+    public void setPlacar(Placar placar) {
+        this.placar = placar;
+    }
+
+    public int getSessoesAtivas() {
+        return sessoesAtivas.get();
+    }
+
+    // Loop de aceitação: bloqueia até chegar uma nova conexão e delega a sessão para outra thread.
+    public void executar() throws IOException {
+        try (ServerSocketChannel servidor = ServerSocketChannel.open()) {
+            servidor.bind(new InetSocketAddress(porta), 4096);
+            System.out.println("Servidor MUD escutando na porta " + porta);
+            Metricas.registrarMedidor("sessoes_ativas", this::getSessoesAtivas);
+            if (placar != null) Metricas.registrarMedidor("placar_jornadas", placar::totalJornadas);
+
+            while (true) {
+                SocketChannel canal = servidor.accept();
+                canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                iniciarSessao(canal);
+            }
+        }
+    }
+
+    private void iniciarSessao(SocketChannel canal) {
+        long id = totalSessoes.incrementAndGet();
+        Runnable sessao = () -> {
+            sessoesAtivas.incrementAndGet();
+            CanaisRegiao.Inscricao inscricao = canais.novaInscricao();
+            try {
+                SaidaBufferizada saida = new SaidaBufferizada(canal, inscricao);
+                inscricao.entregarEm(saida); // mensagens da região chegam mesmo com o jogador parado no prompt
+                JogoRPG jogo = new JogoRPG(new EntradaCanal(canal, StandardCharsets.UTF_8), saida);
+                jogo.setRaide(raide);
+                jogo.setInscricao(inscricao);
+                jogo.setPlacar(placar);
+                // A semente refaz a sessão ("console <semente>"); vai para o JFR, não para o console a cada conexão.
+                EventoSessao evento = new EventoSessao();
+                if (evento.isEnabled()) {
+                    evento.sessao = id;
+                    evento.semente = jogo.getSemente();
+                    evento.commit();
+                }
+                if (diretorioDiarios == null) {
+                    jogo.iniciar();
+                } else {
+                    try (DiarioSessao diario = DiarioSessao.criar(
+                            diretorioDiarios.resolve("sessao-" + id + ".diario"), jogo.getSemente(), true)) {
+                        jogo.setRegistro(diario);
+                        jogo.iniciar();
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // Pode ser o socket, a carga dos dados ou, com diários ligados, o diário (a mensagem diz qual
+                // arquivo): vai para o log a exceção e a causa, e o diário só é citado se existir.
+                System.out.println("sessao-" + id + ": sessão encerrada por " + e
+                        + (e.getCause() != null ? " (causa: " + e.getCause() + ")" : "")
+                        + (diretorioDiarios != null ? "; diários em " + diretorioDiarios : ""));
+            } finally {
+                inscricao.sair();
+                sessoesAtivas.decrementAndGet();
+                try {
+                    canal.close();
+                } catch (IOException e) {
+                    // nada a fazer: a conexão já está sendo descartada
+                }
+            }
+        };
+        Thread thread = new Thread(null, sessao, "sessao-" + id, TAMANHO_PILHA_SESSAO);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
+
+// Gerador de carga local: abre várias conexões, joga uma partida curta roteirizada em cada uma
+// e mede sessões por segundo e a latência (p50/p99) entre enviar um comando e receber o próximo prompt.
+// Uso: carga [host] [porta] [sessoes] [concorrencia] [conexoesOciosas]
+class ClienteCarga {
+    // Roteiro: nome, classe (Cavaleiro) e "Desistir da jornada", que encerra a sessão.
+    private static final String[] ROTEIRO = {"1", "4"};
+    // Prompt inicial + resposta ao nome + um por comando do roteiro.
+    private static final int PROMPTS_POR_SESSAO = ROTEIRO.length + 2;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorMUD.PORTA_PADRAO;
+        int sessoes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int concorrencia = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        int ociosas = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        InetSocketAddress endereco = new InetSocketAddress(host, porta);
+
+        // Conexões ociosas ficam paradas no prompt do nome durante todo o teste.
+        List<SocketChannel> paradas = new ArrayList<>();
+        for (int i = 0; i < ociosas; i++) {
+            paradas.add(SocketChannel.open(endereco));
+        }
+        if (ociosas > 0) {
+            System.out.println(ociosas + " conexões ociosas abertas.");
+        }
+
+        // Cada sessão grava suas latências em uma faixa própria do array: nenhuma sincronização é necessária.
+        long[] todas = new long[sessoes * PROMPTS_POR_SESSAO];
+        ExecutorService executor = Executors.newFixedThreadPool(concorrencia);
+        AtomicInteger proxima = new AtomicInteger();
+        List<Future<?>> resultados = new ArrayList<>();
+        long inicio = System.nanoTime();
+
+        try {
+            for (int t = 0; t < concorrencia; t++) {
+                resultados.add(executor.submit(() -> {
+                    int sessao;
+                    while ((sessao = proxima.getAndIncrement()) < sessoes) {
+                        jogarSessao(endereco, "Bot" + sessao, todas, sessao * PROMPTS_POR_SESSAO);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> resultado : resultados) {
+                resultado.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            for (SocketChannel canal : paradas) {
+                canal.close();
+            }
+        }
+        long duracao = System.nanoTime() - inicio;
+        Arrays.sort(todas);
+
+        System.out.printf("Sessões: %d em %.2f s (%.1f sessões/s)%n",
+                sessoes, duracao / 1e9, sessoes / (duracao / 1e9));
+        if (todas.length > 0) {
+            System.out.printf("Latência até o prompt: p50 = %.3f ms, p99 = %.3f ms%n",
+                    percentil(todas, 0.50) / 1e6, percentil(todas, 0.99) / 1e6);
+        }
+    }
+
+    // Joga uma sessão completa e registra a latência de cada prompt em latencias[n..].
+    private static void jogarSessao(InetSocketAddress endereco, String nome, long[] latencias, int n)
+            throws IOException {
+        try (SocketChannel canal = SocketChannel.open(endereco)) {
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            long inicio = System.nanoTime();
+            aguardarPrompt(canal, buffer);
+            latencias[n++] = System.nanoTime() - inicio;
+
+            enviar(canal, nome);
+            inicio = System.nanoTime();
+            aguardarPrompt(canal, buffer);
+            latencias[n++] = System.nanoTime() - inicio;
+
+            for (int i = 0; i < ROTEIRO.length; i++) {
+                enviar(canal, ROTEIRO[i]);
+                inicio = System.nanoTime();
+                boolean ultimo = i == ROTEIRO.length - 1;
+                if (ultimo) {
+                    // O último comando encerra a partida: espera o servidor fechar a conexão.
+                    while (ler(canal, buffer) >= 0) {
+                        buffer.clear();
+                    }
+                } else {
+                    aguardarPrompt(canal, buffer);
+                }
+                latencias[n++] = System.nanoTime() - inicio;
+            }
+        }
+    }
+
+    // Todo prompt do jogo termina em ": " sem quebra de linha; texto comum sempre termina em "\n".
+    private static void aguardarPrompt(SocketChannel canal, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (true) {
+            if (ler(canal, buffer) < 0) {
+                throw new EOFException("Servidor fechou a conexão antes do prompt.");
+            }
+            int fim = buffer.position();
+            if (fim >= 2 && buffer.get(fim - 2) == ':' && buffer.get(fim - 1) == ' ') {
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                // Mantém só os dois últimos bytes: é tudo que a detecção do prompt precisa.
+                byte penultimo = buffer.get(fim - 2);
+                byte ultimo = buffer.get(fim - 1);
+                buffer.clear();
+                buffer.put(penultimo).put(ultimo);
+            }
+        }
+    }
+
+    private static int ler(SocketChannel canal, ByteBuffer buffer) throws IOException {
+        return canal.read(buffer);
+    }
+
+    private static void enviar(SocketChannel canal, String linha) throws IOException {
+        ByteBuffer dados = ByteBuffer.wrap((linha + "\n").getBytes(StandardCharsets.UTF_8));
+        while (dados.hasRemaining()) {
+            canal.write(dados);
+        }
+    }
+
+    private static long percentil(long[] ordenadas, double p) {
+        int indice = (int) Math.ceil(p * ordenadas.length) - 1;
+        return ordenadas[Math.max(0, Math.min(indice, ordenadas.length - 1))];
+    }
+}
+
+// ================================================
+// Treino: partida rápida do servidor (arquivo CDS e aquecimento)
+// ================================================
+
+// Sessões roteirizadas completas (criação, exploração, eventos, luta contra o chefe, descanso, fala)
+// jogadas sem ninguém conectado, pela mesma entrada e saída em bytes de uma sessão do servidor, com
+// placar e canais de região próprios. Serve a dois propósitos:
+//   - "treinar" sob -XX:ArchiveClassesAtExit (ver empacotar.sh): carrega e liga todas as classes que o
+//     servidor usa, e o arquivo CDS gerado as entrega prontas às próximas JVMs;
+//   - -Deldoria.aquecer[=ms] no servidor: treina antes de abrir a porta, para que combate e exploração
+//     já estejam compilados pelo JIT quando o primeiro jogador chegar.
+final class Treino {
+    static final long DURACAO_PADRAO_MS = 2000;     // treino do empacotamento
+    static final long AQUECIMENTO_PADRAO_MS = 500;  // antes de abrir a porta: cada ms atrasa o primeiro prompt
+
+    private Treino() {
+    }
+
+    // Joga sessões até o tempo acabar; devolve quantas foram jogadas.
+    static long executar(long duracaoMs) {
+        Placar placar = new Placar();
+        CanaisRegiao canais = new CanaisRegiao();
+        CanaisRegiao.Inscricao vizinho = canais.novaInscricao(); // alguém na região inicial ouvindo tudo
+        vizinho.mudarPara(0);
+        SaidaBufferizada saidaVizinho = new SaidaBufferizada(new Descarte(), vizinho);
+        long fim = System.nanoTime() + duracaoMs * 1_000_000;
+        long sessoes = 0;
+        while (sessoes == 0 || System.nanoTime() < fim) {
+            CanaisRegiao.Inscricao inscricao = canais.novaInscricao();
+            JogoRPG jogo = new JogoRPG(
+                    new EntradaCanal(Channels.newChannel(new ByteArrayInputStream(roteiro(sessoes))), StandardCharsets.UTF_8),
+                    new SaidaBufferizada(new Descarte(), inscricao), new AleatorioSessao(sessoes));
+            jogo.setPlacar(placar);
+            jogo.setInscricao(inscricao);
+            jogo.iniciar();
+            inscricao.sair();
+            saidaVizinho.descarregar();
+            sessoes++;
+        }
+        return sessoes;
+    }
+
+    // Roteiro de uma sessão: a classe e o caminho escolhido variam de uma sessão para outra.
+    static byte[] roteiro(long sessao) {
+        StringBuilder sb = new StringBuilder("Treino\n").append(1 + sessao % JogoRPG.CLASSES.length).append('\n');
+        for (int i = 0; i < 12; i++) {
+            sb.append("1\n").append(1 + (sessao + i) % 3).append('\n'); // explorar; na luta, atacar ou poção
+            if (i % 4 == 3) sb.append("2\n3\n'avante\n");
+        }
+        return sb.append("4\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Canal que aceita e descarta tudo, inclusive escritas em lote.
+    static final class Descarte implements GatheringByteChannel {
+        @Override
+        public int write(ByteBuffer origem) {
+            int n = origem.remaining();
+            origem.position(origem.limit());
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] origens, int inicio, int quantos) {
+            long n = 0;
+            for (int i = inicio; i < inicio + quantos; i++) n += write(origens[i]);
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] origens) {
+            return write(origens, 0, origens.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
+
+// ================================================
+// Arena por ticks: um único laço de mundo para todas as sessões
+// ================================================
+
+// Modo servidor em que o tempo do mundo anda em ticks fixos, em vez de cada sessão prender uma thread
+// esperando o jogador digitar. Uma thread de rede só lê bytes e enfileira as linhas completas na caixa
+// de entrada da sessão; a thread do mundo faz todo o resto (ver MundoTicks.tick).
+// Uso: arena [porta] [tickMs]
+class ServidorArena {
+    static final int PORTA_PADRAO = 4001;
+
+    private final int porta;
+    private final MundoTicks mundo;
+
+    public ServidorArena(int porta, int tickMs) {
+        this.porta = porta;
+        this.mundo = new MundoTicks(tickMs, ServicoAleatorio.novaSessao());
+    }
+
+    public void executar() throws IOException {
+        try (Selector seletor = Selector.open(); ServerSocketChannel servidor = ServerSocketChannel.open()) {
+            servidor.bind(new InetSocketAddress(porta), 4096);
+            servidor.configureBlocking(false);
+            servidor.register(seletor, SelectionKey.OP_ACCEPT);
+            mundo.iniciar();
+            System.out.println("Arena escutando na porta " + porta + " (tick de " + mundo.getTickMs() + " ms)");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+            while (true) {
+                seletor.select();
+                Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey chave = chaves.next();
+                    chaves.remove();
+                    if (!chave.isValid()) continue;
+
+                    if (chave.isAcceptable()) {
+                        SocketChannel canal = servidor.accept();
+                        if (canal == null) continue;
+                        canal.configureBlocking(false);
+                        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        MundoTicks.Sessao sessao = new MundoTicks.Sessao(canal);
+                        canal.register(seletor, SelectionKey.OP_READ, sessao);
+                        mundo.entrar(sessao);
+                    } else if (chave.isReadable()) {
+                        MundoTicks.Sessao sessao = (MundoTicks.Sessao) chave.attachment();
+                        buffer.clear();
+                        int lidos;
+                        try {
+                            lidos = ((SocketChannel) chave.channel()).read(buffer);
+                        } catch (IOException e) {
+                            lidos = -1;
+                        }
+                        if (lidos < 0) {
+                            chave.cancel();
+                            sessao.desconectar();
+                            continue;
+                        }
+                        buffer.flip();
+                        sessao.receber(buffer);
+                    }
+                }
+            }
+        }
+    }
+}
+
+// O mundo da arena. Só a thread do mundo mexe no estado do jogo, então nada aqui precisa de lock;
+// a única fronteira entre threads são as caixas de entrada das sessões e a fila de chegada.
+//
+// A cada tick, em ordem:
+//   1. esvazia uma vez a caixa de entrada de cada sessão e aplica os comandos;
+//   2. resolve de uma vez as rodadas de todas as lutas em que o jogador atacou (ResolvedorCombate.rodadas);
+//   3. avança os efeitos com duração de todas as entidades (regeneração da poção, queimadura do chefe);
+//   4. fecha as lutas decididas e mostra o estado das que mudaram;
+//   5. envia a saída acumulada de cada sessão, uma escrita por sessão.
+final class MundoTicks {
+    private static final int SEM_LUTA = -1;
+
+    private final int tickMs;
+    private final AleatorioSessao aleatorio;
+    private final DefinicoesJogo definicoes; // as vigentes quando a arena abriu: classes dos heróis criados nela
+    private final ConcurrentLinkedQueue<Sessao> chegando = new ConcurrentLinkedQueue<>();
+    private final List<Sessao> sessoes = new ArrayList<>();
+
+    // A luta i usa as entidades 2i (jogador) e 2i+1 (chefe); lutas encerradas são reaproveitadas.
+    private final TabelaEntidades entidades = new TabelaEntidades(256);
+    private Sessao[] sessaoDaLuta = new Sessao[128];
+    private boolean[] atacou = new boolean[128];
+    private int[] lutasLivres = new int[128];
+    private int quantasLivres;
+    private int quantasLutas;
+
+    // Rascunho do lote de rodadas, reaproveitado a cada tick.
+    private int[] loteJogadores = new int[128];
+    private int[] loteChefes = new int[128];
+    private boolean[] loteTerminou = new boolean[128];
+
+    private final CharsetEncoder codificador = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer bufferEnvio = ByteBuffer.allocate(4096);
+
+    // Linha em interpretação (só a thread do mundo) e palavras aceitas em cada menu, além dos números.
+    private final LeitorComandos comando = new LeitorComandos();
+    private final byte[][] palavrasClasse; // nomes das classes na ordem do menu das definições
+    private static final byte[][] PALAVRAS_SAGUAO = LeitorComandos.vocabulario("enfrentar", "sair");
+    private static final byte[][] PALAVRAS_LUTA = LeitorComandos.vocabulario("atacar", "pocao", "recuar");
+
+    private long ticks;
+    private long nanosAcumulados;
+    private long piorTickNanos;
+    private boolean relatar; // resumo periódico no console, só quando roda com o próprio relógio
+
+    public MundoTicks(int tickMs, AleatorioSessao aleatorio) {
+        this.tickMs = tickMs;
+        this.aleatorio = aleatorio;
+        this.definicoes = DefinicoesJogo.atual();
+        this.palavrasClasse = LeitorComandos.vocabulario(definicoes.nomesDasClasses());
+    }
+
+    public int getTickMs() {
+        return tickMs;
+    }
+
+    public int quantidadeSessoes() {
+        return sessoes.size();
+    }
+
+    public int lutasAtivas() {
+        return quantasLutas - quantasLivres;
+    }
+
+    // Agenda os ticks em uma thread própria. Um tick atrasado não acumula: o próximo sai no intervalo seguinte.
+    public void iniciar() {
+        relatar = true;
+        ScheduledExecutorService relogio = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "mundo-ticks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relogio.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                System.out.println("Falha no tick " + ticks + ": " + e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Chamado pela thread de rede; a sessão só entra no mundo no próximo tick.
+    public void entrar(Sessao sessao) {
+        chegando.offer(sessao);
+    }
+
+    void tick() {
+        long inicio = System.nanoTime();
+        Sessao nova;
+        while ((nova = chegando.poll()) != null) {
+            sessoes.add(nova);
+            nova.saida.append("Bem-vindo à arena de Brasamorta!\nDigite o nome do seu herói:\n");
+        }
+
+        // 1. Comandos.
+        for (int i = 0; i < sessoes.size(); i++) {
+            Sessao sessao = sessoes.get(i);
+            while (sessao.proximoComando(comando)) {
+                processar(sessao, comando);
+            }
+        }
+
+        // 2. Rodadas em lote.
+        int lote = 0;
+        for (int luta = 0; luta < quantasLutas; luta++) {
+            if (!atacou[luta]) continue;
+            atacou[luta] = false;
+            loteJogadores[lote] = 2 * luta;
+            loteChefes[lote] = 2 * luta + 1;
+            lote++;
+        }
+        ResolvedorCombate.rodadas(entidades, loteJogadores, loteChefes, lote, aleatorio, loteTerminou);
+        for (int i = 0; i < lote; i++) {
+            // Se ninguém caiu, o chefe contra-atacou com fogo negro.
+            if (!loteTerminou[i]) {
+                entidades.aplicarQueimadura(loteJogadores[i], RegrasCombate.QUEIMADURA_POR_TICK, RegrasCombate.TICKS_QUEIMADURA);
+            }
+        }
+
+        // 3. Efeitos com duração.
+        entidades.avancarEfeitos(RegrasCombate.VIDA_MAXIMA);
+
+        // 4. Desfechos.
+        for (int luta = 0; luta < quantasLutas; luta++) {
+            Sessao sessao = sessaoDaLuta[luta];
+            if (sessao == null) continue;
+            int vidaJogador = entidades.vida(2 * luta);
+            int vidaChefe = entidades.vida(2 * luta + 1);
+            if (vidaChefe == 0) {
+                sessao.vitorias++;
+                sessao.saida.append("O chefe cai derrotado! Vitórias: ").append(sessao.vitorias).append('\n');
+                fecharLuta(sessao);
+            } else if (vidaJogador == 0) {
+                sessao.saida.append("Você cai diante do chefe. A chama vazia o consome...\n");
+                fecharLuta(sessao);
+            } else if (vidaJogador != sessao.vidaMostrada || vidaChefe != sessao.vidaChefeMostrada) {
+                mostrarLuta(sessao, vidaJogador, vidaChefe);
+            }
+        }
+
+        // 5. Saída; sessões encerradas ou desconectadas deixam o mundo aqui.
+        for (int i = sessoes.size() - 1; i >= 0; i--) {
+            Sessao sessao = sessoes.get(i);
+            if (!sessao.desconectada) enviar(sessao);
+            if (sessao.desconectada || sessao.estado == Sessao.ENCERRADA) {
+                if (sessao.luta != SEM_LUTA) fecharLuta(sessao);
+                sessao.fechar();
+                Sessao ultima = sessoes.remove(sessoes.size() - 1);
+                if (i < sessoes.size()) sessoes.set(i, ultima);
+            }
+        }
+
+        long duracao = System.nanoTime() - inicio;
+        nanosAcumulados += duracao;
+        piorTickNanos = Math.max(piorTickNanos, duracao);
+        if (++ticks % Math.max(1, 10_000 / tickMs) == 0 && relatar) {
+            System.out.printf("tick %d: %d sessões, %d lutas, tick médio %.3f ms, pior %.3f ms%n",
+                    ticks, sessoes.size(), lutasAtivas(), nanosAcumulados / 1e6 / ticks, piorTickNanos / 1e6);
+        }
+    }
+
+    private void processar(Sessao sessao, LeitorComandos comando) {
+        switch (sessao.estado) {
+            case Sessao.ESCOLHENDO_NOME:
+                if (comando.tipo() == LeitorComandos.VAZIA) {
+                    sessao.saida.append("Digite o nome do seu herói:\n");
+                    return;
+                }
+                sessao.nome = comando.textoSemEspacos();
+                sessao.saida.append("Escolha sua classe:\n");
+                for (int i = 1; i <= definicoes.quantidadeClasses(); i++) {
+                    sessao.saida.append(i).append(") ").append(definicoes.nomeDaOpcao(i)).append('\n');
+                }
+                sessao.estado = Sessao.ESCOLHENDO_CLASSE;
+                break;
+            case Sessao.ESCOLHENDO_CLASSE:
+                int opcao = comando.opcao(definicoes.quantidadeClasses(), palavrasClasse);
+                if (opcao < 0) {
+                    sessao.saida.append("Opção inválida. Escolha de 1 a ").append(definicoes.quantidadeClasses()).append(".\n");
+                    return;
+                }
+                sessao.jogador = JogoRPG.novoPersonagem(definicoes.classeDaOpcao(opcao), sessao.nome, definicoes);
+                sessao.saida.append(sessao.jogador.descrever()).append('\n');
+                mostrarSaguao(sessao);
+                break;
+            case Sessao.NO_SAGUAO:
+                int escolha = comando.opcao(2, PALAVRAS_SAGUAO);
+                if (escolha == 1) {
+                    abrirLuta(sessao);
+                } else if (escolha == 2) {
+                    sessao.saida.append("Obrigado por jogar! Até a próxima.\n");
+                    sessao.estado = Sessao.ENCERRADA;
+                } else {
+                    sessao.saida.append("Opção inválida.\n");
+                }
+                break;
+            case Sessao.LUTANDO:
+                int acao = comando.opcao(3, PALAVRAS_LUTA);
+                if (acao == 1) {
+                    atacou[sessao.luta] = true;
+                } else if (acao == 2) {
+                    if (sessao.pocoes > 0) {
+                        sessao.pocoes--;
+                        entidades.aplicarRegeneracao(2 * sessao.luta,
+                                RegrasCombate.REGENERACAO_POCAO_POR_TICK, RegrasCombate.TICKS_REGENERACAO_POCAO);
+                        sessao.saida.append("Você bebe uma poção: a vida volta aos poucos.\n");
+                    } else {
+                        sessao.saida.append("Você não tem poções.\n");
+                    }
+                } else if (acao == 3) {
+                    sessao.saida.append("Você recua para o saguão.\n");
+                    fecharLuta(sessao);
+                } else {
+                    sessao.saida.append("Opção inválida.\n");
+                }
+                break;
+            default:
+                // Sessão encerrada: o que chegar até a desconexão é ignorado.
+        }
+    }
+
+    private void mostrarSaguao(Sessao sessao) {
+        sessao.estado = Sessao.NO_SAGUAO;
+        sessao.saida.append("\n1) Enfrentar o líder do culto\n2) Sair da arena\n");
+    }
+
+    private void mostrarLuta(Sessao sessao, int vidaJogador, int vidaChefe) {
+        sessao.vidaMostrada = vidaJogador;
+        sessao.vidaChefeMostrada = vidaChefe;
+        sessao.saida.append("Vida do chefe: ").append(vidaChefe).append(" | Sua vida: ").append(vidaJogador);
+        if (entidades.ticksQueimadura(2 * sessao.luta) > 0) sessao.saida.append(" (queimando)");
+        sessao.saida.append("\n1) Atacar  2) Usar poção (").append(sessao.pocoes).append(")  3) Recuar\n");
+    }
+
+    private void abrirLuta(Sessao sessao) {
+        int luta;
+        if (quantasLivres > 0) {
+            luta = lutasLivres[--quantasLivres];
+        } else {
+            luta = quantasLutas++;
+            if (luta == sessaoDaLuta.length) {
+                int capacidade = luta * 2;
+                sessaoDaLuta = Arrays.copyOf(sessaoDaLuta, capacidade);
+                atacou = Arrays.copyOf(atacou, capacidade);
+                lutasLivres = Arrays.copyOf(lutasLivres, capacidade);
+                loteJogadores = Arrays.copyOf(loteJogadores, capacidade);
+                loteChefes = Arrays.copyOf(loteChefes, capacidade);
+                loteTerminou = Arrays.copyOf(loteTerminou, capacidade);
+            }
+            entidades.adicionar(0, 0, 0);
+            entidades.adicionar(0, 0, 0);
+        }
+        entidades.redefinir(2 * luta, sessao.jogador.getVida(), sessao.jogador.getAtaqueBase(),
+                Habilidades.daClasse(sessao.jogador));
+        entidades.redefinir(2 * luta + 1, RegrasCombate.VIDA_CHEFE, RegrasCombate.DANO_CHEFE_MINIMO, 0);
+        sessaoDaLuta[luta] = sessao;
+        sessao.luta = luta;
+        sessao.pocoes = 1;
+        sessao.estado = Sessao.LUTANDO;
+        sessao.saida.append("\nO líder do Culto da Chama Vazia surge, envolto em fogo negro.\n");
+        mostrarLuta(sessao, entidades.vida(2 * luta), entidades.vida(2 * luta + 1));
+    }
+
+    private void fecharLuta(Sessao sessao) {
+        int luta = sessao.luta;
+        sessaoDaLuta[luta] = null;
+        atacou[luta] = false;
+        entidades.redefinir(2 * luta, 0, 0, 0);
+        entidades.redefinir(2 * luta + 1, 0, 0, 0);
+        lutasLivres[quantasLivres++] = luta;
+        sessao.luta = SEM_LUTA;
+        if (sessao.estado == Sessao.LUTANDO) mostrarSaguao(sessao);
+    }
+
+    // Escrita não bloqueante: o que o socket não aceitar agora fica para o próximo tick.
+    // Um cliente que acumula mais que MAXIMO_SAIDA_PENDENTE sem ler é desconectado.
+    private void enviar(Sessao sessao) {
+        if (sessao.canal == null) {
+            sessao.saida.setLength(0); // sessão simulada (benchmark): a saída é descartada
+            return;
+        }
+        try {
+            if (sessao.envioPendente != null) {
+                sessao.canal.write(sessao.envioPendente);
+                if (sessao.envioPendente.hasRemaining()) {
+                    if (sessao.envioPendente.remaining() + sessao.saida.length() > Sessao.MAXIMO_SAIDA_PENDENTE) {
+                        sessao.desconectar();
+                    }
+                    return;
+                }
+                sessao.envioPendente = null;
+            }
+            if (sessao.saida.length() == 0) return;
+
+            ByteBuffer bytes = codificar(sessao.saida);
+            sessao.saida.setLength(0);
+            sessao.canal.write(bytes);
+            if (bytes.hasRemaining()) {
+                sessao.envioPendente = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+            }
+        } catch (IOException e) {
+            sessao.desconectar();
+        }
+    }
+
+    private ByteBuffer codificar(CharSequence texto) {
+        int necessario = (int) (texto.length() * codificador.maxBytesPerChar());
+        if (bufferEnvio.capacity() < necessario) {
+            bufferEnvio = ByteBuffer.allocate(Math.max(necessario, bufferEnvio.capacity() * 2));
+        }
+        bufferEnvio.clear();
+        codificador.reset();
+        codificador.encode(CharBuffer.wrap(texto), bufferEnvio, true);
+        codificador.flush(bufferEnvio);
+        return bufferEnvio.flip();
+    }
+
+    // Uma conexão da arena. A caixa de entrada é a única ponte entre threads: a thread de rede monta as
+    // linhas e as grava num anel de bytes (um produtor, um consumidor, sem lock); a thread do mundo as
+    // interpreta direto dos bytes no tick. Todos os demais campos de jogo só são tocados pela thread do mundo.
+    static final class Sessao {
+        static final int ESCOLHENDO_NOME = 0;
+        static final int ESCOLHENDO_CLASSE = 1;
+        static final int NO_SAGUAO = 2;
+        static final int LUTANDO = 3;
+        static final int ENCERRADA = 4;
+
+        // Cada linha ocupa 1 byte de tamanho + os bytes dela. Linhas que não cabem entre dois ticks são
+        // descartadas inteiras: quem inunda a entrada não cresce a memória nem a fila.
+        static final int CAPACIDADE_ENTRADA = 256; // potência de 2, cabe ao menos uma linha do tamanho máximo
+        static final int MAXIMO_SAIDA_PENDENTE = 64 * 1024;
+
+        private final SocketChannel canal; // null nas sessões simuladas do benchmark
+        private final byte[] caixaEntrada = new byte[CAPACIDADE_ENTRADA];
+        private final AtomicLong escritos = new AtomicLong(); // só a thread de rede avança
+        private final AtomicLong consumidos = new AtomicLong(); // só a thread do mundo avança
+        private volatile boolean desconectada;
+
+        // Linha em montagem, gravada direto no anel logo depois de escritos (só a thread de rede).
+        private int tamanhoLinha;
+        private boolean descartando; // a linha não coube: o resto dela é ignorado até o '\n'
+
+        // Estado de jogo (só a thread do mundo).
+        private int estado = ESCOLHENDO_NOME;
+        private String nome;
+        private PersonagemBase jogador;
+        private int luta = SEM_LUTA;
+        private int pocoes;
+        private int vitorias;
+        private int vidaMostrada;
+        private int vidaChefeMostrada;
+        private final StringBuilder saida = new StringBuilder();
+        private ByteBuffer envioPendente;
+
+        Sessao(SocketChannel canal) {
+            this.canal = canal;
+        }
+
+        // Bytes recebidos, possivelmente com linhas partidas entre leituras. Os bytes vão direto para o
+        // anel e a linha só é publicada (lazySet) no '\n': o mundo nunca vê uma linha pela metade.
+        // Linhas maiores que LeitorComandos.TAMANHO_MAXIMO_LINHA são truncadas. Até uma linha vazia ocupa
+        // o byte de tamanho: sem espaço para ele, ela também é descartada.
+        void receber(ByteBuffer bytes) {
+            int mascara = caixaEntrada.length - 1;
+            long fim = escritos.get();
+            // O mundo só libera espaço; um limite lido agora, mesmo desatualizado, nunca sobrescreve nada.
+            long limite = consumidos.get() + caixaEntrada.length;
+            while (bytes.hasRemaining()) {
+                byte b = bytes.get();
+                if (b == '\n') {
+                    if (!descartando && fim + 1 + tamanhoLinha <= limite) {
+                        if (tamanhoLinha > 0 && caixaEntrada[(int) (fim + tamanhoLinha) & mascara] == '\r') tamanhoLinha--;
+                        caixaEntrada[(int) fim & mascara] = (byte) tamanhoLinha;
+                        fim += 1 + tamanhoLinha;
+                        escritos.lazySet(fim);
+                    }
+                    tamanhoLinha = 0;
+                    descartando = false;
+                } else if (!descartando && tamanhoLinha < LeitorComandos.TAMANHO_MAXIMO_LINHA) {
+                    if (fim + 2 + tamanhoLinha > limite) {
+                        descartando = true;
+                    } else {
+                        caixaEntrada[(int) (fim + 1 + tamanhoLinha++) & mascara] = b;
+                    }
+                }
+            }
+        }
+
+        // Próxima linha recebida, já classificada no leitor; false se não há nenhuma (só a thread do mundo).
+        boolean proximoComando(LeitorComandos leitor) {
+            long inicio = consumidos.get();
+            if (inicio == escritos.get()) return false;
+            int mascara = caixaEntrada.length - 1;
+            int tamanho = caixaEntrada[(int) inicio & mascara] & 0xFF;
+            leitor.definir(caixaEntrada, mascara, inicio + 1, tamanho);
+            consumidos.lazySet(inicio + 1 + tamanho);
+            return true;
+        }
+
+        void desconectar() {
+            desconectada = true;
+        }
+
+        int getVitorias() {
+            return vitorias;
+        }
+
+        private void fechar() {
+            if (canal == null) return;
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // nada a fazer: a conexão já está sendo descartada
+            }
+        }
+    }
+}
+
+// ================================================
+// Mundo fragmentado: regiões repartidas entre threads donas (estilo ator)
+// ================================================
+
+// As regiões são repartidas em fragmentos. Cada fragmento tem uma única thread, dona exclusiva das
+// suas regiões e dos viajantes que estão nelas: explorar e andar dentro do fragmento não passa por
+// nenhum lock, e jogadores de fragmentos diferentes nunca disputam nada. Ir para uma região de outro
+// fragmento é uma mensagem: o viajante sai das regiões de um e é entregue na caixa de entrada do outro.
+// O grafo (cópia da adjacência do Mapa) e as tabelas de eventos são imutáveis e lidos por todos.
+//
+// Protótipo: nenhum modo do servidor passa por aqui ainda (as sessões do ServidorMUD andam cada uma
+// pelo Mapa), só Benchmarks.fragmentos. Os viajantes são jogadores automáticos, mas sem regras
+// próprias: eventos, dano e descanso são os de JogoRPG (sortearEvento, danoDoEvento, vidaAposDescanso,
+// com as habilidades da classe). A única decisão do viajante é a de quem joga: descansar em vez de
+// explorar quando um evento poderia derrubá-lo, então ele nunca cai.
+final class MundoFragmentado {
+    private final DefinicoesJogo definicoes;
+    private final int[] inicio;
+    private final int[] vizinhos;
+    private final int[] requisitos;
+    private final List<Item> itensDeAtalho;
+    private final boolean[] comChefe;
+    private final int maiorDanoDeEvento; // dano bruto máximo de um evento: abaixo disso o viajante descansa
+    private final int[] fragmentoDaRegiao;
+    private final Fragmento[] fragmentos;
+    // Uma licença por viajante que terminou os seus passos.
+    private final Semaphore concluidos = new Semaphore(0);
+
+    public MundoFragmentado(DefinicoesJogo definicoes, int quantidadeFragmentos) {
+        this.definicoes = definicoes;
+        Mapa mapa = definicoes.getMapa();
+        int[][] adjacencia = mapa.copiarAdjacencia();
+        inicio = adjacencia[0];
+        vizinhos = adjacencia[1];
+        requisitos = adjacencia[2];
+        itensDeAtalho = mapa.getItensDeAtalho();
+        comChefe = mapa.regioesComChefe();
+        int maiorDano = 0;
+        for (int e = 0; e < definicoes.quantidadeEventos(); e++) {
+            if (definicoes.tipoDoEvento(e) == DefinicoesJogo.EVENTO_DANO) {
+                maiorDano = Math.max(maiorDano, definicoes.danoMinimoDoEvento(e) + definicoes.variacaoDanoDoEvento(e) - 1);
+            }
+        }
+        maiorDanoDeEvento = maiorDano;
+
+        // Blocos contíguos de regiões: vizinhas costumam cair no mesmo fragmento.
+        int regioes = mapa.quantidadeRegioes();
+        fragmentoDaRegiao = new int[regioes];
+        for (int r = 0; r < regioes; r++) {
+            fragmentoDaRegiao[r] = (int) ((long) r * quantidadeFragmentos / regioes);
+        }
+        fragmentos = new Fragmento[quantidadeFragmentos];
+        for (int f = 0; f < quantidadeFragmentos; f++) {
+            fragmentos[f] = new Fragmento(f);
+        }
+    }
+
+    public void iniciar() {
+        for (Fragmento fragmento : fragmentos) fragmento.thread.start();
+    }
+
+    // Para as threads depois que as caixas esvaziarem o que já estava em andamento.
+    public void encerrar() throws InterruptedException {
+        for (Fragmento fragmento : fragmentos) {
+            fragmento.ativo = false;
+            LockSupport.unpark(fragmento.thread);
+        }
+        for (Fragmento fragmento : fragmentos) fragmento.thread.join();
+    }
+
+    // Coloca um viajante no mundo, na região em que ele está.
+    public void entrar(Viajante viajante) {
+        viajante.atalhos = 0;
+        for (int bit = 0; bit < itensDeAtalho.size(); bit++) {
+            if (viajante.inventario.contem(itensDeAtalho.get(bit))) viajante.atalhos |= 1 << bit;
+        }
+        fragmentos[fragmentoDaRegiao[viajante.regiao]].receber(viajante);
+    }
+
+    // Espera até que quantidade viajantes tenham terminado os seus passos.
+    public void aguardarConcluidos(int quantidade) throws InterruptedException {
+        concluidos.acquire(quantidade);
+    }
+
+    public int quantidadeFragmentos() {
+        return fragmentos.length;
+    }
+
+    public long totalPassos() {
+        long total = 0;
+        for (Fragmento fragmento : fragmentos) total += fragmento.passos;
+        return total;
+    }
+
+    public long totalTransferencias() {
+        long total = 0;
+        for (Fragmento fragmento : fragmentos) total += fragmento.transferencias;
+        return total;
+    }
+
+    // Um jogador andando pelo mundo. Pertence a um fragmento por vez: só a thread dele o altera,
+    // e a passagem pela fila de outro fragmento garante que o novo dono veja o estado atualizado.
+    static final class Viajante {
+        private final PersonagemBase jogador;
+        private final int habilidades; // modificadores da classe (ver Habilidades)
+        private final Inventario<Item> inventario = new Inventario<>();
+        private final AleatorioSessao aleatorio;
+        private final IntUnaryOperator rolar;
+        private int regiao;
+        private int atalhos; // bits dos itens de atalho que possui, na ordem de Mapa.getItensDeAtalho()
+        private int passosRestantes;
+
+        Viajante(PersonagemBase jogador, AleatorioSessao aleatorio, int regiao, int passos) {
+            this.jogador = jogador;
+            this.habilidades = Habilidades.daClasse(jogador);
+            this.aleatorio = aleatorio;
+            this.rolar = aleatorio::nextInt;
+            this.regiao = regiao;
+            this.passosRestantes = passos;
+        }
+
+        int getRegiao() {
+            return regiao;
+        }
+
+        Inventario<Item> getInventario() {
+            return inventario;
+        }
+    }
+
+    private final class Fragmento implements Runnable {
+        private final Thread thread;
+        // Mensagens de outros fragmentos (e de quem coloca viajantes no mundo).
+        private final ConcurrentLinkedQueue<Viajante> caixaEntrada = new ConcurrentLinkedQueue<>();
+        // Viajantes que continuam dentro do fragmento: fila local, sem sincronização.
+        private final ArrayDeque<Viajante> locais = new ArrayDeque<>();
+        private volatile boolean dormindo;
+        private volatile boolean ativo = true;
+        private long passos;
+        private long transferencias;
+
+        Fragmento(int indice) {
+            thread = new Thread(this, "fragmento-" + indice);
+            thread.setDaemon(true);
+        }
+
+        void receber(Viajante viajante) {
+            caixaEntrada.offer(viajante);
+            if (dormindo) LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Viajante viajante = locais.poll();
+                if (viajante == null) viajante = caixaEntrada.poll();
+                if (viajante != null) {
+                    passo(viajante);
+                    continue;
+                }
+                if (!ativo) return;
+                // Sem trabalho: avisa que vai dormir e confere a caixa de novo antes de estacionar,
+                // para não perder uma mensagem que chegou entre as duas coisas.
+                dormindo = true;
+                if (caixaEntrada.isEmpty() && ativo) LockSupport.parkNanos(1_000_000);
+                dormindo = false;
+            }
+        }
+
+        // Explora a região atual (evento da tabela da região) e segue para uma vizinha liberada; com a vida
+        // ao alcance de um evento, o passo é um descanso no lugar.
+        private void passo(Viajante viajante) {
+            passos++;
+            int regiao = viajante.regiao;
+            boolean descansou = viajante.jogador.getVida() <= maiorDanoDeEvento;
+            if (descansou) {
+                descansar(viajante);
+            } else if (!comChefe[regiao]) {
+                explorar(viajante, regiao);
+            }
+
+            if (--viajante.passosRestantes <= 0) {
+                concluidos.release();
+                return;
+            }
+            if (descansou) {
+                locais.add(viajante);
+                return;
+            }
+            int destino = escolherVizinha(viajante, regiao);
+            viajante.regiao = destino;
+            Fragmento dono = fragmentos[fragmentoDaRegiao[destino]];
+            if (dono == this) {
+                locais.add(viajante);
+            } else {
+                transferencias++;
+                dono.receber(viajante);
+            }
+        }
+
+        private void explorar(Viajante viajante, int regiao) {
+            int evento = JogoRPG.sortearEvento(definicoes, regiao, viajante.jogador, viajante.inventario, viajante.rolar);
+            if (definicoes.tipoDoEvento(evento) == DefinicoesJogo.EVENTO_ITEM) {
+                int bit = itensDeAtalho.indexOf(definicoes.itemDoEvento(evento));
+                if (bit >= 0) viajante.atalhos |= 1 << bit;
+            } else {
+                int dano = JogoRPG.danoDoEvento(definicoes, evento, viajante.rolar);
+                viajante.jogador.receberDano(ResolvedorCombate.danoFinal(viajante.habilidades, dano));
+            }
+        }
+
+        private void descansar(Viajante viajante) {
+            int vida = viajante.jogador.getVida();
+            viajante.jogador.receberDano(vida - JogoRPG.vidaAposDescanso(viajante.habilidades, vida));
+        }
+
+        private int escolherVizinha(Viajante viajante, int regiao) {
+            int liberadas = 0;
+            for (int k = inicio[regiao]; k < inicio[regiao + 1]; k++) {
+                if (liberada(viajante, k)) liberadas++;
+            }
+            if (liberadas == 0) return regiao;
+            int escolhida = viajante.aleatorio.nextInt(liberadas);
+            for (int k = inicio[regiao]; k < inicio[regiao + 1]; k++) {
+                if (liberada(viajante, k) && escolhida-- == 0) return vizinhos[k];
+            }
+            return regiao;
+        }
+
+        private boolean liberada(Viajante viajante, int aresta) {
+            int bit = requisitos[aresta];
+            return bit < 0 || (viajante.atalhos & (1 << bit)) != 0;
+        }
+    }
+}
+
+// ================================================
+// Chefe compartilhado (raide): muitos jogadores contra o mesmo chefe
+// ================================================
+
+// Um chefe cuja vida é disputada por várias sessões ao mesmo tempo, sem lock: cada golpe é um
+// compareAndSet na vida. Quem leva a vida de positiva a zero é, por construção, o único a derrubá-lo.
+// O espólio é reivindicado por cada participante na sua própria thread, a partir do dano que ele
+// mesmo causou, e uma marca no participante (escrita só por essa thread) impede que ele o receba duas vezes.
+// participantes conta quem está na luta agora: entrar soma, sair (vitória, morte ou conexão perdida) tira.
+final class ChefeCompartilhado {
+    // A cada tantos pontos de vida do chefe tirados pelo participante, uma poção de espólio.
+    static final int DANO_POR_POCAO = 15;
+
+    private final int vidaMaxima;
+    private final AtomicInteger vida;
+    private final AtomicInteger participantes = new AtomicInteger();
+
+    public ChefeCompartilhado(int vidaMaxima) {
+        this.vidaMaxima = vidaMaxima;
+        this.vida = new AtomicInteger(vidaMaxima);
+    }
+
+    public int getVida() {
+        return vida.get();
+    }
+
+    public int getVidaMaxima() {
+        return vidaMaxima;
+    }
+
+    public boolean derrotado() {
+        return vida.get() == 0;
+    }
+
+    public int quantidadeParticipantes() {
+        return participantes.get();
+    }
+
+    public Participante entrar() {
+        participantes.incrementAndGet();
+        return new Participante();
+    }
+
+    // Tira o participante da contagem; chamar de novo não faz nada.
+    public void sair(Participante participante) {
+        if (participante.saiu) return;
+        participante.saiu = true;
+        participantes.decrementAndGet();
+    }
+
+    // Aplica o golpe e devolve o dano efetivo (0 se o chefe já tinha caído).
+    // O dano que passa da vida restante não conta: a soma dos danos efetivos é sempre vidaMaxima.
+    public int golpear(Participante participante, int dano) {
+        while (true) {
+            int atual = vida.get();
+            if (atual == 0) return 0;
+            int nova = Math.max(0, atual - dano);
+            if (vida.compareAndSet(atual, nova)) {
+                int efetivo = atual - nova;
+                participante.dano += efetivo;
+                if (nova == 0) participante.derrubou = true;
+                return efetivo;
+            }
+        }
+    }
+
+    // Entrega o espólio do participante no inventário (que pertence à thread que chama).
+    // Só vale depois da queda e só uma vez; devolve quantos itens foram entregues.
+    public int reivindicarEspolio(Participante participante, Inventario<Item> inventario) {
+        if (!derrotado() || participante.dano == 0 || participante.espolioEntregue) {
+            return 0;
+        }
+        participante.espolioEntregue = true;
+        int pocoes = Math.max(1, participante.dano / DANO_POR_POCAO);
+        inventario.adicionar(CatalogoItens.POCAO_CURA_MENOR, pocoes);
+        if (participante.derrubou) {
+            inventario.adicionar(CatalogoItens.BRASA_DO_LIDER);
+            return pocoes + 1;
+        }
+        return pocoes;
+    }
+
+    // A participação de uma sessão na luta. Os campos só são escritos pela thread dessa sessão.
+    static final class Participante {
+        private int dano;
+        private boolean derrubou;
+        private boolean espolioEntregue;
+        private boolean saiu;
+
+        public int getDano() {
+            return dano;
+        }
+
+        public boolean derrubou() {
+            return derrubou;
+        }
+    }
+}
+
+// O chefe da fortaleza no modo raide: um só para todas as sessões do servidor.
+// Depois que ele cai, a primeira sessão a chegar faz surgir o próximo (troca atômica da referência).
+final class Raide {
+    private final int vidaChefe;
+    private final AtomicReference<ChefeCompartilhado> atual;
+
+    public Raide(int vidaChefe) {
+        this.vidaChefe = vidaChefe;
+        this.atual = new AtomicReference<>(new ChefeCompartilhado(vidaChefe));
+    }
+
+    public ChefeCompartilhado chefeAtual() {
+        ChefeCompartilhado chefe = atual.get();
+        if (!chefe.derrotado()) return chefe;
+        ChefeCompartilhado novo = new ChefeCompartilhado(vidaChefe);
+        return atual.compareAndSet(chefe, novo) ? novo : atual.get();
+    }
+}
+
+// ================================================
+// Canais por região: o que acontece numa região chega a todos que estão nela
+// ================================================
+
+// Quem está numa região do MUD vê o que acontece com os outros jogadores dela (emboscadas, golpes no
+// chefe, chegadas) e o que eles falam. Cada mensagem é codificada em UTF-8 uma só vez, num buffer só de
+// leitura, e a mesma referência vai para a caixa de cada inscrito: nada é copiado por destinatário.
+// A sessão esvazia a própria caixa quando descarrega a saída (antes de cada prompt) e o socket recebe
+// as mensagens direto do buffer compartilhado, na mesma escrita do turno. Quem está parado no prompt não
+// descarrega nada; por isso, no servidor, as inscrições com entrega são atendidas por um grupo fixo de
+// ENTREGADORES threads (não uma por sessão: com 10 mil conexões paradas seriam 10 mil threads a mais).
+// publicar marca a inscrição como agendada e a põe na fila do grupo uma só vez; um entregador a tira da
+// fila e escreve a caixa no socket sem esperar que o jogador digite. Sessão e entregador se revezam no
+// canal pelo lock de escrita da saída, mas o entregador só tenta o lock: se a sessão está escrevendo, ele
+// passa adiante, e quem solta o lock reagenda a inscrição se sobrou mensagem. Um cliente que não lê prende
+// no máximo um entregador (o que está escrevendo para ele), nunca quem publicou.
+// A caixa é um anel limitado: cheia (cliente lento), a mensagem nova é descartada e só contada; na
+// entrega, as descartadas viram uma linha com a quantidade. Nada cresce sem limite.
+final class CanaisRegiao {
+    static final int CAPACIDADE_CAIXA = 64; // potência de 2
+    static final int ENTREGADORES = 2;
+    static final long TAMANHO_PILHA_ENTREGADOR = 64 * 1024; // o entregador só espera na fila e escreve
+
+    private final ConcurrentHashMap<Integer, Set<Inscricao>> inscritos = new ConcurrentHashMap<>();
+    // Inscrições com mensagens a entregar; cada uma está na fila no máximo uma vez (ver Inscricao.agendada).
+    private final LinkedBlockingQueue<Inscricao> aEntregar = new LinkedBlockingQueue<>();
+    private boolean entregadoresIniciados; // protegido por this; só com a primeira inscrição com entrega
+
+    public Inscricao novaInscricao() {
+        return new Inscricao();
+    }
+
+    public int quantidadeNaRegiao(int regiao) {
+        Set<Inscricao> naRegiao = inscritos.get(regiao);
+        return naRegiao == null ? 0 : naRegiao.size();
+    }
+
+    // Entrega o texto (uma linha) a todos da região, menos ao autor; devolve quantas caixas o aceitaram.
+    public int publicar(int regiao, Inscricao autor, String texto) {
+        Set<Inscricao> naRegiao = inscritos.get(regiao);
+        if (naRegiao == null) return 0;
+        ByteBuffer mensagem = ByteBuffer.wrap((texto + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        int aceitas = 0;
+        for (Inscricao inscricao : naRegiao) {
+            if (inscricao != autor && inscricao.oferecer(mensagem)) {
+                inscricao.agendarEntrega();
+                aceitas++;
+            }
+        }
+        return aceitas;
+    }
+
+    private synchronized void iniciarEntregadores() {
+        if (entregadoresIniciados) return;
+        entregadoresIniciados = true;
+        for (int i = 0; i < ENTREGADORES; i++) {
+            Thread thread = new Thread(null, this::entregar, "entrega-regiao-" + i, TAMANHO_PILHA_ENTREGADOR);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void entregar() {
+        while (true) {
+            Inscricao inscricao;
+            try {
+                inscricao = aEntregar.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Desmarca antes de esvaziar: o que for publicado daqui em diante agenda de novo.
+            inscricao.agendada.set(false);
+            if (!inscricao.encerrada) inscricao.saida.entregarMensagens();
+        }
+    }
+
+    private static ByteBuffer aviso(int descartadas) {
+        String texto = "(" + descartadas + " mensagem(ns) da região não chegaram até você)\n";
+        return ByteBuffer.wrap(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A inscrição de uma sessão: a região em que ela está e a caixa de mensagens pendentes.
+    // A caixa tem vários publicadores e um só leitor por vez (a sessão ou o entregador, com o lock de
+    // escrita da saída): cada publicador reserva uma posição com CAS na cauda e só então escreve nela;
+    // o leitor para na primeira posição ainda vazia.
+    final class Inscricao {
+        private final AtomicReferenceArray<ByteBuffer> caixa = new AtomicReferenceArray<>(CAPACIDADE_CAIXA);
+        private final AtomicLong cauda = new AtomicLong(); // próxima posição a reservar
+        private volatile long cabeca;                      // próxima posição a entregar; só o leitor escreve
+        private final AtomicInteger descartadas = new AtomicInteger();
+        private int regiao = -1;                           // só a sessão escreve
+        private volatile SaidaBufferizada saida;           // null = mensagens só saem no prompt
+        private final AtomicBoolean agendada = new AtomicBoolean(); // já está na fila dos entregadores
+        private volatile boolean encerrada;
+
+        public int getRegiao() {
+            return regiao;
+        }
+
+        public void mudarPara(int nova) {
+            if (nova == regiao) return;
+            sairDaRegiao();
+            inscritos.computeIfAbsent(nova, r -> ConcurrentHashMap.newKeySet()).add(this);
+            regiao = nova;
+        }
+
+        public void sair() {
+            sairDaRegiao();
+            regiao = -1;
+            encerrada = true;
+        }
+
+        // Entrega as mensagens em saida assim que chegam, pelos entregadores do canal, até sair(). Sem
+        // isso (treino, benchmarks) elas só saem quando a sessão descarrega a saída.
+        public void entregarEm(SaidaBufferizada saida) {
+            iniciarEntregadores();
+            this.saida = saida;
+            if (temPendentes()) agendarEntrega();
+        }
+
+        // Põe a inscrição na fila dos entregadores, se ela tem entrega e ainda não está lá.
+        void agendarEntrega() {
+            if (saida != null && !encerrada && agendada.compareAndSet(false, true)) aEntregar.offer(this);
+        }
+
+        boolean temPendentes() {
+            return descartadas.get() > 0 || caixa.get((int) cabeca & (CAPACIDADE_CAIXA - 1)) != null;
+        }
+
+        private void sairDaRegiao() {
+            if (regiao < 0) return;
+            Set<Inscricao> naRegiao = inscritos.get(regiao);
+            if (naRegiao != null) naRegiao.remove(this);
+        }
+
+        public int publicar(String texto) {
+            return regiao < 0 ? 0 : CanaisRegiao.this.publicar(regiao, this, texto);
+        }
+
+        boolean oferecer(ByteBuffer mensagem) {
+            while (true) {
+                long posicao = cauda.get();
+                if (posicao - cabeca >= CAPACIDADE_CAIXA) {
+                    descartadas.incrementAndGet();
+                    return false;
+                }
+                if (cauda.compareAndSet(posicao, posicao + 1)) {
+                    caixa.set((int) posicao & (CAPACIDADE_CAIXA - 1), mensagem);
+                    return true;
+                }
+            }
+        }
+
+        // Põe no lote as mensagens pendentes (visões próprias dos buffers compartilhados, sem copiar bytes),
+        // precedidas do aviso de descartadas, se houver. O lote precisa de CAPACIDADE_CAIXA + 1 posições;
+        // devolve quantas foram usadas.
+        int retirar(ByteBuffer[] lote) {
+            int n = 0;
+            if (descartadas.get() > 0) lote[n++] = aviso(descartadas.getAndSet(0));
+            long posicao = cabeca;
+            while (n < lote.length) {
+                int indice = (int) posicao & (CAPACIDADE_CAIXA - 1);
+                ByteBuffer mensagem = caixa.get(indice);
+                if (mensagem == null) break; // vazia, ou reservada por quem ainda não escreveu
+                caixa.set(indice, null);
+                lote[n++] = mensagem.duplicate();
+                posicao++;
+            }
+            cabeca = posicao;
+            return n;
+        }
+    }
+}
+
+// ================================================
+// Placar das jornadas terminadas
+// ================================================
+
+// Placar de todas as jornadas que terminaram no servidor (vitória, morte ou desistência), compartilhado
+// pelas sessões e sem travas:
+//   - posição de uma pontuação: uma árvore de Fenwick por linha, indexada pela pontuação invertida, num
+//     AtomicLongArray; inserir e consultar são O(log MAXIMO_PONTOS) incrementos ou leituras atômicas;
+//   - as K melhores jornadas: um ConcurrentSkipListSet por linha, podado para as GUARDADAS melhores.
+//     Quem já tem GUARDADAS jornadas à frente (a árvore diz) nem toca o conjunto, que é o caso comum;
+//   - posição de um jogador: o melhor resultado de cada nome num ConcurrentHashMap.
+// A linha GERAL junta todas as classes; as outras são os números das classes (1 a 6).
+// Consultas concorrentes com inserções veem o placar de um instante atrás, o que basta para um ranking.
+//
+// Arquivo: int mágico "ELDP", short versão e, para cada classe, int pontuações distintas +
+// (short pontos, long jornadas) e int jornadas guardadas + jornadas; por fim int jogadores + a melhor
+// jornada de cada um. A linha GERAL é refeita a partir das classes na carga.
+final class Placar {
+    static final String ARQUIVO_PADRAO = "placar.dat";
+    static final int MAGICO = 0x454C4450; // "ELDP"
+    static final short VERSAO = 1;
+    static final int MAXIMO_PONTOS = 4095;
+    static final int GUARDADAS = 100; // melhores jornadas guardadas por linha: o limite das consultas top-K
+    static final int GERAL = 0;
+    // Vencer vale mais que tudo; depois contam a vida que sobrou e o dano causado, e cada turno custa um ponto.
+    static final int PONTOS_VITORIA = 500;
+    static final int PONTOS_POR_VIDA = 5;
+    static final int PONTOS_POR_DANO = 2;
+    static final int PONTOS_POR_TURNO = 1;
+
+    static final int VITORIA = 0;
+    static final int MORTE = 1;
+    static final int DESISTENCIA = 2;
+    static final String[] DESFECHOS = {"vitória", "morte", "desistência"};
+
+    private static final int LINHAS = JogoRPG.CLASSES.length + 1;
+    private static final int TAMANHO_ARVORE = MAXIMO_PONTOS + 1; // índices 1..TAMANHO_ARVORE
+
+    private final AtomicLongArray arvores = new AtomicLongArray(LINHAS * (TAMANHO_ARVORE + 1));
+    private final List<ConcurrentSkipListSet<Jornada>> melhores = new ArrayList<>();
+    private final AtomicInteger[] guardadas = new AtomicInteger[LINHAS];
+    private final ConcurrentHashMap<String, Jornada> melhorPorJogador = new ConcurrentHashMap<>();
+    private final AtomicLong sequencia = new AtomicLong();
+
+    public Placar() {
+        for (int linha = 0; linha < LINHAS; linha++) {
+            melhores.add(new ConcurrentSkipListSet<>());
+            guardadas[linha] = new AtomicInteger();
+        }
+    }
+
+    static int pontuar(int desfecho, int turnos, int dano, int vida) {
+        int pontos = (desfecho == VITORIA ? PONTOS_VITORIA : 0) + PONTOS_POR_VIDA * Math.max(0, vida)
+                + PONTOS_POR_DANO * dano - PONTOS_POR_TURNO * turnos;
+        return Math.max(0, Math.min(MAXIMO_PONTOS, pontos));
+    }
+
+    public Jornada registrar(String nome, int classe, int desfecho, int turnos, int dano, int vida, long duracaoMs) {
+        if (classe < 1 || classe >= LINHAS) throw new IllegalArgumentException("Classe inválida: " + classe);
+        Jornada jornada = new Jornada(nome, classe, desfecho, pontuar(desfecho, turnos, dano, vida),
+                turnos, dano, vida, duracaoMs, sequencia.getAndIncrement());
+        // Guardar antes de contar: a conta de quem está à frente não pode incluir a própria jornada.
+        guardar(GERAL, jornada);
+        guardar(classe, jornada);
+        somar(GERAL, jornada.pontos, 1);
+        somar(classe, jornada.pontos, 1);
+        melhorPorJogador.merge(nome, jornada, (antiga, nova) -> nova.compareTo(antiga) < 0 ? nova : antiga);
+        return jornada;
+    }
+
+    // Posição (1 = primeiro) de uma pontuação na linha: 1 + quantas jornadas fizeram mais pontos.
+    // Empates dividem a posição.
+    public long posicao(int linha, int pontos) {
+        return 1 + prefixo(linha, indice(pontos) - 1);
+    }
+
+    public long quantidade(int linha) {
+        return prefixo(linha, TAMANHO_ARVORE);
+    }
+
+    public long totalJornadas() {
+        return quantidade(GERAL);
+    }
+
+    public Jornada melhorDoJogador(String nome) {
+        return melhorPorJogador.get(nome);
+    }
+
+    // Posição geral do melhor resultado do jogador; 0 se ele nunca terminou uma jornada.
+    public long posicaoDoJogador(String nome) {
+        Jornada melhor = melhorPorJogador.get(nome);
+        return melhor == null ? 0 : posicao(GERAL, melhor.pontos);
+    }
+
+    // As k melhores jornadas da linha, da primeira para a última (no máximo GUARDADAS).
+    public List<Jornada> melhores(int linha, int k) {
+        List<Jornada> lista = new ArrayList<>(Math.min(k, GUARDADAS));
+        for (Jornada jornada : melhores.get(linha)) {
+            if (lista.size() == k) break;
+            lista.add(jornada);
+        }
+        return lista;
+    }
+
+    // Entra nas melhores só se ainda não houver GUARDADAS jornadas com pontos maiores ou iguais
+    // (a nova perde os empates: chegou por último). O excesso sai pelo fim do conjunto.
+    private void guardar(int linha, Jornada jornada) {
+        if (prefixo(linha, indice(jornada.pontos)) >= GUARDADAS) return;
+        ConcurrentSkipListSet<Jornada> conjunto = melhores.get(linha);
+        conjunto.add(jornada);
+        if (guardadas[linha].incrementAndGet() > GUARDADAS && conjunto.pollLast() != null) {
+            guardadas[linha].decrementAndGet();
+        }
+    }
+
+    // Mais pontos, índice menor: o prefixo até o índice de p conta as jornadas com p pontos ou mais.
+    private static int indice(int pontos) {
+        return MAXIMO_PONTOS - pontos + 1;
+    }
+
+    private void somar(int linha, int pontos, long jornadas) {
+        int base = linha * (TAMANHO_ARVORE + 1);
+        for (int i = indice(pontos); i <= TAMANHO_ARVORE; i += i & -i) {
+            arvores.getAndAdd(base + i, jornadas);
+        }
+    }
+
+    private long prefixo(int linha, int indice) {
+        int base = linha * (TAMANHO_ARVORE + 1);
+        long total = 0;
+        for (int i = indice; i > 0; i -= i & -i) {
+            total += arvores.get(base + i);
+        }
+        return total;
+    }
+
+    // Grava num temporário e troca pelo arquivo de forma atômica: uma queda no meio não perde o placar anterior.
+    public synchronized void gravar(Path arquivo) throws IOException {
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try (DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+            saida.writeInt(MAGICO);
+            saida.writeShort(VERSAO);
+            long[] porPontos = new long[MAXIMO_PONTOS + 1];
+            for (int classe = 1; classe < LINHAS; classe++) {
+                int distintas = 0;
+                long acumulado = 0;
+                for (int pontos = MAXIMO_PONTOS; pontos >= 0; pontos--) {
+                    long ateAqui = prefixo(classe, indice(pontos));
+                    porPontos[pontos] = ateAqui - acumulado;
+                    acumulado = ateAqui;
+                    if (porPontos[pontos] > 0) distintas++;
+                }
+                saida.writeInt(distintas);
+                for (int pontos = MAXIMO_PONTOS; pontos >= 0; pontos--) {
+                    if (porPontos[pontos] == 0) continue;
+                    saida.writeShort(pontos);
+                    saida.writeLong(porPontos[pontos]);
+                }
+                List<Jornada> guardadasDaClasse = new ArrayList<>(melhores.get(classe));
+                saida.writeInt(guardadasDaClasse.size());
+                for (Jornada jornada : guardadasDaClasse) jornada.escrever(saida);
+            }
+            List<Jornada> porJogador = new ArrayList<>(melhorPorJogador.values());
+            saida.writeInt(porJogador.size());
+            for (Jornada jornada : porJogador) jornada.escrever(saida);
+        }
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Placar vazio se o arquivo ainda não existe.
+    public static Placar carregar(Path arquivo) throws IOException {
+        Placar placar = new Placar();
+        if (!Files.exists(arquivo)) return placar;
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivo)))) {
+            if (entrada.readInt() != MAGICO) throw new IOException("Não é um arquivo de placar.");
+            int versao = entrada.readShort();
+            if (versao != VERSAO) throw new IOException("Versão de placar não suportada: " + versao);
+            long proxima = 0;
+            for (int classe = 1; classe < LINHAS; classe++) {
+                int distintas = entrada.readInt();
+                for (int i = 0; i < distintas; i++) {
+                    int pontos = entrada.readShort();
+                    long jornadas = entrada.readLong();
+                    placar.somar(classe, pontos, jornadas);
+                    placar.somar(GERAL, pontos, jornadas);
+                }
+                int guardadasDaClasse = entrada.readInt();
+                for (int i = 0; i < guardadasDaClasse; i++) {
+                    Jornada jornada = Jornada.ler(entrada);
+                    placar.melhores.get(classe).add(jornada);
+                    placar.melhores.get(GERAL).add(jornada);
+                    proxima = Math.max(proxima, jornada.sequencia + 1);
+                }
+            }
+            int jogadores = entrada.readInt();
+            for (int i = 0; i < jogadores; i++) {
+                Jornada jornada = Jornada.ler(entrada);
+                placar.melhorPorJogador.put(jornada.nome, jornada);
+                proxima = Math.max(proxima, jornada.sequencia + 1);
+            }
+            // As melhores gerais estão entre as melhores de alguma classe.
+            while (placar.melhores.get(GERAL).size() > GUARDADAS) placar.melhores.get(GERAL).pollLast();
+            for (int linha = 0; linha < LINHAS; linha++) {
+                placar.guardadas[linha].set(placar.melhores.get(linha).size());
+            }
+            placar.sequencia.set(proxima);
+        }
+        return placar;
+    }
+
+    // Grava a cada intervalo, se algo mudou, numa thread daemon; e uma última vez quando a JVM encerra.
+    public void gravarPeriodicamente(Path arquivo, long intervaloMs) {
+        ScheduledExecutorService gravador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "gravador-placar");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] gravadasAte = {sequencia.get()};
+        Runnable gravarSeMudou = () -> {
+            synchronized (gravadasAte) {
+                long atual = sequencia.get();
+                if (atual == gravadasAte[0]) return;
+                try {
+                    gravar(arquivo);
+                    gravadasAte[0] = atual;
+                } catch (IOException e) {
+                    System.out.println("Placar não gravado em " + arquivo + ": " + e.getMessage());
+                }
+            }
+        };
+        gravador.scheduleWithFixedDelay(gravarSeMudou, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(gravarSeMudou, "gravador-placar-final"));
+    }
+
+    // Uma jornada terminada, imutável. Ordem do placar: mais pontos primeiro; no empate, quem terminou antes.
+    static final class Jornada implements Comparable<Jornada> {
+        private final String nome;
+        private final int classe;
+        private final int desfecho;
+        private final int pontos;
+        private final int turnos;
+        private final int dano;
+        private final int vida;
+        private final long duracaoMs;
+        private final long sequencia;
+
+        Jornada(String nome, int classe, int desfecho, int pontos, int turnos, int dano, int vida,
+                long duracaoMs, long sequencia) {
+            this.nome = nome;
+            this.classe = classe;
+            this.desfecho = desfecho;
+            this.pontos = pontos;
+            this.turnos = turnos;
+            this.dano = dano;
+            this.vida = vida;
+            this.duracaoMs = duracaoMs;
+            this.sequencia = sequencia;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public int getClasse() {
+            return classe;
+        }
+
+        public int getDesfecho() {
+            return desfecho;
+        }
+
+        public int getPontos() {
+            return pontos;
+        }
+
+        public int getTurnos() {
+            return turnos;
+        }
+
+        public int getDano() {
+            return dano;
+        }
+
+        public int getVida() {
+            return vida;
+        }
+
+        public long getDuracaoMs() {
+            return duracaoMs;
+        }
+
+        @Override
+        public int compareTo(Jornada outra) {
+            if (pontos != outra.pontos) return Integer.compare(outra.pontos, pontos);
+            return Long.compare(sequencia, outra.sequencia);
+        }
+
+        void escrever(DataOutputStream saida) throws IOException {
+            saida.writeUTF(nome);
+            saida.writeByte(classe);
+            saida.writeByte(desfecho);
+            saida.writeShort(pontos);
+            saida.writeInt(turnos);
+            saida.writeInt(dano);
+            saida.writeInt(vida);
+            saida.writeLong(duracaoMs);
+            saida.writeLong(sequencia);
+        }
+
+        static Jornada ler(DataInputStream entrada) throws IOException {
+            String nome = entrada.readUTF();
+            int classe = entrada.readByte();
+            int desfecho = entrada.readByte();
+            int pontos = entrada.readShort();
+            if (classe < 1 || classe >= LINHAS || desfecho < 0 || desfecho >= DESFECHOS.length
+                    || pontos < 0 || pontos > MAXIMO_PONTOS) {
+                throw new IOException("Placar corrompido: jornada de " + nome);
+            }
+            return new Jornada(nome, classe, desfecho, pontos, entrada.readInt(), entrada.readInt(),
+                    entrada.readInt(), entrada.readLong(), entrada.readLong());
+        }
+    }
+}
+
+// ================================================
+// Métricas dos caminhos quentes (histogramas, contadores, medidores, JFR)
+// ================================================
+
+// Histograma de latência no estilo HDR: cada potência de 2 é dividida em SUBFAIXAS faixas lineares,
+// então o erro relativo de qualquer percentil é no máximo 1/SUBFAIXAS, de nanossegundos a horas,
+// com um array fixo. Registrar é aritmética de bits e um incremento em um AtomicLongArray.
+final class HistogramaLatencia {
+    static final int BITS_SUBFAIXA = 3;
+    static final int SUBFAIXAS = 1 << BITS_SUBFAIXA; // erro relativo de até 12,5%
+    static final int FAIXAS = (64 - BITS_SUBFAIXA) * SUBFAIXAS;
+
+    private final AtomicLongArray contagens = new AtomicLongArray(FAIXAS);
+    private final LongAdder soma = new LongAdder();
+
+    public void registrar(long nanos) {
+        contagens.incrementAndGet(faixa(nanos));
+        soma.add(nanos);
+    }
+
+    static int faixa(long valor) {
+        if (valor < SUBFAIXAS) return (int) Math.max(0, valor);
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);
+        int subfaixa = (int) (valor >>> (expoente - BITS_SUBFAIXA)) & (SUBFAIXAS - 1);
+        return (expoente - BITS_SUBFAIXA + 1) * SUBFAIXAS + subfaixa;
+    }
+
+    // Maior valor que cai na faixa (o percentil é reportado pelo topo da faixa, como no HdrHistogram).
+    static long topoDaFaixa(int faixa) {
+        if (faixa < SUBFAIXAS) return faixa;
+        int expoente = faixa / SUBFAIXAS - 1 + BITS_SUBFAIXA;
+        long inicio = (long) (SUBFAIXAS + faixa % SUBFAIXAS) << (expoente - BITS_SUBFAIXA);
+        return inicio + (1L << (expoente - BITS_SUBFAIXA)) - 1;
+    }
+
+    public long quantidade() {
+        long total = 0;
+        for (int i = 0; i < FAIXAS; i++) total += contagens.get(i);
+        return total;
+    }
+
+    public long soma() {
+        return soma.sum();
+    }
+
+    // Percentil (0 a 1) do que foi registrado até agora; 0 sem registros.
+    public long percentil(double p) {
+        long[] copia = new long[FAIXAS];
+        long total = 0;
+        for (int i = 0; i < FAIXAS; i++) {
+            copia[i] = contagens.get(i);
+            total += copia[i];
+        }
+        if (total == 0) return 0;
+        long alvo = Math.max(1, (long) Math.ceil(p * total));
+        long acumulado = 0;
+        for (int i = 0; i < FAIXAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) return topoDaFaixa(i);
+        }
+        return topoDaFaixa(FAIXAS - 1);
+    }
+}
+
+// Evento JFR de cada comando medido; aparece em gravações com -XX:StartFlightRecording.
+@jdk.jfr.Name("eldoria.Comando")
+@jdk.jfr.Label("Comando do jogo")
+@jdk.jfr.Category("Eldoria")
+class EventoComando extends jdk.jfr.Event {
+    @jdk.jfr.Label("Comando")
+    String comando;
+
+    @jdk.jfr.Label("Classe do jogador")
+    String classe;
+
+    @jdk.jfr.Label("Duração sem a espera pelo jogador")
+    @jdk.jfr.Timespan(jdk.jfr.Timespan.NANOSECONDS)
+    long duracao;
+}
+
+// Evento JFR de cada sessão aceita pelo servidor MUD, com a semente que permite repeti-la.
+@jdk.jfr.Name("eldoria.Sessao")
+@jdk.jfr.Label("Sessão iniciada")
+@jdk.jfr.Category("Eldoria")
+class EventoSessao extends jdk.jfr.Event {
+    @jdk.jfr.Label("Sessão")
+    long sessao;
+
+    @jdk.jfr.Label("Semente")
+    long semente;
+}
+
+// Registro global das métricas do jogo. Desligado, cada ponto de medição custa a leitura de um campo
+// volatile. Ligado (-Deldoria.metricas, ou -Deldoria.metricas=porta para também servir por HTTP):
+//   - contadores: cada sessão soma num long[] só dela, sem atomics; a exportação soma os arrays das
+//     sessões vivas (valores de um instante atrás, o que basta para métricas) e, quando a sessão acaba,
+//     o array dela é incorporado aos acumulados;
+//   - latências: cada sessão mede 1 a cada AMOSTRAGEM comandos (System.nanoTime custa dezenas de ns,
+//     tanto quanto um comando barato), e cada medição entra no histograma e vira um EventoComando no JFR.
+final class Metricas {
+    static final String PROPRIEDADE = "eldoria.metricas";
+    static final int AMOSTRAGEM = Integer.highestOneBit(Math.max(1, Integer.getInteger(PROPRIEDADE + ".amostragem", 256)));
+
+    static final int MENU = 0;
+    static final int EXPLORAR = 1;
+    static final int CHEFE = 2;
+    static final int POCAO = 3;
+    static final int DESCANSAR = 4;
+    static final String[] COMANDOS = {"lerOpcaoMenu", "explorarRegiao", "enfrentarChefe", "usarPocao", "descansar"};
+
+    // Posições no array de contadores de cada sessão; as de luta são seguidas do índice da classe (0 a 5).
+    static final int LUTAS_INICIADAS = 0;
+    static final int LUTAS_VENCIDAS = JogoRPG.CLASSES.length;
+    static final int LUTAS_PERDIDAS = 2 * JogoRPG.CLASSES.length;
+    static final int POCOES_USADAS = 3 * JogoRPG.CLASSES.length;
+    static final int DANO_CAUSADO = POCOES_USADAS + 1;
+    static final int DANO_RECEBIDO = POCOES_USADAS + 2;
+    static final int QUANTIDADE_CONTADORES = POCOES_USADAS + 3;
+
+    static volatile boolean ligadas;
+
+    private static final HistogramaLatencia[] latencias = new HistogramaLatencia[COMANDOS.length];
+    private static final Set<long[]> contadoresVivos = ConcurrentHashMap.newKeySet();
+    private static final LongAdder[] acumulados = new LongAdder[QUANTIDADE_CONTADORES];
+    private static final Map<String, LongSupplier> medidores = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < latencias.length; i++) latencias[i] = new HistogramaLatencia();
+        for (int i = 0; i < acumulados.length; i++) acumulados[i] = new LongAdder();
+    }
+
+    private Metricas() {
+    }
+
+    // Contadores de uma sessão nova; só a thread da sessão escreve neles.
+    static long[] novosContadores() {
+        long[] contadores = new long[QUANTIDADE_CONTADORES];
+        contadoresVivos.add(contadores);
+        return contadores;
+    }
+
+    // Fim da sessão: os valores dela passam para os acumulados.
+    static void devolverContadores(long[] contadores) {
+        contadoresVivos.remove(contadores);
+        for (int i = 0; i < contadores.length; i++) {
+            if (contadores[i] != 0) acumulados[i].add(contadores[i]);
+        }
+    }
+
+    static long total(int contador) {
+        long total = acumulados[contador].sum();
+        for (long[] contadores : contadoresVivos) total += contadores[contador];
+        return total;
+    }
+
+    // Liga as métricas conforme -Deldoria.metricas; com uma porta, abre também o endpoint HTTP local.
+    static void configurar() throws IOException {
+        String valor = System.getProperty(PROPRIEDADE);
+        if (valor == null) return;
+        ligadas = true;
+        if (!valor.isEmpty() && !valor.equals("true")) {
+            servirHttp(Integer.parseInt(valor));
+        }
+    }
+
+    // Medidor lido só na hora de exportar (sessões ativas, por exemplo).
+    static void registrarMedidor(String nome, LongSupplier leitura) {
+        medidores.put(nome, leitura);
+    }
+
+    static void comando(int comando, long nanos, String classe) {
+        latencias[comando].registrar(nanos);
+        EventoComando evento = new EventoComando();
+        if (evento.isEnabled()) {
+            evento.comando = COMANDOS[comando];
+            evento.classe = classe;
+            evento.duracao = nanos;
+            evento.commit();
+        }
+    }
+
+    static HistogramaLatencia latencia(int comando) {
+        return latencias[comando];
+    }
+
+    // Exportação em texto, uma métrica por linha no formato nome{rótulos} valor.
+    static String texto() {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < COMANDOS.length; c++) {
+            HistogramaLatencia h = latencias[c];
+            String rotulo = "{comando=\"" + COMANDOS[c] + "\"";
+            sb.append("eldoria_comando_total").append(rotulo).append("} ").append(h.quantidade()).append('\n');
+            sb.append("eldoria_comando_ns_soma").append(rotulo).append("} ").append(h.soma()).append('\n');
+            for (double p : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                sb.append("eldoria_comando_ns").append(rotulo).append(",quantil=\"").append(p).append("\"} ")
+                        .append(h.percentil(p)).append('\n');
+            }
+        }
+        for (int i = 0; i < JogoRPG.CLASSES.length; i++) {
+            String rotulo = "{classe=\"" + JogoRPG.CLASSES[i] + "\"} ";
+            sb.append("eldoria_lutas_iniciadas").append(rotulo).append(total(LUTAS_INICIADAS + i)).append('\n');
+            sb.append("eldoria_lutas_vencidas").append(rotulo).append(total(LUTAS_VENCIDAS + i)).append('\n');
+            sb.append("eldoria_lutas_perdidas").append(rotulo).append(total(LUTAS_PERDIDAS + i)).append('\n');
+        }
+        sb.append("eldoria_pocoes_usadas ").append(total(POCOES_USADAS)).append('\n');
+        sb.append("eldoria_dano_causado ").append(total(DANO_CAUSADO)).append('\n');
+        sb.append("eldoria_dano_recebido ").append(total(DANO_RECEBIDO)).append('\n');
+        sb.append("eldoria_amostragem_latencia ").append(AMOSTRAGEM).append('\n');
+        for (Map.Entry<String, LongSupplier> medidor : new TreeMap<>(medidores).entrySet()) {
+            sb.append("eldoria_").append(medidor.getKey()).append(' ').append(medidor.getValue().getAsLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // GET http://localhost:porta/metricas devolve texto(). Só escuta na interface local.
+    static void servirHttp(int porta) throws IOException {
+        com.sun.net.httpserver.HttpServer http = com.sun.net.httpserver.HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+        http.createContext("/metricas", troca -> {
+            byte[] corpo = texto().getBytes(StandardCharsets.UTF_8);
+            troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            troca.sendResponseHeaders(200, corpo.length);
+            try (OutputStream saida = troca.getResponseBody()) {
+                saida.write(corpo);
+            }
+        });
+        http.start();
+        System.out.println("Métricas em http://localhost:" + porta + "/metricas");
+    }
+}
+
+// ================================================
+// Simulador de balanceamento (Monte Carlo, sem interface)
+// ================================================
+
+// Decide a ação de um turno do combate simulado: 1 = atacar, 2 = poção, 3 = dialogar
+// (mesma numeração do menu de enfrentarChefe).
+interface PoliticaCombate {
+    int escolher(int vidaJogador, int vidaChefe, int pocoes);
+
+    static PoliticaCombate sempreAtacar() {
+        return (vidaJogador, vidaChefe, pocoes) -> 1;
+    }
+
+    static PoliticaCombate pocaoAbaixoDe(int limite) {
+        return (vidaJogador, vidaChefe, pocoes) -> vidaJogador < limite && pocoes > 0 ? 2 : 1;
+    }
+
+    // Formatos aceitos: "atacar" ou "pocao:N".
+    static PoliticaCombate porNome(String nome) {
+        if (nome.startsWith("pocao:")) {
+            return pocaoAbaixoDe(Integer.parseInt(nome.substring("pocao:".length())));
+        }
+        return sempreAtacar();
+    }
+}
+
+// Estatísticas acumuladas de um lote de lutas simuladas de uma classe.
+class ResultadoSimulacao {
+    long lutas;
+    long vitorias;
+    long somaTurnos;
+    // histogramaVida[v] = quantas lutas terminaram com o jogador em v pontos de vida.
+    long[] histogramaVida = new long[RegrasCombate.VIDA_MAXIMA + 1];
+
+    void combinar(ResultadoSimulacao outro) {
+        lutas += outro.lutas;
+        vitorias += outro.vitorias;
+        somaTurnos += outro.somaTurnos;
+        for (int i = 0; i < histogramaVida.length; i++) {
+            histogramaVida[i] += outro.histogramaVida[i];
+        }
+    }
+
+    // Menor vida final v tal que pelo menos p das lutas terminaram com vida <= v.
+    int percentilVida(double p) {
+        long alvo = (long) Math.ceil(p * lutas);
+        long acumulado = 0;
+        for (int v = 0; v < histogramaVida.length; v++) {
+            acumulado += histogramaVida[v];
+            if (acumulado >= alvo) return v;
+        }
+        return histogramaVida.length - 1;
+    }
+}
+
+// Reproduz eventoAleatorio + enfrentarChefe com aritmética primitiva, sem texto nem objetos por luta.
+// As lutas são divididas recursivamente entre os núcleos via fork-join; cada subtarefa recebe um
+// SplittableRandom derivado do pai por split(), então o resultado depende só da semente,
+// nunca da ordem de execução das threads.
+class SimuladorCombate {
+    // Abaixo deste número de lutas a tarefa roda sequencialmente.
+    static final int LIMIAR = 1 << 14;
+
+    private final PersonagemBase modelo; // só lido: classe para as condições das tabelas de eventos
+    private final String classe;
+    private final int vidaInicial;
+    private final int ataque;
+    private final int habilidades; // modificadores da classe, empacotados (ver Habilidades)
+    private final DefinicoesJogo definicoes;
+    private final int[] regioesExploradas; // regiões sem chefe, na ordem do mapa: a exploração e cai na e % n
+    private final PoliticaCombate politica;
+    private final int exploracoes;
+
+    // Os atributos são lidos uma única vez de um personagem real, então o simulador acompanha
+    // qualquer mudança nos construtores das classes. Os eventos das explorações são os das
+    // definições, sorteados pelas mesmas regras da engine (JogoRPG.sortearEvento).
+    public SimuladorCombate(PersonagemBase modelo, DefinicoesJogo definicoes, PoliticaCombate politica, int exploracoes) {
+        this.modelo = modelo;
+        this.classe = modelo.getClasse();
+        this.vidaInicial = modelo.getVida();
+        this.ataque = modelo.getAtaqueBase();
+        this.habilidades = Habilidades.daClasse(modelo);
+        this.definicoes = definicoes;
+        boolean[] comChefe = definicoes.getMapa().regioesComChefe();
+        int[] comuns = new int[comChefe.length];
+        int quantas = 0;
+        for (int r = 0; r < comChefe.length; r++) {
+            if (!comChefe[r]) comuns[quantas++] = r;
+        }
+        if (quantas == 0 && exploracoes > 0) {
+            throw new IllegalArgumentException("O mapa não tem regiões sem chefe para explorar.");
+        }
+        this.regioesExploradas = Arrays.copyOf(comuns, quantas);
+        this.politica = politica;
+        this.exploracoes = exploracoes;
+    }
+
+    public String getClasse() {
+        return classe;
+    }
+
+    public ResultadoSimulacao simular(ForkJoinPool pool, long lutas, long semente) {
+        return pool.invoke(new Tarefa(lutas, new SplittableRandom(semente)));
+    }
+
+    private class Tarefa extends RecursiveTask<ResultadoSimulacao> {
+        private static final long serialVersionUID = 1L;
+
+        private final long lutas;
+        private final SplittableRandom random;
+
+        Tarefa(long lutas, SplittableRandom random) {
+            this.lutas = lutas;
+            this.random = random;
+        }
+
+        @Override
+        protected ResultadoSimulacao compute() {
+            if (lutas <= LIMIAR) {
+                ResultadoSimulacao resultado = new ResultadoSimulacao();
+                IntUnaryOperator rolar = random::nextInt;
+                Inventario<Item> inventario = new Inventario<>();
+                for (long i = 0; i < lutas; i++) {
+                    lutar(random, rolar, inventario, resultado);
+                }
+                return resultado;
+            }
+            long metade = lutas / 2;
+            Tarefa esquerda = new Tarefa(metade, random.split());
+            Tarefa direita = new Tarefa(lutas - metade, random.split());
+            esquerda.fork();
+            ResultadoSimulacao resultado = direita.compute();
+            resultado.combinar(esquerda.join());
+            return resultado;
+        }
+    }
+
+    // Uma partida: algumas explorações de regiões comuns seguidas do chefe da Fortaleza.
+    // Cada exploração sorteia na tabela da região (pesos e condições de classe e de item, com o
+    // inventário da partida); dos itens, só as poções entram na luta.
+    private void lutar(SplittableRandom random, IntUnaryOperator rolar, Inventario<Item> inventario,
+                       ResultadoSimulacao resultado) {
+        int vida = vidaInicial;
+        int turnos = 0;
+        int habilidadesLuta = habilidades; // a iniciativa (Tiro Preciso) se gasta nesta cópia
+
+        inventario.limpar();
+        for (int e = 0; e < exploracoes && vida > 0; e++) {
+            int regiao = regioesExploradas[e % regioesExploradas.length];
+            int evento = JogoRPG.sortearEvento(definicoes, regiao, modelo, inventario, rolar);
+            if (definicoes.tipoDoEvento(evento) == DefinicoesJogo.EVENTO_DANO) {
+                vida -= danoRecebido(JogoRPG.danoDoEvento(definicoes, evento, rolar));
+            }
+        }
+        int pocoes = inventario.quantidade(CatalogoItens.POCAO_CURA_MENOR);
+
+        int vidaChefe = RegrasCombate.VIDA_CHEFE;
+        while (vidaChefe > 0 && vida > 0) {
+            turnos++;
+            int opcao = politica.escolher(vida, vidaChefe, pocoes);
+            // Na engine, pedir poção sem ter nenhuma só gasta o turno; aqui vira ataque
+            // para que uma política mal escrita não prenda a simulação.
+            if (opcao == 2 && pocoes == 0) opcao = 1;
+
+            if (opcao == 1) {
+                vidaChefe -= ResolvedorCombate.danoCausado(habilidadesLuta,
+                        ataque + random.nextInt(RegrasCombate.VARIACAO_ATAQUE), vida, vidaChefe);
+                if (vidaChefe <= 0) break;
+                if (!ResolvedorCombate.revida(habilidadesLuta)) {
+                    habilidadesLuta = Habilidades.gastarIniciativa(habilidadesLuta);
+                    continue;
+                }
+                vida -= danoDoChefe(RegrasCombate.DANO_CHEFE_MINIMO
+                        + random.nextInt(RegrasCombate.VARIACAO_DANO_CHEFE));
+            } else if (opcao == 2) {
+                pocoes--;
+                vida = Math.min(RegrasCombate.VIDA_MAXIMA, vida + RegrasCombate.CURA_POCAO);
+            } else {
+                vida -= danoDoChefe(RegrasCombate.DANO_DIALOGO_MINIMO
+                        + random.nextInt(RegrasCombate.VARIACAO_DANO_CHEFE));
+            }
+        }
+
+        vida = Math.max(0, vida);
+        resultado.lutas++;
+        resultado.somaTurnos += turnos;
+        resultado.histogramaVida[Math.min(vida, RegrasCombate.VIDA_MAXIMA)]++;
+        if (vidaChefe <= 0 && vida > 0) {
+            resultado.vitorias++;
+        }
+    }
+
+    // Mesma regra de aplicarDanoComHabilidade.
+    private int danoRecebido(int dano) {
+        return ResolvedorCombate.danoFinal(habilidades, dano);
+    }
+
+    // Golpes do chefe também passam pelo Grito de Guerra, como em enfrentarChefe.
+    private int danoDoChefe(int dano) {
+        return danoRecebido(ResolvedorCombate.ataqueContra(habilidades, dano));
+    }
+
+    // Uso: simular [lutasPorClasse] [semente] [politica] [exploracoes]
+    public static void main(String[] args) {
+        long lutas = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000L;
+        long semente = args.length > 1 ? Long.parseLong(args[1]) : 42L;
+        PoliticaCombate politica = PoliticaCombate.porNome(args.length > 2 ? args[2] : "pocao:15");
+        int exploracoes = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        DefinicoesJogo definicoes = DefinicoesJogo.atual();
+        PersonagemBase[] modelos = new PersonagemBase[JogoRPG.CLASSES.length];
+        for (int i = 0; i < modelos.length; i++) modelos[i] = JogoRPG.novoPersonagem(i + 1, "Simulado", definicoes);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        System.out.printf("%d lutas por classe, semente %d, %d núcleos%n",
+                lutas, semente, Runtime.getRuntime().availableProcessors());
+        System.out.println("Classe       Vitórias  Turnos  Vida p10/p50/p90");
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < modelos.length; i++) {
+            SimuladorCombate simulador = new SimuladorCombate(modelos[i], definicoes, politica, exploracoes);
+            // Cada classe tem seu próprio fluxo, derivado da semente e da posição da classe.
+            ResultadoSimulacao r = simulador.simular(pool, lutas, semente + i);
+            System.out.printf("%-11s  %6.2f%%  %6.2f  %2d/%2d/%2d%n",
+                    simulador.getClasse(),
+                    100.0 * r.vitorias / r.lutas,
+                    (double) r.somaTurnos / r.lutas,
+                    r.percentilVida(0.10), r.percentilVida(0.50), r.percentilVida(0.90));
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%.2f s, %.1f milhões de lutas/s%n",
+                segundos, lutas * modelos.length / segundos / 1e6);
+    }
+}
+
+// ================================================
+// Núcleo de combate sem alocação (entidades em colunas primitivas)
+// ================================================
+
+// Modificadores de combate de cada classe, resolvidos uma única vez ao carregar a classe:
+// cada subclasse de PersonagemBase soma os efeitos da sua habilidade numa linha de modificadores
+// (contribuirModificadores) e a linha é empacotada numa palavra int por classe, um campo de 5 bits
+// por coluna. O combate recebe essa palavra pronta (do jogador ou da coluna de TabelaEntidades) e
+// só faz deslocamento e máscara; classes sem a habilidade têm 0 no campo.
+final class Habilidades {
+    // Colunas da linha de modificadores (e campos da palavra empacotada).
+    static final int REDUCAO_DANO = 0;           // Escudo de Fé: subtraído de cada dano recebido
+    static final int REDUCAO_ATAQUE_INIMIGO = 1; // Grito de Guerra: subtraído do ataque do inimigo
+    static final int BONUS_CONTRA_FRAGIL = 2;    // Rajada Arcana: somado ao golpe em alvo frágil
+    static final int FURIA = 3;                  // Fúria Incontrolável: +dano por vida perdida
+    static final int RODADAS_INICIATIVA = 4;     // Tiro Preciso: rodadas restantes em que o inimigo não revida
+    static final int BONUS_CURA_DESCANSO = 5;    // Graça Silvestre: somado à cura do descanso
+    static final int COLUNAS = 6;
+
+    private static final int BITS_CAMPO = 5;
+    private static final int MAXIMO_CAMPO = (1 << BITS_CAMPO) - 1;
+
+    // Campos que mudam o golpe de quem ataca: sem nenhum deles, danoCausado não tem conta a fazer.
+    static final int OFENSIVAS = (MAXIMO_CAMPO << (FURIA * BITS_CAMPO)) | (MAXIMO_CAMPO << (BONUS_CONTRA_FRAGIL * BITS_CAMPO));
+
+    // Posição 0 = sem classe (chefe, monstros); 1 a 6 seguem JogoRPG.CLASSES.
+    private static final int[] POR_CLASSE = montar();
+
+    private Habilidades() {
+    }
+
+    static int daClasse(int classe) {
+        return POR_CLASSE[classe];
+    }
+
+    static int daClasse(PersonagemBase personagem) {
+        return POR_CLASSE[personagem.getNumeroClasse()];
+    }
+
+    // Com coluna constante, o JIT reduz isto a um deslocamento e uma máscara.
+    static int campo(int habilidades, int coluna) {
+        return (habilidades >>> (coluna * BITS_CAMPO)) & MAXIMO_CAMPO;
+    }
+
+    // Os mesmos modificadores com uma rodada de iniciativa a menos. A palavra de quem luta serve de estado
+    // da luta: ela volta cheia quando a entidade é redefinida ou quando a luta seguinte começa.
+    static int gastarIniciativa(int habilidades) {
+        return habilidades - (1 << (RODADAS_INICIATIVA * BITS_CAMPO));
+    }
+
+    private static int[] montar() {
+        int[] porClasse = new int[JogoRPG.CLASSES.length + 1];
+        int[] linha = new int[COLUNAS];
+        for (int classe = 1; classe < porClasse.length; classe++) {
+            Arrays.fill(linha, 0);
+            JogoRPG.novoPersonagem(classe, "", 0, 0).contribuirModificadores(linha);
+            for (int coluna = 0; coluna < COLUNAS; coluna++) {
+                if (linha[coluna] < 0 || linha[coluna] > MAXIMO_CAMPO) {
+                    throw new IllegalStateException("Modificador fora de 0.." + MAXIMO_CAMPO + " na classe "
+                            + JogoRPG.CLASSES[classe - 1] + ", coluna " + coluna + ": " + linha[coluna]);
+                }
+                porClasse[classe] |= linha[coluna] << (coluna * BITS_CAMPO);
+            }
+        }
+        return porClasse;
+    }
+}
+
+// Guarda as entidades de combate (jogadores, NPCs, monstros) em colunas int[] indexadas pelo id,
+// no estilo struct-of-arrays: resolver um golpe lê poucos ints contíguos, sem objetos,
+// sem boxing e sem despacho virtual.
+class TabelaEntidades {
+    private int[] vida;
+    private int[] ataque;
+    private int[] habilidades; // modificadores empacotados (ver Habilidades); 0 = nenhum (chefe, monstros)
+    // Efeitos com duração (usados pela arena por ticks): quanto por tick e por quantos ticks ainda.
+    private int[] regeneracao;
+    private int[] ticksRegeneracao;
+    private int[] queimadura;
+    private int[] ticksQueimadura;
+    private int quantidade;
+
+    public TabelaEntidades(int capacidadeInicial) {
+        int capacidade = Math.max(1, capacidadeInicial);
+        vida = new int[capacidade];
+        ataque = new int[capacidade];
+        habilidades = new int[capacidade];
+        regeneracao = new int[capacidade];
+        ticksRegeneracao = new int[capacidade];
+        queimadura = new int[capacidade];
+        ticksQueimadura = new int[capacidade];
+    }
+
+    // Cadastra uma entidade e devolve seu id (índice nas colunas).
+    public int adicionar(int vidaInicial, int ataqueBase, int habilidadesEntidade) {
+        if (quantidade == vida.length) {
+            int novaCapacidade = vida.length * 2;
+            vida = Arrays.copyOf(vida, novaCapacidade);
+            ataque = Arrays.copyOf(ataque, novaCapacidade);
+            habilidades = Arrays.copyOf(habilidades, novaCapacidade);
+            regeneracao = Arrays.copyOf(regeneracao, novaCapacidade);
+            ticksRegeneracao = Arrays.copyOf(ticksRegeneracao, novaCapacidade);
+            queimadura = Arrays.copyOf(queimadura, novaCapacidade);
+            ticksQueimadura = Arrays.copyOf(ticksQueimadura, novaCapacidade);
+        }
+        redefinir(quantidade, vidaInicial, ataqueBase, habilidadesEntidade);
+        return quantidade++;
+    }
+
+    // Reaproveita o id de uma entidade que saiu de cena, limpando os efeitos que ela tinha.
+    public void redefinir(int id, int vidaInicial, int ataqueBase, int habilidadesEntidade) {
+        vida[id] = vidaInicial;
+        ataque[id] = ataqueBase;
+        habilidades[id] = habilidadesEntidade;
+        regeneracao[id] = 0;
+        ticksRegeneracao[id] = 0;
+        queimadura[id] = 0;
+        ticksQueimadura[id] = 0;
+    }
+
+    public int adicionar(PersonagemBase personagem) {
+        return adicionar(personagem.getVida(), personagem.getAtaqueBase(), Habilidades.daClasse(personagem));
+    }
+
+    public int quantidade() {
+        return quantidade;
+    }
+
+    public int vida(int id) {
+        return vida[id];
+    }
+
+    public int ataque(int id) {
+        return ataque[id];
+    }
+
+    public int habilidades(int id) {
+        return habilidades[id];
+    }
+
+    public void definirHabilidades(int id, int valor) {
+        habilidades[id] = valor;
+    }
+
+    public void definirVida(int id, int valor) {
+        vida[id] = valor;
+    }
+
+    // Um novo efeito substitui o anterior do mesmo tipo (não acumula).
+    public void aplicarRegeneracao(int id, int porTick, int ticks) {
+        regeneracao[id] = porTick;
+        ticksRegeneracao[id] = ticks;
+    }
+
+    public void aplicarQueimadura(int id, int porTick, int ticks) {
+        queimadura[id] = porTick;
+        ticksQueimadura[id] = ticks;
+    }
+
+    public int ticksQueimadura(int id) {
+        return ticksQueimadura[id];
+    }
+
+    // Avança um tick dos efeitos de todas as entidades em uma única passada pelas colunas.
+    // Entidades já caídas não se regeneram; a cura respeita vidaMaxima.
+    public void avancarEfeitos(int vidaMaxima) {
+        for (int id = 0; id < quantidade; id++) {
+            if (ticksQueimadura[id] > 0) {
+                vida[id] = Math.max(0, vida[id] - queimadura[id]);
+                ticksQueimadura[id]--;
+            }
+            if (ticksRegeneracao[id] > 0) {
+                if (vida[id] > 0) vida[id] = Math.min(vidaMaxima, vida[id] + regeneracao[id]);
+                ticksRegeneracao[id]--;
+            }
+        }
+    }
+}
+
+// Recebe o texto do combate apenas quando alguém está assistindo.
+// Com registro nulo, o ResolvedorCombate não monta nenhuma String.
+interface RegistroCombate {
+    void golpe(int atacante, int alvo, int dano, int vidaRestante);
+}
+
+// Regras de combate sobre TabelaEntidades: só aritmética inteira e métodos estáticos.
+final class ResolvedorCombate {
+    private ResolvedorCombate() {
+    }
+
+    // As regras abaixo recebem os modificadores já empacotados (Habilidades) e só fazem aritmética:
+    // nenhuma verificação de tipo e nenhuma alocação por golpe. Quem não tem a habilidade tem 0 no
+    // campo, e a conta correspondente não muda nada.
+
+    // Dano efetivo depois das habilidades defensivas do alvo (regra de aplicarDanoComHabilidade).
+    static int danoFinal(int habilidadesAlvo, int danoBruto) {
+        int reducao = Habilidades.campo(habilidadesAlvo, Habilidades.REDUCAO_DANO);
+        if (reducao == 0 || danoBruto <= 0) return danoBruto;
+        return Math.max(0, danoBruto - reducao);
+    }
+
+    // Ataque de um inimigo depois das habilidades que o enfraquecem (Grito de Guerra).
+    static int ataqueContra(int habilidadesAlvo, int ataque) {
+        int reducao = Habilidades.campo(habilidadesAlvo, Habilidades.REDUCAO_ATAQUE_INIMIGO);
+        if (reducao == 0) return ataque;
+        return Math.max(0, ataque - reducao);
+    }
+
+    // Dano de um golpe depois das habilidades ofensivas do atacante: Fúria Incontrolável cresce com a
+    // vida perdida e Rajada Arcana soma um bônus fixo quando o alvo está frágil.
+    static int danoCausado(int habilidadesAtacante, int danoBruto, int vidaAtacante, int vidaAlvo) {
+        // Um só teste na palavra poupa a conta inteira das classes que não mexem no próprio golpe.
+        if ((habilidadesAtacante & Habilidades.OFENSIVAS) == 0) return danoBruto;
+        int vidaPerdida = Math.max(0, RegrasCombate.VIDA_MAXIMA - vidaAtacante);
+        int furia = vidaPerdida * Habilidades.campo(habilidadesAtacante, Habilidades.FURIA)
+                / RegrasCombate.VIDA_POR_PONTO_DE_FURIA;
+        // Máscara em vez de if: se o alvo está frágil ou não muda a cada golpe, e o desvio erraria a previsão.
+        int fragil = (vidaAlvo - RegrasCombate.VIDA_INIMIGO_FRAGIL - 1) >> 31; // -1 se vidaAlvo <= limite, senão 0
+        int rajada = fragil & Habilidades.campo(habilidadesAtacante, Habilidades.BONUS_CONTRA_FRAGIL);
+        return danoBruto + furia + rajada;
+    }
+
+    // Se o defensor revida o golpe; enquanto o atacante tiver iniciativa (Tiro Preciso), não revida
+    // e quem chamou gasta uma rodada dela com Habilidades.gastarIniciativa.
+    static boolean revida(int habilidadesAtacante) {
+        return Habilidades.campo(habilidadesAtacante, Habilidades.RODADAS_INICIATIVA) == 0;
+    }
+
+    // Vida recuperada ao descansar (Graça Silvestre).
+    static int curaDescanso(int habilidades) {
+        return RegrasCombate.CURA_DESCANSO + Habilidades.campo(habilidades, Habilidades.BONUS_CURA_DESCANSO);
+    }
+
+    // Aplica um golpe no alvo e devolve o dano efetivo.
+    static int resolverDano(TabelaEntidades tabela, int alvo, int danoBruto) {
+        return resolverDano(tabela, alvo, tabela.habilidades(alvo), danoBruto);
+    }
+
+    private static int resolverDano(TabelaEntidades tabela, int alvo, int habilidadesAlvo, int danoBruto) {
+        int dano = danoFinal(habilidadesAlvo, danoBruto);
+        tabela.definirVida(alvo, Math.max(0, tabela.vida(alvo) - dano));
+        return dano;
+    }
+
+    // Uma rodada de combate no formato de enfrentarChefe: o atacante golpeia e,
+    // se o defensor sobreviver, ele contra-ataca. Devolve true se alguém caiu.
+    static boolean rodada(TabelaEntidades tabela, int atacante, int defensor,
+                          RandomGenerator random, RegistroCombate registro) {
+        // Os modificadores de cada lado são lidos uma vez só por rodada.
+        int habilidades = tabela.habilidades(atacante);
+        int dano = resolverDano(tabela, defensor, tabela.habilidades(defensor), danoCausado(habilidades,
+                tabela.ataque(atacante) + random.nextInt(RegrasCombate.VARIACAO_ATAQUE),
+                tabela.vida(atacante), tabela.vida(defensor)));
+        if (registro != null) registro.golpe(atacante, defensor, dano, tabela.vida(defensor));
+        if (tabela.vida(defensor) == 0) return true;
+        if (!revida(habilidades)) {
+            tabela.definirHabilidades(atacante, Habilidades.gastarIniciativa(habilidades));
+            return false;
+        }
+
+        dano = resolverDano(tabela, atacante, habilidades, ataqueContra(habilidades,
+                tabela.ataque(defensor) + random.nextInt(RegrasCombate.VARIACAO_DANO_CHEFE)));
+        if (registro != null) registro.golpe(defensor, atacante, dano, tabela.vida(atacante));
+        return tabela.vida(atacante) == 0;
+    }
+
+    // Rodadas de várias lutas de uma vez (todas as que agiram no mesmo tick), em uma passada.
+    // terminou[i] recebe o resultado de rodada() para o par i.
+    static void rodadas(TabelaEntidades tabela, int[] atacantes, int[] defensores, int quantidade,
+                        RandomGenerator random, boolean[] terminou) {
+        for (int i = 0; i < quantidade; i++) {
+            terminou[i] = rodada(tabela, atacantes[i], defensores[i], random, null);
+        }
+    }
+}
+
+// ================================================
+// Benchmarks dos caminhos quentes
+// ================================================
+
+// Microbenchmarks dos caminhos quentes, sem dependências externas (o projeto é um único arquivo
+// compilado com javac, então não há como usar JMH aqui).
+// Cada medição aquece o JIT, repete o corpo várias vezes e reporta a melhor: ns/op, bytes alocados
+// por operação (contador da própria thread) e coletas de lixo durante a medição (como o -prof gc).
+// Com uma baseline gravada, qualquer benchmark mais lento que a tolerância faz a execução falhar.
+//
+// Uso: bench [--baseline arquivo] [--gravar] [--tolerancia 0.25] [nome...]
+//   nomes aceitos: combate, dano, inventario, pocao, mapa, menu, habilidades... (sem nomes roda todos)
+class Benchmarks {
+    static final String BASELINE_PADRAO = "bench/baseline.txt";
+
+    // Resultado pequeno acumulado pelos benchmarks para o JIT não descartar o trabalho medido.
+    static long sumidouro;
+
+    // ns/op da melhor medição de cada benchmark (mediana, nos comparados em rodadas alternadas), na ordem em que rodaram.
+    private static Map<String, Double> resultados = new LinkedHashMap<>();
+    // Portões de orçamento em que o ruído da máquina passou do próprio orçamento: nem passaram nem falharam.
+    private static List<String> inconclusivos = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        String arquivoBaseline = BASELINE_PADRAO;
+        boolean gravar = false;
+        double tolerancia = 0.25;
+        Set<String> escolhidos = new HashSet<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline": arquivoBaseline = args[++i]; break;
+                case "--gravar": gravar = true; break;
+                case "--tolerancia": tolerancia = Double.parseDouble(args[++i]); break;
+                default: escolhidos.add(args[i]);
+            }
+        }
+
+        Map<String, Runnable> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("combate", Benchmarks::combate);
+        benchmarks.put("dano", Benchmarks::aplicarDano);
+        benchmarks.put("inventario", Benchmarks::inventario);
+        benchmarks.put("pocao", Benchmarks::usarPocao);
+        benchmarks.put("mapa", Benchmarks::descreverMapa);
+        benchmarks.put("rota", Benchmarks::rota);
+        benchmarks.put("menu", Benchmarks::lerOpcaoMenu);
+        benchmarks.put("entrada", Benchmarks::entrada);
+        benchmarks.put("saida", Benchmarks::saida);
+        benchmarks.put("jornada", Benchmarks::jornada);
+        benchmarks.put("diario", Benchmarks::diario);
+        benchmarks.put("definicoes", Benchmarks::definicoes);
+        benchmarks.put("eventos", Benchmarks::eventos);
+        benchmarks.put("arena", Benchmarks::arena);
+        benchmarks.put("fragmentos", Benchmarks::fragmentos);
+        benchmarks.put("chefe", Benchmarks::chefe);
+        benchmarks.put("metricas", Benchmarks::metricas);
+        benchmarks.put("memoria", Benchmarks::memoria);
+        benchmarks.put("habilidades", Benchmarks::habilidades);
+        benchmarks.put("placar", Benchmarks::placar);
+        benchmarks.put("canais", Benchmarks::canais);
+        benchmarks.put("inicio", Benchmarks::inicio);
+
+        for (Map.Entry<String, Runnable> benchmark : benchmarks.entrySet()) {
+            if (escolhidos.isEmpty() || escolhidos.contains(benchmark.getKey())) {
+                benchmark.getValue().run();
+            }
+        }
+        System.out.println("(sumidouro " + sumidouro + ")");
+
+        Path baseline = Paths.get(arquivoBaseline);
+        if (gravar) {
+            gravarBaseline(baseline);
+            System.out.println("Baseline gravada em " + baseline);
+        } else if (Files.exists(baseline) && !compararComBaseline(baseline, tolerancia)) {
+            System.exit(1);
+        }
+        if (!inconclusivos.isEmpty()) {
+            System.out.println("Inconclusivo (ruído acima do orçamento, rode de novo numa máquina mais quieta): "
+                    + String.join("; ", inconclusivos));
+            System.exit(2);
+        }
+    }
+
+    // Rodadas de combate entre pares de entidades; a vida é restaurada ao fim de cada luta
+    // para que a tabela nunca esvazie.
+    static void combate() {
+        int pares = 1024;
+        TabelaEntidades tabela = new TabelaEntidades(pares * 2);
+        PersonagemBase[] modelos = new PersonagemBase[JogoRPG.CLASSES.length];
+        for (int i = 0; i < modelos.length; i++) {
+            modelos[i] = JogoRPG.novoPersonagem(i + 1, String.valueOf((char) ('A' + i)), DefinicoesJogo.atual());
+        }
+        for (int i = 0; i < pares; i++) {
+            tabela.adicionar(modelos[i % modelos.length]);
+            tabela.adicionar(RegrasCombate.VIDA_CHEFE, RegrasCombate.DANO_CHEFE_MINIMO, 0);
+        }
+        AleatorioSessao random = new AleatorioSessao(42);
+
+        long rodadas = 20_000_000L;
+        medir("combate.rodada", rodadas, () -> {
+            long quedas = 0;
+            int par = 0;
+            for (long i = 0; i < rodadas; i++) {
+                int jogador = par * 2;
+                int inimigo = jogador + 1;
+                if (ResolvedorCombate.rodada(tabela, jogador, inimigo, random, null)) {
+                    quedas++;
+                    tabela.definirVida(jogador, RegrasCombate.VIDA_MAXIMA);
+                    tabela.definirVida(inimigo, RegrasCombate.VIDA_CHEFE);
+                }
+                if (++par == pares) par = 0;
+            }
+            sumidouro += quedas;
+        });
+
+        long resolucoes = 50_000_000L;
+        medir("combate.resolverDano", resolucoes, () -> {
+            long total = 0;
+            int alvo = 0;
+            for (long i = 0; i < resolucoes; i++) {
+                total += ResolvedorCombate.resolverDano(tabela, alvo, (int) (i & 15));
+                if (tabela.vida(alvo) == 0) tabela.definirVida(alvo, RegrasCombate.VIDA_MAXIMA);
+                if (++alvo == tabela.quantidade()) alvo = 0;
+            }
+            sumidouro += total;
+        });
+    }
+
+    // JogoRPG.aplicarDanoComHabilidade para um Cavaleiro (caminho com a habilidade ativa).
+    static void aplicarDano() {
+        JogoRPG jogo = novoJogoSemInterface(new String[0]);
+        jogo.definirJogador(JogoRPG.novoPersonagem(1, "Bench", jogo.getDefinicoes()));
+        long operacoes = 20_000_000L;
+        medir("jogo.aplicarDano", operacoes, () -> {
+            for (long i = 0; i < operacoes; i++) {
+                jogo.aplicarDanoComHabilidade((int) (i & 7));
+                jogo.aplicarDanoComHabilidade(-(int) (i & 7)); // cura de volta para não zerar
+            }
+        });
+    }
+
+    // Inventario.adicionar seguido de remover sobre um inventário já com vários itens.
+    static void inventario() {
+        Inventario<Item> inventario = new Inventario<>();
+        Item[] itens = new Item[64];
+        for (int i = 0; i < itens.length; i++) {
+            itens[i] = CatalogoItens.registrar("Item " + i);
+            inventario.adicionar(itens[i]);
+        }
+        long operacoes = 2_000_000L;
+        medir("inventario.adicionarRemover", operacoes, () -> {
+            long removidos = 0;
+            for (long i = 0; i < operacoes; i++) {
+                Item item = itens[(int) (i & 63)];
+                inventario.adicionar(item);
+                if (inventario.remover(item)) removidos++;
+            }
+            sumidouro += removidos;
+        });
+    }
+
+    // Ganha e bebe uma poção com inventários de tamanhos bem diferentes:
+    // o custo por poção deve ser o mesmo nos três.
+    static void usarPocao() {
+        for (int tamanho : new int[] {10, 1_000, 100_000}) {
+            JogoRPG jogo = novoJogoSemInterface(new String[0]);
+            jogo.definirJogador(JogoRPG.novoPersonagem(2, "Bench", jogo.getDefinicoes()));
+            for (int i = 0; i < tamanho; i++) {
+                jogo.getInventario().adicionar(CatalogoItens.registrar("Item " + i));
+            }
+            long operacoes = 2_000_000L;
+            medir("jogo.usarPocao[" + tamanho + "]", operacoes, () -> {
+                for (long i = 0; i < operacoes; i++) {
+                    jogo.getInventario().adicionar(CatalogoItens.POCAO_CURA_MENOR);
+                    jogo.usarPocao();
+                }
+            });
+        }
+    }
+
+    // Mapa.descrever() do mapa inicial e páginas de um mapa de 10 mil regiões,
+    // além da descrição de uma região (exibida a cada visita).
+    static void descreverMapa() {
+        JogoRPG jogo = novoJogoSemInterface(new String[0]);
+        Mapa mapa = jogo.getMapa();
+        long operacoes = 5_000_000L;
+        medir("mapa.descrever", operacoes, () -> {
+            long tamanho = 0;
+            for (long i = 0; i < operacoes; i++) {
+                tamanho += mapa.descrever().length();
+            }
+            sumidouro += tamanho;
+        });
+
+        Mapa grande = new Mapa();
+        for (int i = 0; i < 10_000; i++) {
+            grande.adicionarRegiao(new Regiao("Região " + i, "Gerada.", false));
+        }
+        medir("mapa.descreverPaginaUtf8", operacoes, () -> {
+            long tamanho = 0;
+            for (long i = 0; i < operacoes; i++) {
+                tamanho += grande.descreverPaginaUtf8((int) (i % grande.quantidadePaginas())).remaining();
+            }
+            sumidouro += tamanho;
+        });
+
+        Regiao regiao = new Regiao("Bosque Sussurrante", "Árvores retorcidas.", false);
+        medir("regiao.descrever", operacoes, () -> {
+            long tamanho = 0;
+            for (long i = 0; i < operacoes; i++) {
+                tamanho += regiao.descrever().length();
+            }
+            sumidouro += tamanho;
+        });
+    }
+
+    // Consultas de rota num mapa gerado de 100 mil regiões (anel + ligações aleatórias + atalhos).
+    // "cache" repete um conjunto pequeno de pares; "bfs" usa pares sempre novos.
+    static void rota() {
+        int regioes = 100_000;
+        Mapa mapa = new Mapa();
+        for (int i = 0; i < regioes; i++) {
+            mapa.adicionarRegiao(new Regiao("Região " + i, "Gerada.", false));
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < regioes; i++) {
+            mapa.conectar(i, (i + 1) % regioes);
+            if (i % 4 == 0) mapa.conectar(i, random.nextInt(regioes));
+            if (i % 64 == 0) mapa.conectarComAtalho(i, random.nextInt(regioes), CatalogoItens.FRAGMENTO_DE_MAPA);
+        }
+        Inventario<Item> comFragmento = new Inventario<>();
+        comFragmento.adicionar(CatalogoItens.FRAGMENTO_DE_MAPA);
+
+        int[] origens = new int[256];
+        int[] destinos = new int[256];
+        for (int i = 0; i < origens.length; i++) {
+            origens[i] = random.nextInt(regioes);
+            destinos[i] = random.nextInt(regioes);
+        }
+        long consultas = 2_000_000L;
+        medir("mapa.rota.cache", consultas, () -> {
+            long passos = 0;
+            for (long i = 0; i < consultas; i++) {
+                int k = (int) (i & 255);
+                int[] caminho = mapa.rota(origens[k], destinos[k], (i & 256) == 0 ? null : comFragmento);
+                passos += caminho == null ? 0 : caminho.length;
+            }
+            sumidouro += passos;
+        });
+
+        long buscas = 200L;
+        medir("mapa.rota.bfs", buscas, () -> {
+            long passos = 0;
+            for (long i = 0; i < buscas; i++) {
+                int[] caminho = mapa.rota(random.nextInt(regioes), random.nextInt(regioes), comFragmento);
+                passos += caminho == null ? 0 : caminho.length;
+            }
+            sumidouro += passos;
+        });
+    }
+
+    // lerOpcaoMenu com duas entradas inválidas (texto e fora da faixa) antes da válida.
+    static void lerOpcaoMenu() {
+        JogoRPG jogo = novoJogoSemInterface(new String[] {"abc", " 9 ", "2"});
+        long operacoes = 1_000_000L;
+        medir("jogo.lerOpcaoMenu", operacoes, () -> {
+            long soma = 0;
+            for (long i = 0; i < operacoes; i++) {
+                soma += jogo.lerOpcaoMenu(1, 4);
+            }
+            sumidouro += soma;
+        });
+    }
+
+    // Inundação de entradas inválidas (texto, vazias ou só "\n", fora da faixa, número que não cabe em int) chegando
+    // em pedaços de 7 bytes, com linhas partidas entre leituras, até uma opção válida no fim.
+    // Caminho antigo: cada linha vira String, trim, Integer.parseInt e exceções para o inválido.
+    // Caminho novo: LeitorComandos direto sobre os bytes.
+    static void entrada() {
+        String[] lixo = {"abc", "   ", "99", "-7", "atacar agora", "12345678901", "xyz1", "\r", ""};
+        List<String> linhas = new ArrayList<>();
+        for (int i = 0; i < 64; i++) linhas.addAll(Arrays.asList(lixo));
+        linhas.add(" 2 ");
+        ByteBuffer inundacao = bytesDeLinhas(linhas.toArray(new String[0]));
+        int pedaco = 7;
+        long rodadas = 2_000;
+        long operacoes = rodadas * linhas.size();
+
+        medir("entrada.parseInt[inválidas]", operacoes, () -> {
+            byte[] linha = new byte[LeitorComandos.TAMANHO_MAXIMO_LINHA];
+            ByteBuffer bytes = inundacao.duplicate();
+            long validas = 0;
+            for (long r = 0; r < rodadas; r++) {
+                int tamanho = 0;
+                for (int p = 0; p < inundacao.capacity(); p += pedaco) {
+                    bytes.limit(Math.min(p + pedaco, inundacao.capacity())).position(p);
+                    while (bytes.hasRemaining()) {
+                        byte b = bytes.get();
+                        if (b != '\n') {
+                            if (tamanho < linha.length) linha[tamanho++] = b;
+                            continue;
+                        }
+                        if (tamanho > 0 && linha[tamanho - 1] == '\r') tamanho--;
+                        String texto = new String(linha, 0, tamanho, StandardCharsets.UTF_8);
+                        tamanho = 0;
+                        try {
+                            int opcao = Integer.parseInt(texto.trim());
+                            if (opcao < 1 || opcao > 4) {
+                                throw new OpcaoInvalidaException("Opção fora do intervalo permitido.");
+                            }
+                            validas++;
+                        } catch (NumberFormatException | OpcaoInvalidaException e) {
+                            // inválida: o menu repetiria a pergunta
+                        }
+                    }
+                }
+            }
+            sumidouro += validas;
+        });
+
+        medir("entrada.leitor[inválidas]", operacoes, () -> {
+            LeitorComandos leitor = new LeitorComandos();
+            ByteBuffer bytes = inundacao.duplicate();
+            long validas = 0;
+            for (long r = 0; r < rodadas; r++) {
+                for (int p = 0; p < inundacao.capacity(); p += pedaco) {
+                    bytes.limit(Math.min(p + pedaco, inundacao.capacity())).position(p);
+                    while (leitor.consumir(bytes)) {
+                        if (leitor.tipo() == LeitorComandos.NUMERO && leitor.numero() >= 1 && leitor.numero() <= 4) validas++;
+                    }
+                }
+            }
+            sumidouro += validas;
+        });
+        System.out.printf("entrada: leitor %.1fx mais rápido que String + parseInt + exceções%n",
+                resultados.get("entrada.parseInt[inválidas]") / resultados.get("entrada.leitor[inválidas]"));
+    }
+
+    // Um turno típico do chefe (cinco linhas + prompt) escrito e descarregado num canal que só conta bytes.
+    static void saida() {
+        long[] enviados = new long[1];
+        WritableByteChannel canal = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer origem) {
+                int n = origem.remaining();
+                origem.position(origem.limit());
+                enviados[0] += n;
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SaidaBufferizada saida = new SaidaBufferizada(canal);
+        long turnos = 2_000_000L;
+        medir("saida.turnoChefe", turnos, () -> {
+            for (long i = 0; i < turnos; i++) {
+                saida.escreverLinha("Vida do chefe: 30 | Sua vida: 25");
+                saida.escreverLinha("1) Atacar");
+                saida.escreverLinha("2) Usar poção (se houver)");
+                saida.escreverLinha("3) Tentar dialogar");
+                saida.escrever("Sua escolha: ");
+                saida.descarregar();
+            }
+        });
+        sumidouro += enviados[0];
+    }
+
+    // Grava 100 mil sessões num arquivo mapeado (com force no fim) e restaura sessões avulsas.
+    static void jornada() {
+        int sessoes = 100_000;
+        EstadoSessao[] estados = new EstadoSessao[sessoes];
+        for (int i = 0; i < sessoes; i++) {
+            JogoRPG jogo = novoJogoSemInterface(new String[0]);
+            jogo.definirJogador(JogoRPG.novoPersonagem(1 + i % 6, "Jogador " + i, jogo.getDefinicoes()));
+            jogo.getInventario().adicionar(CatalogoItens.POCAO_CURA_MENOR, 1 + i % 5);
+            jogo.getInventario().adicionar(CatalogoItens.FRAGMENTO_DE_MAPA);
+            estados[i] = jogo.capturarEstado();
+        }
+        try {
+            Path arquivo = Files.createTempFile("eldoria", ".sav");
+            arquivo.toFile().deleteOnExit();
+            try (ArquivoSessoes jornadas = ArquivoSessoes.abrir(arquivo, sessoes)) {
+                medir("jornada.gravar100k", 1, () -> {
+                    for (int i = 0; i < sessoes; i++) {
+                        jornadas.gravar(i, estados[i]);
+                    }
+                    jornadas.sincronizar();
+                });
+
+                long leituras = 1_000_000L;
+                JogoRPG destino = novoJogoSemInterface(new String[0]);
+                medir("jornada.restaurar", leituras, () -> {
+                    long vida = 0;
+                    try {
+                        for (long i = 0; i < leituras; i++) {
+                            destino.restaurarEstado(jornadas.ler((int) ((i * 7919) % sessoes)));
+                            vida += destino.capturarEstado().vida;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    sumidouro += vida;
+                });
+            }
+            Files.deleteIfExists(arquivo);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Joga uma sessão longa gravando o diário e mede o replay sem interface (eventos/s).
+    // Por causa dos instantâneos, o replay cobre só o trecho depois do último deles, como num reinício real.
+    static void diario() {
+        List<String> roteiro = new ArrayList<>(Arrays.asList("Bench", "1"));
+        for (int i = 0; i < 1000; i++) {
+            roteiro.addAll(Arrays.asList("1", "1", "3", "3", "2"));
+        }
+        roteiro.add("4");
+        try {
+            Path arquivo = Files.createTempFile("eldoria", ".diario");
+            JogoRPG jogo = new JogoRPG(new EntradaRoteiro(roteiro.toArray(new String[0]), false),
+                    new SaidaNula(), new AleatorioSessao(42));
+            try (DiarioSessao diario = DiarioSessao.criar(arquivo, 42, false)) {
+                jogo.setRegistro(diario);
+                jogo.iniciar();
+            }
+            ReprodutorDiario reprodutor = ReprodutorDiario.ler(arquivo);
+            Files.deleteIfExists(arquivo);
+
+            long repeticoes = 20_000L;
+            medir("diario.replayPorEvento", repeticoes * reprodutor.quantidadeEventos(), () -> {
+                long vida = 0;
+                try {
+                    for (long i = 0; i < repeticoes; i++) {
+                        vida += reprodutor.reproduzir().vida;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                sumidouro += vida;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Carga das definições com 10 mil regiões (e conexões) e mil tipos de evento, como numa inicialização.
+    static void definicoes() {
+        String texto = dadosGerados(10_000, 1_000);
+        medir("definicoes.carregar10k", 1, () -> {
+            DefinicoesJogo definicoes = DefinicoesJogo.interpretar("(bench)", texto);
+            sumidouro += definicoes.getMapa().quantidadeRegioes() + definicoes.quantidadeEventos();
+        });
+    }
+
+    // Dados de um mundo grande: uma estrada passando por todas as regiões, um atalho (que exige o
+    // fragmento de mapa) a cada dez, e eventos alternando itens e dano, um deles dando o fragmento.
+    private static String dadosGerados(int regioes, int eventos) {
+        StringBuilder dados = new StringBuilder();
+        for (String classe : JogoRPG.CLASSES) {
+            dados.append("classe|").append(classe).append("|40|8\n");
+        }
+        for (int i = 0; i < regioes; i++) {
+            dados.append("regiao|Região ").append(i).append('|').append(i == regioes - 1)
+                    .append("|Uma região gerada para o teste de carga número ").append(i).append(".\n");
+        }
+        for (int i = 1; i < regioes; i++) {
+            dados.append("conexao|Região ").append(i - 1).append("|Região ").append(i).append('\n');
+            if (i % 10 == 0) {
+                dados.append("atalho|Região ").append(i - 10).append("|Região ").append(i).append("|Fragmento de mapa\n");
+            }
+        }
+        dados.append("evento|fragmento|item|Fragmento de mapa|Você acha um fragmento de mapa.\n");
+        for (int i = 1; i < eventos; i++) {
+            if (i % 2 == 0) {
+                dados.append("evento|e").append(i).append("|item|Item gerado ").append(i % 50).append("|Você acha algo.\n");
+            } else {
+                dados.append("evento|e").append(i).append("|dano|").append(i % 7).append("|4|Algo o fere!\n");
+            }
+        }
+        return dados.toString();
+    }
+
+    // Passos (explorar + andar) de 10 mil viajantes em um mundo de mil regiões repartido em
+    // 1, 2, 4... fragmentos. Mostra o ganho sobre um fragmento e a eficiência por núcleo disponível.
+    // Só a thread que mede entra no B/op; as alocações dos fragmentos não aparecem ali.
+    static void fragmentos() {
+        DefinicoesJogo definicoes = DefinicoesJogo.interpretar("(bench)", dadosGerados(1_000, 100));
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        int viajantes = 10_000;
+        int passos = 100;
+        long total = (long) viajantes * passos;
+
+        List<Integer> quantidades = new ArrayList<>();
+        for (int f = 1; f <= Math.max(4, nucleos); f *= 2) quantidades.add(f);
+        for (int fragmentos : quantidades) {
+            medir("fragmentos.passo[" + fragmentos + "]", total, () -> {
+                MundoFragmentado mundo = new MundoFragmentado(definicoes, fragmentos);
+                mundo.iniciar();
+                for (int i = 0; i < viajantes; i++) {
+                    PersonagemBase jogador = JogoRPG.novoPersonagem(1 + i % JogoRPG.CLASSES.length, "V" + i, definicoes);
+                    mundo.entrar(new MundoFragmentado.Viajante(jogador, new AleatorioSessao(i), i % 1_000, passos));
+                }
+                try {
+                    mundo.aguardarConcluidos(viajantes);
+                    mundo.encerrar();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                sumidouro += mundo.totalTransferencias();
+                if (mundo.totalPassos() != total) {
+                    throw new IllegalStateException("Passos perdidos: " + mundo.totalPassos() + " de " + total);
+                }
+            });
+        }
+
+        double base = resultados.get("fragmentos.passo[1]");
+        for (int fragmentos : quantidades) {
+            double ganho = base / resultados.get("fragmentos.passo[" + fragmentos + "]");
+            System.out.printf("fragmentos %d: ganho %.2fx, eficiência %.0f%% (%d núcleo(s) disponível(is))%n",
+                    fragmentos, ganho, 100 * ganho / Math.min(fragmentos, nucleos), nucleos);
+        }
+    }
+
+    // Sorteio na tabela alias com 5 e com 500 eventos (o custo não deve crescer com o tamanho)
+    // e teste qui-quadrado de que as frequências sorteadas seguem os pesos.
+    static void eventos() {
+        int[] raridades = {TabelaEventos.PESO_COMUM, TabelaEventos.PESO_INCOMUM, TabelaEventos.PESO_RARO, TabelaEventos.PESO_LENDARIO};
+        TabelaEventos pequena = tabelaDeTeste(5, raridades);
+        TabelaEventos grande = tabelaDeTeste(500, raridades);
+        AleatorioSessao random = new AleatorioSessao(42);
+
+        long sorteios = 50_000_000L;
+        for (TabelaEventos tabela : new TabelaEventos[]{pequena, grande}) {
+            medir("eventos.sortear" + tabela.quantidade(), sorteios, () -> {
+                long soma = 0;
+                int limite = tabela.limiteSorteio();
+                for (long i = 0; i < sorteios; i++) {
+                    soma += tabela.escolher(random.nextInt(limite));
+                }
+                sumidouro += soma;
+            });
+        }
+
+        int amostras = 5_000_000;
+        long[] observados = new long[grande.quantidade()];
+        for (int i = 0; i < amostras; i++) {
+            observados[grande.escolher(random.nextInt(grande.limiteSorteio()))]++;
+        }
+        long pesoTotal = 0;
+        for (int i = 0; i < observados.length; i++) pesoTotal += raridades[i % raridades.length];
+        double quiQuadrado = 0;
+        for (int i = 0; i < observados.length; i++) {
+            double esperado = (double) amostras * raridades[i % raridades.length] / pesoTotal;
+            double diferenca = observados[i] - esperado;
+            quiQuadrado += diferenca * diferenca / esperado;
+        }
+        // Valor crítico a 0,1% pela aproximação de Wilson-Hilferty.
+        int graus = observados.length - 1;
+        double termo = 2.0 / (9 * graus);
+        double critico = graus * Math.pow(1 - termo + 3.09 * Math.sqrt(termo), 3);
+        System.out.printf("eventos.quiQuadrado %.1f (crítico %.1f com %d graus de liberdade)%n", quiQuadrado, critico, graus);
+        if (quiQuadrado > critico) {
+            throw new IllegalStateException("Frequências sorteadas não seguem os pesos da tabela de eventos");
+        }
+    }
+
+    // Um tick da arena com 5 mil sessões simuladas, todas atacando a cada tick (quem termina uma luta
+    // abre outra no tick seguinte): caixas de entrada, rodadas em lote, efeitos e desfechos.
+    static void arena() {
+        int quantidade = 5_000;
+        MundoTicks mundo = new MundoTicks(100, new AleatorioSessao(42));
+        MundoTicks.Sessao[] sessoes = new MundoTicks.Sessao[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            sessoes[i] = new MundoTicks.Sessao(null);
+            mundo.entrar(sessoes[i]);
+            sessoes[i].receber(bytesDeLinhas("Bot" + i, String.valueOf(1 + i % JogoRPG.CLASSES.length)));
+        }
+        mundo.tick();
+        verificarRajadaDeLinhasVazias();
+
+        long ticks = 2_000;
+        ByteBuffer ataque = bytesDeLinhas("1");
+        medir("arena.tick[" + quantidade + " sessões]", ticks, () -> {
+            for (long t = 0; t < ticks; t++) {
+                for (MundoTicks.Sessao sessao : sessoes) {
+                    sessao.receber(ataque.clear());
+                }
+                mundo.tick();
+            }
+            sumidouro += mundo.lutasAtivas();
+        });
+        long vitorias = 0;
+        for (MundoTicks.Sessao sessao : sessoes) vitorias += sessao.getVitorias();
+        System.out.println("arena: " + mundo.lutasAtivas() + " lutas ativas, " + vitorias + " vitórias no total");
+    }
+
+    // Uma rajada de "\n" sozinhos entre dois ticks: cada linha vazia gasta um byte do anel, e as que não
+    // cabem têm de ser descartadas, não gravadas por cima das que o mundo ainda não leu.
+    private static void verificarRajadaDeLinhasVazias() {
+        MundoTicks.Sessao sessao = new MundoTicks.Sessao(null);
+        ByteBuffer rajada = ByteBuffer.allocate(4 * MundoTicks.Sessao.CAPACIDADE_ENTRADA);
+        while (rajada.hasRemaining()) rajada.put((byte) '\n');
+        sessao.receber(rajada.flip());
+        LeitorComandos leitor = new LeitorComandos();
+        int lidas = 0;
+        while (sessao.proximoComando(leitor)) {
+            if (leitor.tipo() != LeitorComandos.VAZIA) {
+                throw new IllegalStateException("Linha vazia lida como " + leitor.tipo() + " depois da rajada");
+            }
+            lidas++;
+        }
+        if (lidas > MundoTicks.Sessao.CAPACIDADE_ENTRADA) {
+            throw new IllegalStateException("Rajada de linhas vazias estourou o anel: " + lidas + " linhas lidas");
+        }
+        sessao.receber(bytesDeLinhas("1"));
+        if (!sessao.proximoComando(leitor) || leitor.tipo() != LeitorComandos.NUMERO || leitor.numero() != 1) {
+            throw new IllegalStateException("Anel corrompido depois da rajada de linhas vazias");
+        }
+    }
+
+    // Teste de estresse do chefe compartilhado. Primeiro, várias threads golpeiam um chefe que não cai
+    // e a vida perdida tem de bater com a soma dos golpes (nenhuma atualização perdida), a mais de
+    // 100 mil golpes/s. Depois, muitos chefes pequenos são derrubados ao mesmo tempo: cada um precisa
+    // de exatamente um autor do golpe final e o espólio só pode ser entregue uma vez por participante.
+    static void chefe() {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int golpesPorThread = 500_000;
+        long total = (long) threads * golpesPorThread;
+        medir("chefe.golpe[" + threads + " threads]", total, () -> {
+            ChefeCompartilhado chefe = new ChefeCompartilhado(Integer.MAX_VALUE);
+            ChefeCompartilhado.Participante[] participantes = new ChefeCompartilhado.Participante[threads];
+            long[] enviados = new long[threads];
+            rodarEmThreads(threads, t -> {
+                ChefeCompartilhado.Participante participante = chefe.entrar();
+                participantes[t] = participante;
+                for (int i = 0; i < golpesPorThread; i++) {
+                    int dano = 1 + (i & 7);
+                    chefe.golpear(participante, dano);
+                    enviados[t] += dano;
+                }
+            });
+            long somaEnviada = 0;
+            long somaRegistrada = 0;
+            for (int t = 0; t < threads; t++) {
+                somaEnviada += enviados[t];
+                somaRegistrada += participantes[t].getDano();
+            }
+            long perdida = (long) Integer.MAX_VALUE - chefe.getVida();
+            if (perdida != somaEnviada || somaRegistrada != somaEnviada) {
+                throw new IllegalStateException("Golpes perdidos: enviados " + somaEnviada
+                        + ", vida perdida " + perdida + ", registrados " + somaRegistrada);
+            }
+            sumidouro += perdida;
+        });
+        double golpesPorSegundo = 1e9 / resultados.get("chefe.golpe[" + threads + " threads]");
+        System.out.printf("chefe: %.1f milhões de golpes/s sem perdas (meta: 100 mil/s)%n", golpesPorSegundo / 1e6);
+        if (golpesPorSegundo < 100_000) {
+            throw new IllegalStateException("O chefe compartilhado não sustenta 100 mil golpes/s");
+        }
+
+        int chefes = 20_000;
+        ChefeCompartilhado[] raide = new ChefeCompartilhado[chefes];
+        for (int c = 0; c < chefes; c++) raide[c] = new ChefeCompartilhado(RegrasCombate.VIDA_CHEFE);
+        ChefeCompartilhado.Participante[][] participantes = new ChefeCompartilhado.Participante[threads][chefes];
+        int[][] itens = new int[threads][chefes];
+        rodarEmThreads(threads, t -> {
+            Inventario<Item> inventario = new Inventario<>();
+            for (int c = 0; c < chefes; c++) participantes[t][c] = raide[c].entrar();
+            // Cada thread golpeia todos os chefes em rodízio até que todos caiam.
+            boolean restam = true;
+            while (restam) {
+                restam = false;
+                for (int c = 0; c < chefes; c++) {
+                    if (raide[c].derrotado()) continue;
+                    raide[c].golpear(participantes[t][c], 1 + ((c + t) & 3));
+                    restam = true;
+                }
+            }
+            for (int c = 0; c < chefes; c++) {
+                itens[t][c] = raide[c].reivindicarEspolio(participantes[t][c], inventario);
+                itens[t][c] += raide[c].reivindicarEspolio(participantes[t][c], inventario); // a segunda não entrega nada
+            }
+        });
+        for (int c = 0; c < chefes; c++) {
+            int autores = 0;
+            int dano = 0;
+            for (int t = 0; t < threads; t++) {
+                if (participantes[t][c].derrubou()) autores++;
+                dano += participantes[t][c].getDano();
+                int esperado = participantes[t][c].getDano() == 0 ? 0
+                        : Math.max(1, participantes[t][c].getDano() / ChefeCompartilhado.DANO_POR_POCAO)
+                        + (participantes[t][c].derrubou() ? 1 : 0);
+                if (itens[t][c] != esperado) {
+                    throw new IllegalStateException("Espólio errado no chefe " + c + ": " + itens[t][c] + " em vez de " + esperado);
+                }
+            }
+            if (autores != 1 || dano != RegrasCombate.VIDA_CHEFE) {
+                throw new IllegalStateException("Chefe " + c + ": " + autores + " golpes finais, dano total " + dano);
+            }
+        }
+        System.out.println("chefe: " + chefes + " chefes derrubados por " + threads
+                + " threads, um golpe final e um espólio por participante em cada");
+    }
+
+    // Custo das métricas no combate interativo: lutas completas contra o chefe (menus, golpes,
+    // contadores, histogramas) com as métricas desligadas e ligadas, em rodadas alternadas. O acréscimo
+    // com elas ligadas (mediana das rodadas) precisa ficar abaixo de 2%.
+    static void metricas() {
+        JogoRPG jogo = novoJogoSemInterface(new String[] {"1"});
+        Regiao fortaleza;
+        try {
+            fortaleza = jogo.getMapa().getRegiao(jogo.getMapa().indiceDoChefe());
+        } catch (OpcaoInvalidaException e) {
+            throw new IllegalStateException(e);
+        }
+        long lutas = 200_000L;
+        Runnable corpo = () -> {
+            long vitorias = 0;
+            for (long i = 0; i < lutas; i++) {
+                jogo.definirJogador(JogoRPG.novoPersonagem(4, "Bench", jogo.getDefinicoes()));
+                if (jogo.enfrentarChefe(fortaleza)) vitorias++;
+            }
+            sumidouro += vitorias;
+        };
+
+        boolean estavamLigadas = Metricas.ligadas;
+        double[] comparacao;
+        try {
+            comparacao = compararAlternado(new String[] {"metricas.luta[desligadas]", "metricas.luta[ligadas]"}, lutas,
+                    () -> { Metricas.ligadas = false; corpo.run(); },
+                    () -> { Metricas.ligadas = true; corpo.run(); });
+        } finally {
+            Metricas.ligadas = estavamLigadas;
+        }
+        double acrescimo = comparacao[0];
+        double ruido = comparacao[1];
+        HistogramaLatencia menu = Metricas.latencia(Metricas.MENU);
+        System.out.printf("metricas: acréscimo de %.2f%% por luta (ruído entre rodadas %.2f%%); lerOpcaoMenu p50 = %d ns, p99 = %d ns (%d amostras, 1 a cada %d)%n",
+                100 * acrescimo, 100 * ruido, menu.percentil(0.5), menu.percentil(0.99), menu.quantidade(), Metricas.AMOSTRAGEM);
+        verificarOrcamento("metricas", comparacao, 0.02, "Métricas custam mais de 2% no combate");
+    }
+
+    // Rodadas de ResolvedorCombate.rodada para 64 lutas ao mesmo tempo, personagens das seis classes misturados
+    // contra o chefe, como na arena. Três versões da mesma rodada, com a mesma semente:
+    //   escudo: a rodada de antes do pipeline, em que a única habilidade com efeito era o Escudo de Fé,
+    //           checado com instanceof no personagem a cada golpe;
+    //   cadeia: as mesmas seis habilidades do pipeline escritas do jeito antigo, com instanceof a cada golpe;
+    //   pipeline: as seis habilidades pela palavra de Habilidades, que é o que o jogo usa.
+    // O despacho é comparado com a cadeia, que faz exatamente as mesmas contas: falha se o pipeline custar
+    // mais de 3% por rodada que ela (mediana das rodadas) ou se os dois não derrubarem as mesmas lutas. A diferença para
+    // o escudo é impressa: é o custo dos efeitos novos (fúria, rajada), não de descobrir quem os tem.
+    static void habilidades() {
+        DefinicoesJogo definicoes = DefinicoesJogo.atual();
+        int lutas = 64;
+        PersonagemBase[] personagens = new PersonagemBase[lutas];
+        TabelaEntidades tabela = new TabelaEntidades(2 * lutas);
+        for (int i = 0; i < lutas; i++) {
+            personagens[i] = JogoRPG.novoPersonagem(1 + i % JogoRPG.CLASSES.length, "Bench", definicoes);
+            tabela.adicionar(personagens[i]);
+            tabela.adicionar(RegrasCombate.VIDA_CHEFE, RegrasCombate.DANO_CHEFE_MINIMO, 0);
+        }
+        int[] rodadasFeitas = new int[lutas]; // iniciativa do Arqueiro na cadeia de instanceof
+        long rodadas = 5_000_000L;
+        long[] quedas = new long[3];
+
+        Runnable escudo = () -> {
+            recomecarLutas(tabela, personagens, rodadasFeitas);
+            SplittableRandom random = new SplittableRandom(42);
+            long n = 0;
+            for (long r = 0; r < rodadas; r++) {
+                int luta = (int) (r & (lutas - 1));
+                if (rodadaComEscudo(tabela, personagens[luta], 2 * luta, 2 * luta + 1, random)) {
+                    recomecarLuta(tabela, personagens, rodadasFeitas, luta);
+                    n++;
+                }
+            }
+            quedas[0] = n;
+        };
+        Runnable cadeia = () -> {
+            recomecarLutas(tabela, personagens, rodadasFeitas);
+            SplittableRandom random = new SplittableRandom(42);
+            long n = 0;
+            for (long r = 0; r < rodadas; r++) {
+                int luta = (int) (r & (lutas - 1));
+                if (rodadaComCadeia(tabela, personagens[luta], rodadasFeitas, luta, random)) {
+                    recomecarLuta(tabela, personagens, rodadasFeitas, luta);
+                    n++;
+                }
+            }
+            quedas[1] = n;
+        };
+        Runnable pipeline = () -> {
+            recomecarLutas(tabela, personagens, rodadasFeitas);
+            SplittableRandom random = new SplittableRandom(42);
+            long n = 0;
+            for (long r = 0; r < rodadas; r++) {
+                int luta = (int) (r & (lutas - 1));
+                if (ResolvedorCombate.rodada(tabela, 2 * luta, 2 * luta + 1, random, null)) {
+                    recomecarLuta(tabela, personagens, rodadasFeitas, luta);
+                    n++;
+                }
+            }
+            quedas[2] = n;
+        };
+
+        medir("habilidades.rodada[escudo]", rodadas, escudo);
+        double[] comparacao = compararAlternado(new String[] {"habilidades.rodada[cadeia]", "habilidades.rodada[pipeline]"},
+                rodadas, cadeia, pipeline);
+        sumidouro += quedas[0] + quedas[1] + quedas[2];
+        double sobreEscudo = resultados.get("habilidades.rodada[pipeline]") / resultados.get("habilidades.rodada[escudo]") - 1;
+        System.out.printf("habilidades: pipeline %+.2f%% por rodada em relação à cadeia de instanceof (ruído entre rodadas %.2f%%); "
+                + "seis habilidades %+.2f%% em relação à rodada só com o Escudo de Fé%n",
+                100 * comparacao[0], 100 * comparacao[1], 100 * sobreEscudo);
+        if (quedas[1] != quedas[2]) {
+            throw new IllegalStateException("Pipeline e cadeia de instanceof divergem: " + quedas[2] + " x " + quedas[1] + " quedas");
+        }
+        verificarOrcamento("habilidades", comparacao, 0.03,
+                "Pipeline de habilidades custa mais de 3% por rodada que a cadeia de instanceof");
+    }
+
+    // ResolvedorCombate.rodada como era antes do pipeline: o ataque é o base + rolagem e o único modificador
+    // é o Escudo de Fé, descoberto por instanceof a cada golpe recebido.
+    private static boolean rodadaComEscudo(TabelaEntidades tabela, PersonagemBase personagem, int atacante,
+                                           int defensor, RandomGenerator random) {
+        int dano = tabela.ataque(atacante) + random.nextInt(RegrasCombate.VARIACAO_ATAQUE);
+        tabela.definirVida(defensor, Math.max(0, tabela.vida(defensor) - dano));
+        if (tabela.vida(defensor) == 0) return true;
+
+        dano = tabela.ataque(defensor) + random.nextInt(RegrasCombate.VARIACAO_DANO_CHEFE);
+        if (personagem instanceof Cavaleiro && dano > 0) {
+            dano = Math.max(0, dano - RegrasCombate.REDUCAO_ESCUDO_DE_FE);
+        }
+        tabela.definirVida(atacante, Math.max(0, tabela.vida(atacante) - dano));
+        return tabela.vida(atacante) == 0;
+    }
+
+    // As mesmas regras de ResolvedorCombate.rodada, mas decididas por instanceof a cada golpe.
+    private static boolean rodadaComCadeia(TabelaEntidades tabela, PersonagemBase personagem, int[] rodadasFeitas,
+                                           int luta, RandomGenerator random) {
+        int atacante = 2 * luta;
+        int defensor = 2 * luta + 1;
+        int dano = tabela.ataque(atacante) + random.nextInt(RegrasCombate.VARIACAO_ATAQUE);
+        if (personagem instanceof Berserk) {
+            dano += Math.max(0, RegrasCombate.VIDA_MAXIMA - tabela.vida(atacante)) / RegrasCombate.VIDA_POR_PONTO_DE_FURIA;
+        } else if (personagem instanceof Mago && tabela.vida(defensor) <= RegrasCombate.VIDA_INIMIGO_FRAGIL) {
+            dano += RegrasCombate.BONUS_RAJADA_ARCANA;
+        }
+        tabela.definirVida(defensor, Math.max(0, tabela.vida(defensor) - dano));
+        if (tabela.vida(defensor) == 0) return true;
+        if (personagem instanceof Arqueiro && rodadasFeitas[luta]++ < RegrasCombate.RODADAS_TIRO_PRECISO) return false;
+
+        dano = tabela.ataque(defensor) + random.nextInt(RegrasCombate.VARIACAO_DANO_CHEFE);
+        if (personagem instanceof Viking) {
+            dano = Math.max(0, dano - RegrasCombate.REDUCAO_GRITO_DE_GUERRA);
+        } else if (personagem instanceof Cavaleiro && dano > 0) {
+            dano = Math.max(0, dano - RegrasCombate.REDUCAO_ESCUDO_DE_FE);
+        }
+        tabela.definirVida(atacante, Math.max(0, tabela.vida(atacante) - dano));
+        return tabela.vida(atacante) == 0;
+    }
+
+    private static void recomecarLuta(TabelaEntidades tabela, PersonagemBase[] personagens, int[] rodadasFeitas, int luta) {
+        PersonagemBase personagem = personagens[luta];
+        tabela.redefinir(2 * luta, personagem.getVida(), personagem.getAtaqueBase(), Habilidades.daClasse(personagem));
+        tabela.redefinir(2 * luta + 1, RegrasCombate.VIDA_CHEFE, RegrasCombate.DANO_CHEFE_MINIMO, 0);
+        rodadasFeitas[luta] = 0;
+    }
+
+    private static void recomecarLutas(TabelaEntidades tabela, PersonagemBase[] personagens, int[] rodadasFeitas) {
+        for (int luta = 0; luta < personagens.length; luta++) {
+            recomecarLuta(tabela, personagens, rodadasFeitas, luta);
+        }
+    }
+
+    // Placar do servidor: inserções numa thread, consultas de posição, e depois escritores em todas as
+    // threads com um leitor medindo a latência de cada consulta (posição do jogador + top 10 da classe).
+    // Metas: 50 mil jornadas/s com o leitor ativo e p99 da consulta abaixo de 1 ms. No fim, o placar
+    // gravado e recarregado precisa responder igual.
+    static void placar() {
+        String[] nomes = new String[10_000];
+        for (int i = 0; i < nomes.length; i++) nomes[i] = "Herói " + i;
+
+        long insercoes = 1_000_000L;
+        medir("placar.registrar", insercoes, () -> {
+            Placar placar = new Placar();
+            registrarJornadas(placar, nomes, 0, insercoes);
+            sumidouro += placar.totalJornadas();
+        });
+
+        Placar cheio = new Placar();
+        registrarJornadas(cheio, nomes, 0, insercoes);
+        long consultas = 5_000_000L;
+        medir("placar.posicao", consultas, () -> {
+            long soma = 0;
+            for (long i = 0; i < consultas; i++) {
+                soma += cheio.posicao((int) (i % 7), (int) (i * 0x9E3779B9L >>> 20) & Placar.MAXIMO_PONTOS);
+            }
+            sumidouro += soma;
+        });
+
+        int escritores = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long porEscritor = 500_000L;
+        Placar placar = new Placar();
+        HistogramaLatencia latencias = new HistogramaLatencia();
+        AtomicInteger ativos = new AtomicInteger(escritores);
+        long inicio = System.nanoTime();
+        rodarEmThreads(escritores + 1, t -> {
+            if (t < escritores) {
+                registrarJornadas(placar, nomes, t, porEscritor);
+                ativos.decrementAndGet();
+                return;
+            }
+            for (int i = 0; ativos.get() > 0; i++) {
+                long antes = System.nanoTime();
+                long posicao = placar.posicaoDoJogador(nomes[i % nomes.length]);
+                List<Placar.Jornada> melhores = placar.melhores(1 + i % JogoRPG.CLASSES.length, 10);
+                latencias.registrar(System.nanoTime() - antes);
+                sumidouro += posicao + melhores.size();
+            }
+        });
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        long total = escritores * porEscritor;
+        double porSegundo = total / segundos;
+        long p99 = latencias.percentil(0.99);
+        System.out.printf("placar: %.0f mil jornadas/s em %d threads; consulta p50 = %d ns, p99 = %d ns, p99,9 = %d ns"
+                        + " (%d consultas; metas: 50 mil/s e p99 < 1 ms)%n",
+                porSegundo / 1e3, escritores, latencias.percentil(0.5), p99,
+                latencias.percentil(0.999), latencias.quantidade());
+        if (porSegundo < 50_000) throw new IllegalStateException("O placar não absorve 50 mil jornadas/s");
+        if (p99 > 1_000_000) throw new IllegalStateException("Consulta ao placar com p99 acima de 1 ms");
+
+        long somaClasses = 0;
+        for (int classe = 1; classe <= JogoRPG.CLASSES.length; classe++) somaClasses += placar.quantidade(classe);
+        if (placar.totalJornadas() != total || somaClasses != total) {
+            throw new IllegalStateException("Jornadas perdidas: " + total + " registradas, placar com "
+                    + placar.totalJornadas() + " (soma das classes " + somaClasses + ")");
+        }
+        for (int linha = 0; linha <= JogoRPG.CLASSES.length; linha++) {
+            List<Placar.Jornada> melhores = placar.melhores(linha, Placar.GUARDADAS);
+            for (int i = 0; i < melhores.size(); i++) {
+                if (placar.posicao(linha, melhores.get(i).getPontos()) > i + 1) {
+                    throw new IllegalStateException("Top da linha " + linha + " fora de ordem na posição " + (i + 1));
+                }
+            }
+            if (melhores.size() != Placar.GUARDADAS) {
+                throw new IllegalStateException("Linha " + linha + " guardou " + melhores.size() + " jornadas");
+            }
+        }
+
+        try {
+            Path arquivo = Files.createTempFile("placar", ".dat");
+            try {
+                placar.gravar(arquivo);
+                Placar recarregado = Placar.carregar(arquivo);
+                for (int linha = 0; linha <= JogoRPG.CLASSES.length; linha++) {
+                    if (recarregado.quantidade(linha) != placar.quantidade(linha)
+                            || !mesmasJornadas(recarregado.melhores(linha, Placar.GUARDADAS), placar.melhores(linha, Placar.GUARDADAS))) {
+                        throw new IllegalStateException("Placar recarregado diferente na linha " + linha);
+                    }
+                    for (int pontos = 0; pontos <= Placar.MAXIMO_PONTOS; pontos += 97) {
+                        if (recarregado.posicao(linha, pontos) != placar.posicao(linha, pontos)) {
+                            throw new IllegalStateException("Posição recarregada diferente: linha " + linha + ", " + pontos + " pontos");
+                        }
+                    }
+                }
+                for (String nome : nomes) {
+                    if (recarregado.posicaoDoJogador(nome) != placar.posicaoDoJogador(nome)) {
+                        throw new IllegalStateException("Posição recarregada diferente para " + nome);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(arquivo);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        System.out.println("placar: " + total + " jornadas contadas, tops ordenados, gravado e recarregado igual");
     }
 
-    // Loop principal do RPG: exibe opções, processa ações e verifica vitória/derrota.
-    private void loopPrincipal() {
-        boolean vivo = true;
-        boolean chefeDerrotado = false;
+    // Mesma ordem e mesmas jornadas (a ordem do placar desempata pela sequência, que é única).
+    private static boolean mesmasJornadas(List<Placar.Jornada> a, List<Placar.Jornada> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).compareTo(b.get(i)) != 0 || !a.get(i).getNome().equals(b.get(i).getNome())) return false;
+        }
+        return true;
+    }
 
-        System.out.println("\nO mundo que você deve salvar:");
-        System.out.println(mapa.descrever());
+    // Jornadas variadas e reproduzíveis (a semente separa as threads): metade morre, um quarto vence.
+    private static void registrarJornadas(Placar placar, String[] nomes, long semente, long quantidade) {
+        long x = semente * 0x9E3779B97F4A7C15L + 1;
+        for (long i = 0; i < quantidade; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            int bits = (int) x;
+            int desfecho = (bits & 3) == 0 ? Placar.VITORIA : (bits & 2) == 0 ? Placar.DESISTENCIA : Placar.MORTE;
+            int vida = desfecho == Placar.MORTE ? 0 : 1 + (bits >>> 2 & 31);
+            placar.registrar(nomes[(int) ((x >>> 33) % nomes.length)], 1 + (int) ((x >>> 40) % JogoRPG.CLASSES.length),
+                    desfecho, 5 + (bits >>> 7 & 63), bits >>> 13 & 511, vida, bits >>> 22 & 1023);
+        }
+    }
 
-        while (vivo && !chefeDerrotado) {
-            System.out.println("\nO que deseja fazer, " + jogador.getNome() + "?");
-            System.out.println("1) Explorar uma região");
-            System.out.println("2) Ver inventário");
-            System.out.println("3) Descansar");
-            System.out.println("4) Desistir da jornada");
+    // Canais por região: uma mensagem para 5 mil jogadores da mesma região, da publicação até a escrita
+    // de cada um no socket (canal de mentira), com a saída real das sessões. Meta: menos de 5 ms por mensagem.
+    // Depois, um cliente que nunca lê: a caixa dele não passa da capacidade e o excedente vira um aviso.
+    static void canais() {
+        int jogadores = 5_000;
+        long[] escritos = new long[1];
+        GatheringByteChannel canal = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] origens, int inicio, int quantos) {
+                long n = 0;
+                for (int i = inicio; i < inicio + quantos; i++) n += write(origens[i]);
+                return n;
+            }
 
-            int opcao = lerOpcaoMenu(1, 4);
+            @Override
+            public long write(ByteBuffer[] origens) {
+                return write(origens, 0, origens.length);
+            }
 
-            switch (opcao) {
-                case 1:
-                    chefeDerrotado = explorarRegiao();
-                    break;
-                case 2:
-                    mostrarInventario();
-                    break;
-                case 3:
-                    descansar();
-                    break;
-                case 4:
-                    System.out.println("Você decide abandonar a missão. O culto avança impune...");
-                    vivo = false;
-                    break;
+            @Override
+            public int write(ByteBuffer origem) {
+                int n = origem.remaining();
+                origem.position(origem.limit());
+                escritos[0] += n;
+                return n;
             }
 
-            if (jogador.getVida() <= 0) {
-                vivo = false;
-                System.out.println("\nVocê cai de joelhos. A escuridão toma Eldoria.");
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
             }
+        };
+        CanaisRegiao canais = new CanaisRegiao();
+        SaidaBufferizada[] saidas = new SaidaBufferizada[jogadores];
+        for (int i = 0; i < jogadores; i++) {
+            CanaisRegiao.Inscricao inscricao = canais.novaInscricao();
+            inscricao.mudarPara(0);
+            saidas[i] = new SaidaBufferizada(canal, inscricao);
         }
+        CanaisRegiao.Inscricao autor = canais.novaInscricao();
+        autor.mudarPara(0);
+        String texto = "* Herói golpeia o líder do culto: 12 de dano.";
+        long tamanho = (texto + "\n").getBytes(StandardCharsets.UTF_8).length;
 
-        if (chefeDerrotado) {
-            System.out.println("\nCom o líder do culto derrotado, a chama vazia se apaga e Eldoria pode, enfim, reconstruir-se.");
+        long mensagens = 200;
+        String nome = "canais.mensagem[" + jogadores + " jogadores]";
+        medir(nome, mensagens, () -> {
+            for (long m = 0; m < mensagens; m++) {
+                escritos[0] = 0;
+                if (autor.publicar(texto) != jogadores) throw new IllegalStateException("Mensagem recusada por alguma caixa");
+                for (SaidaBufferizada saida : saidas) saida.descarregar();
+                if (escritos[0] != jogadores * tamanho) {
+                    throw new IllegalStateException("Entregues " + escritos[0] + " bytes em vez de " + jogadores * tamanho);
+                }
+            }
+        });
+        double ms = resultados.get(nome) / 1e6;
+        System.out.printf("canais: uma mensagem entregue a %d jogadores em %.3f ms (%.0f ns por jogador; meta: 5 ms)%n",
+                jogadores, ms, resultados.get(nome) / jogadores);
+        if (ms >= 5) throw new IllegalStateException("Mensagem da região leva 5 ms ou mais para chegar a todos");
+
+        CanaisRegiao.Inscricao parado = canais.novaInscricao();
+        parado.mudarPara(1);
+        CanaisRegiao.Inscricao falante = canais.novaInscricao();
+        falante.mudarPara(1);
+        int enviadas = 10 * CanaisRegiao.CAPACIDADE_CAIXA;
+        int aceitas = 0;
+        for (int i = 0; i < enviadas; i++) aceitas += falante.publicar("Falante diz: " + i);
+        ByteBuffer[] lote = new ByteBuffer[CanaisRegiao.CAPACIDADE_CAIXA + 1];
+        int retiradas = parado.retirar(lote);
+        String aviso = StandardCharsets.UTF_8.decode(lote[0]).toString();
+        if (aceitas != CanaisRegiao.CAPACIDADE_CAIXA || retiradas != CanaisRegiao.CAPACIDADE_CAIXA + 1
+                || !aviso.startsWith("(" + (enviadas - aceitas) + " ")) {
+            throw new IllegalStateException("Caixa cheia: " + aceitas + " aceitas, " + retiradas + " retiradas, aviso " + aviso);
+        }
+        if (falante.publicar("Falante diz: de novo") != 1) throw new IllegalStateException("Caixa não voltou a aceitar");
+        System.out.println("canais: cliente parado recebeu " + aceitas + " de " + enviadas
+                + " mensagens e um aviso com as descartadas");
+
+        // Com entregador (como no servidor), quem está parado no prompt recebe sem descarregar a saída.
+        AtomicLong entregues = new AtomicLong();
+        GatheringByteChannel socketOuvinte = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] origens, int inicio, int quantos) {
+                long n = 0;
+                for (int i = inicio; i < inicio + quantos; i++) n += write(origens[i]);
+                return n;
+            }
+
+            @Override
+            public long write(ByteBuffer[] origens) {
+                return write(origens, 0, origens.length);
+            }
+
+            @Override
+            public int write(ByteBuffer origem) {
+                int n = origem.remaining();
+                origem.position(origem.limit());
+                entregues.addAndGet(n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CanaisRegiao.Inscricao ouvinte = canais.novaInscricao();
+        ouvinte.mudarPara(2);
+        ouvinte.entregarEm(new SaidaBufferizada(socketOuvinte, ouvinte));
+        falante.mudarPara(2);
+        long inicioEntrega = System.nanoTime();
+        falante.publicar(texto);
+        while (entregues.get() < tamanho && System.nanoTime() - inicioEntrega < 1_000_000_000L) {
+            LockSupport.parkNanos(10_000);
+        }
+        long esperaEntrega = System.nanoTime() - inicioEntrega;
+        ouvinte.sair();
+        if (entregues.get() != tamanho) {
+            throw new IllegalStateException("Cliente parado no prompt recebeu " + entregues.get() + " de " + tamanho + " bytes");
         }
+        System.out.println("canais: cliente parado no prompt recebeu a mensagem sem digitar, em " + esperaEntrega + " ns");
     }
 
-    // [5] Tratamento de exceções (0,5 pt):
-    // lê a opção do usuário com validação numérica e de faixa,
-    // usando NumberFormatException e a exceção customizada OpcaoInvalidaException.
-    private int lerOpcaoMenu(int min, int max) {
-        int opcao = -1;
-        boolean opcaoValida = false;
-
-        while (!opcaoValida) {
-            System.out.print("Sua escolha: ");
+    // Partida do servidor em JVMs novas, como num deploy: tempo até o primeiro prompt (conectando assim
+    // que a porta abre) e até o pico de sessões por segundo, jogando sessões roteirizadas em sequência.
+    // Compara a JVM fria, o arquivo CDS de empacotar.sh e o CDS com aquecimento antes de abrir a porta.
+    // A vazão de regime é a mediana dos últimos lotes de todas as partidas; o pico é alcançado quando a
+    // média móvel de JANELA lotes chega a 80% dela. Só roda a partir do jar (o CDS não arquiva classes
+    // de diretórios). Tempos de partida variam demais de uma máquina para outra: o resultado só é
+    // reportado, sem entrar na baseline.
+    static void inicio() {
+        Path jar;
+        try {
+            jar = Paths.get(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (java.net.URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        Path arquivoCds = Paths.get(System.getProperty("eldoria.cds", "build/eldoria.jsa"));
+        if (!Files.isRegularFile(jar) || !Files.exists(arquivoCds)) {
+            System.out.println("inicio: pulado (rode empacotar.sh e depois java -jar build/eldoria.jar bench inicio)");
+            return;
+        }
+        String[] nomes = {"fria", "cds", "cds+aquecida"};
+        String[][] opcoes = {
+                {},
+                {"-XX:SharedArchiveFile=" + arquivoCds, "-Xshare:on"},
+                {"-XX:SharedArchiveFile=" + arquivoCds, "-Xshare:on", "-Deldoria.aquecer"},
+        };
+        int rodadas = 3;
+        int lotes = 25;
+        int sessoesPorLote = 20;
+        int janela = 3;
+        int finais = 8;
+        // partidas[variante][rodada] = {primeiro prompt, fim de cada lote...}, em ns desde o início do processo
+        long[][][] partidas = new long[nomes.length][rodadas][];
+        for (int r = 0; r < rodadas; r++) {
+            for (int v = 0; v < nomes.length; v++) { // variantes alternadas: o ruído da máquina afeta todas igual
+                partidas[v][r] = partida(jar, opcoes[v], lotes, sessoesPorLote);
+            }
+        }
+
+        double[] ultimas = new double[nomes.length * rodadas * finais];
+        int n = 0;
+        for (long[][] variante : partidas) {
+            for (long[] partida : variante) {
+                for (int l = lotes - finais + 1; l <= lotes; l++) ultimas[n++] = vazao(partida, l, l, sessoesPorLote);
+            }
+        }
+        Arrays.sort(ultimas);
+        double regime = ultimas[ultimas.length / 2];
+        System.out.printf("inicio: regime de %.0f sessões/s (lotes de %d sessões, mediana de %d partidas)%n",
+                regime, sessoesPorLote, rodadas);
+        for (int v = 0; v < nomes.length; v++) {
+            long[] primeiroPrompt = new long[rodadas];
+            long[] atePico = new long[rodadas];
+            for (int r = 0; r < rodadas; r++) {
+                long[] partida = partidas[v][r];
+                primeiroPrompt[r] = partida[0];
+                atePico[r] = Long.MAX_VALUE;
+                for (int l = janela; l <= lotes; l++) {
+                    if (vazao(partida, l - janela + 1, l, sessoesPorLote) >= 0.8 * regime) {
+                        atePico[r] = partida[l];
+                        break;
+                    }
+                }
+            }
+            Arrays.sort(primeiroPrompt);
+            Arrays.sort(atePico);
+            long mediana = atePico[rodadas / 2];
+            System.out.printf("inicio[%s]: primeiro prompt em %.0f ms, pico em %s%n", nomes[v],
+                    primeiroPrompt[rodadas / 2] / 1e6,
+                    mediana == Long.MAX_VALUE ? "mais de " + lotes * sessoesPorLote + " sessões"
+                            : String.format("%.0f ms", mediana / 1e6));
+        }
+    }
+
+    // Sessões por segundo do lote primeiro até o lote ultimo (o lote 1 começa no primeiro prompt).
+    private static double vazao(long[] partida, int primeiro, int ultimo, int sessoesPorLote) {
+        return (ultimo - primeiro + 1) * sessoesPorLote * 1e9 / (partida[ultimo] - partida[primeiro - 1]);
+    }
+
+    // Sobe um servidor numa JVM nova e mede, desde o início do processo: o primeiro prompt e o fim de cada lote.
+    private static long[] partida(Path jar, String[] opcoes, int lotes, int sessoesPorLote) {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Process processo = null;
+        Path log = null;
+        Path placar = null;
+        try {
+            int porta;
+            try (ServerSocket livre = new ServerSocket(0)) {
+                porta = livre.getLocalPort();
+            }
+            log = Files.createTempFile("inicio", ".log");
+            placar = Files.createTempFile("inicio", ".placar");
+            Files.delete(placar);
+            List<String> comando = new ArrayList<>();
+            comando.add(java.toString());
+            comando.addAll(Arrays.asList(opcoes));
+            comando.addAll(Arrays.asList("-Deldoria.placar=" + placar, "-cp", jar.toString(), "Main", "servidor",
+                    String.valueOf(porta)));
+            long[] tempos = new long[lotes + 1];
+            long inicio = System.nanoTime();
+            processo = new ProcessBuilder(comando).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            try (Socket primeiro = conectarQuandoAbrir(porta, processo, log)) {
+                InputStream entrada = primeiro.getInputStream();
+                byte[] prompt = "personagem: ".getBytes(StandardCharsets.UTF_8);
+                int casados = 0;
+                while (casados < prompt.length) {
+                    int b = entrada.read();
+                    if (b < 0) throw new IOException("Conexão fechada antes do primeiro prompt");
+                    casados = b == prompt[casados] ? casados + 1 : b == prompt[0] ? 1 : 0;
+                }
+                tempos[0] = System.nanoTime() - inicio;
+            }
+            byte[] buffer = new byte[8192];
+            int sessao = 0;
+            for (int l = 1; l <= lotes; l++) {
+                for (int s = 0; s < sessoesPorLote; s++) {
+                    try (Socket socket = new Socket("127.0.0.1", porta)) {
+                        socket.setSoTimeout(30_000);
+                        socket.getOutputStream().write(Treino.roteiro(sessao++));
+                        socket.shutdownOutput();
+                        InputStream entrada = socket.getInputStream();
+                        while (entrada.read(buffer) >= 0) {
+                            // descarta a saída da sessão até o servidor fechar a conexão
+                        }
+                    }
+                }
+                tempos[l] = System.nanoTime() - inicio;
+            }
+            return tempos;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (processo != null) {
+                processo.destroy();
+                try {
+                    processo.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             try {
-                String linha = scanner.nextLine();
-                opcao = Integer.parseInt(linha.trim());
+                if (log != null) Files.deleteIfExists(log);
+                if (placar != null) Files.deleteIfExists(placar);
+            } catch (IOException e) {
+                // arquivos temporários: o sistema limpa depois
+            }
+        }
+    }
 
-                if (opcao < min || opcao > max) {
-                    throw new OpcaoInvalidaException("Opção fora do intervalo permitido.");
+    private static Socket conectarQuandoAbrir(int porta, Process processo, Path log) throws IOException {
+        long limite = System.nanoTime() + 60_000_000_000L;
+        while (true) {
+            try {
+                Socket socket = new Socket("127.0.0.1", porta);
+                socket.setSoTimeout(30_000);
+                return socket;
+            } catch (ConnectException e) {
+                if (!processo.isAlive() || System.nanoTime() > limite) {
+                    throw new IOException("O servidor não abriu a porta " + porta + ":\n" + Files.readString(log));
                 }
+                try {
+                    Thread.sleep(1); // sem espera ativa: a JVM que está subindo precisa da CPU
+                } catch (InterruptedException interrompido) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrompido esperando o servidor", interrompido);
+                }
+            }
+        }
+    }
 
-                opcaoValida = true;
-            } catch (NumberFormatException e) {
-                System.out.println("Digite um número válido.");
-            } catch (OpcaoInvalidaException e) {
-                System.out.println(e.getMessage());
+    // Mede dois corpos em RODADAS_ALTERNADAS rodadas, trocando a ordem a cada uma, para o ruído da máquina
+    // afetar os dois igual. Cada rodada dá um acréscimo do segundo sobre o primeiro; a estimativa é a mediana
+    // deles, que uma rodada atrapalhada (coleta, outro processo) não move. O ruído é o desvio absoluto
+    // mediano desses acréscimos: abaixo dele uma diferença não é mensurável. Guarda em resultados a mediana
+    // de cada lado. Devolve {acréscimo do segundo sobre o primeiro, ruído}.
+    static final int RODADAS_ALTERNADAS = 5;
+
+    private static double[] compararAlternado(String[] nomes, long operacoes, Runnable primeiro, Runnable segundo) {
+        Runnable[] corpos = {primeiro, segundo};
+        // Aquece os dois lados antes de medir: sem isso o JIT compila só o primeiro caminho e a primeira
+        // medição do segundo paga uma desotimização que não tem nada a ver com o que se quer comparar.
+        for (int i = 0; i < 4; i++) {
+            corpos[i & 1].run();
+        }
+        double[][] medidas = new double[2][RODADAS_ALTERNADAS];
+        double[] acrescimos = new double[RODADAS_ALTERNADAS];
+        for (int rodada = 0; rodada < RODADAS_ALTERNADAS; rodada++) {
+            for (int i = 0; i < 2; i++) {
+                int lado = i ^ (rodada & 1);
+                medir(nomes[lado], operacoes, corpos[lado]);
+                medidas[lado][rodada] = resultados.get(nomes[lado]);
             }
+            acrescimos[rodada] = medidas[1][rodada] / medidas[0][rodada] - 1;
+        }
+        resultados.put(nomes[0], mediana(medidas[0]));
+        resultados.put(nomes[1], mediana(medidas[1]));
+        double acrescimo = mediana(acrescimos);
+        double[] desvios = new double[RODADAS_ALTERNADAS];
+        for (int rodada = 0; rodada < RODADAS_ALTERNADAS; rodada++) {
+            desvios[rodada] = Math.abs(acrescimos[rodada] - acrescimo);
         }
+        return new double[] {acrescimo, mediana(desvios)};
+    }
 
-        return opcao;
+    private static double mediana(double[] valores) {
+        double[] ordenados = valores.clone();
+        Arrays.sort(ordenados);
+        int meio = ordenados.length / 2;
+        return ordenados.length % 2 == 1 ? ordenados[meio] : (ordenados[meio - 1] + ordenados[meio]) / 2;
     }
 
-    // Controla o fluxo de exploração de uma região: escolhe a região, mostra descrição
-    // e decide se haverá evento aleatório ou combate com chefe.
-    private boolean explorarRegiao() {
-        System.out.println("\nEscolha a região para explorar:");
-        System.out.println(mapa.descrever());
+    // Portão de um orçamento fixo sobre o resultado de compararAlternado. O ruído nunca aumenta o
+    // orçamento: se ele passa do orçamento, a medição não distingue nada e o portão fica inconclusivo
+    // (relatado no fim, com saída 2), em vez de passar.
+    private static void verificarOrcamento(String portao, double[] comparacao, double orcamento, String falha) {
+        if (comparacao[1] > orcamento) {
+            String motivo = String.format("%s: ruído %.2f%% acima do orçamento de %.2f%% (acréscimo medido %+.2f%%)",
+                    portao, 100 * comparacao[1], 100 * orcamento, 100 * comparacao[0]);
+            System.out.println("inconclusivo: " + motivo);
+            inconclusivos.add(motivo);
+            return;
+        }
+        if (comparacao[0] > orcamento) throw new IllegalStateException(falha);
+    }
 
-        int escolha = lerOpcaoMenu(1, mapa.quantidadeRegioes());
-        int indice = escolha - 1;
+    // Teto da memória retida por uma sessão do servidor MUD (JogoRPG, personagem, inventário, entrada e saída).
+    static final int ORCAMENTO_BYTES_SESSAO = 2048;
 
-        try {
-            Regiao regiao = mapa.getRegiao(indice); // pode lançar OpcaoInvalidaException
-            System.out.println("\n" + regiao.descrever());
+    // Memória retida por sessão, medida pela diferença do heap (depois de GC) com milhares de sessões vivas,
+    // montadas como no ServidorMUD e cada uma já com personagem, itens e uma luta contra o chefe jogada.
+    // O mundo (mapa, textos, tabelas) é compartilhado e fica fora da conta. Falha acima do orçamento.
+    static void memoria() {
+        int quantidade = 20_000;
+        // Canal de mentira, sem estado por sessão: toda leitura recebe "1\n" (atacar), toda escrita é descartada.
+        ByteChannel canal = new ByteChannel() {
+            @Override
+            public int read(ByteBuffer destino) {
+                int n = 0;
+                while (destino.remaining() >= 2) {
+                    destino.put((byte) '1').put((byte) '\n');
+                    n += 2;
+                }
+                return n;
+            }
 
-            if (regiao.temChefe()) {
-                return enfrentarChefe(regiao);
-            } else {
-                eventoAleatorio(regiao);
-                return false;
+            @Override
+            public int write(ByteBuffer origem) {
+                int n = origem.remaining();
+                origem.position(origem.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
             }
+        };
+        Regiao fortaleza;
+        try {
+            Mapa mapa = DefinicoesJogo.atual().getMapa();
+            fortaleza = mapa.getRegiao(mapa.indiceDoChefe());
         } catch (OpcaoInvalidaException e) {
-            // [5] Tratamento de exceções: mensagem amigável ao usuário em caso de erro inesperado.
-            System.out.println("Erro inesperado ao acessar a região: " + e.getMessage());
-            return false;
+            throw new IllegalStateException(e);
+        }
+
+        long antes = heapAposColeta();
+        JogoRPG[] sessoes = new JogoRPG[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            JogoRPG jogo = new JogoRPG(new EntradaCanal(canal, StandardCharsets.UTF_8), new SaidaBufferizada(canal));
+            jogo.definirJogador(JogoRPG.novoPersonagem(1 + i % JogoRPG.CLASSES.length, "Herói " + i, jogo.getDefinicoes()));
+            jogo.getInventario().adicionar(CatalogoItens.POCAO_CURA_MENOR, 2);
+            jogo.getInventario().adicionar(CatalogoItens.FRAGMENTO_DE_MAPA);
+            jogo.enfrentarChefe(fortaleza);
+            sessoes[i] = jogo;
+        }
+        long depois = heapAposColeta();
+        java.lang.ref.Reference.reachabilityFence(sessoes);
+
+        double porSessao = (double) (depois - antes) / quantidade;
+        resultados.put("memoria.bytesPorSessao", porSessao);
+        System.out.printf("memoria: %.0f bytes retidos por sessão (orçamento %d, %d sessões)%n",
+                porSessao, ORCAMENTO_BYTES_SESSAO, quantidade);
+        if (porSessao > ORCAMENTO_BYTES_SESSAO) {
+            throw new IllegalStateException("Sessão retém mais memória que o orçamento");
         }
     }
 
-    // Gera um dos três eventos narrativos possíveis em regiões comuns (sem chefe).
-    private void eventoAleatorio(Regiao regiao) {
-        Random random = new Random();
-        int tipoEvento = random.nextInt(3); // 0, 1 ou 2
+    private static long heapAposColeta() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
 
-        switch (tipoEvento) {
-            case 0:
-                System.out.println("Você encontra um viajante misterioso que lhe oferece uma poção.");
-                inventario.adicionar("Poção de cura menor");
-                break;
-            case 1:
-                System.out.println("Um bando de saqueadores o embosca!");
-                int dano = 5 + random.nextInt(6); // 5 a 10
-                aplicarDanoComHabilidade(dano);
-                System.out.println("Você sofre " + dano + " de dano. Vida atual: " + jogador.getVida());
-                break;
-            case 2:
-                System.out.println("Você encontra um fragmento de mapa que revela um atalho até a Fortaleza de Brasamorta.");
-                inventario.adicionar("Fragmento de mapa");
-                break;
+    // Roda corpo(t) em n threads e espera todas terminarem, repassando a primeira falha.
+    private static void rodarEmThreads(int n, IntConsumer corpo) {
+        Thread[] threads = new Thread[n];
+        Throwable[] falha = new Throwable[1];
+        for (int t = 0; t < n; t++) {
+            int indice = t;
+            threads[t] = new Thread(() -> corpo.accept(indice), "bench-" + t);
+            threads[t].setUncaughtExceptionHandler((thread, erro) -> {
+                synchronized (falha) {
+                    if (falha[0] == null) falha[0] = erro;
+                }
+            });
+            threads[t].start();
         }
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (falha[0] != null) throw new IllegalStateException("Falha em uma thread do benchmark", falha[0]);
     }
 
-    // Lógica de combate contra o chefe final do culto.
-    private boolean enfrentarChefe(Regiao regiao) {
-        System.out.println("\nVocê entra no salão principal da " + regiao.getNome() + ".");
-        System.out.println("O líder do Culto da Chama Vazia surge, envolto em fogo negro.\n");
+    private static TabelaEventos tabelaDeTeste(int quantidade, int[] raridades) {
+        int[] eventos = new int[quantidade];
+        int[] pesos = new int[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            eventos[i] = i;
+            pesos[i] = raridades[i % raridades.length];
+        }
+        return new TabelaEventos(eventos, pesos);
+    }
 
-        int vidaChefe = 45;
-        Random random = new Random();
+    // As linhas em UTF-8, cada uma com '\n', prontas para Sessao.receber.
+    private static ByteBuffer bytesDeLinhas(String... linhas) {
+        return ByteBuffer.wrap((String.join("\n", linhas) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
 
-        while (vidaChefe > 0 && jogador.getVida() > 0) {
-            System.out.println("Vida do chefe: " + vidaChefe + " | Sua vida: " + jogador.getVida());
-            System.out.println("1) Atacar");
-            System.out.println("2) Usar poção (se houver)");
-            System.out.println("3) Tentar dialogar");
+    private static JogoRPG novoJogoSemInterface(String[] entradas) {
+        return new JogoRPG(new EntradaRoteiro(entradas, true), new SaidaNula(), new AleatorioSessao(42));
+    }
 
-            int opcao = lerOpcaoMenu(1, 3);
+    // Roda o corpo algumas vezes para aquecer o JIT e reporta a melhor medição.
+    static void medir(String nome, long operacoes, Runnable corpo) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
 
-            if (opcao == 1) {
-                int danoJogador = jogador.getAtaqueBase() + random.nextInt(4); // base + 0..3
-                vidaChefe -= danoJogador;
-                System.out.println("Você ataca e causa " + danoJogador + " de dano!");
+        for (int i = 0; i < 3; i++) {
+            corpo.run();
+        }
 
-                if (vidaChefe <= 0) break;
+        long melhor = Long.MAX_VALUE;
+        long bytes = 0;
+        long coletas = 0;
+        long tempoColetas = 0;
+        for (int i = 0; i < 5; i++) {
+            long coletasAntes = contarColetas(false);
+            long tempoAntes = contarColetas(true);
+            long alocadoAntes = threads.getThreadAllocatedBytes(threadId);
+            long inicio = System.nanoTime();
+            corpo.run();
+            long duracao = System.nanoTime() - inicio;
+            bytes += threads.getThreadAllocatedBytes(threadId) - alocadoAntes;
+            coletas += contarColetas(false) - coletasAntes;
+            tempoColetas += contarColetas(true) - tempoAntes;
+            melhor = Math.min(melhor, duracao);
+        }
 
-                int danoChefe = 7 + random.nextInt(5); // 7..11
-                aplicarDanoComHabilidade(danoChefe);
-                System.out.println("O chefe contra-ataca e causa " + danoChefe + " de dano!");
+        double nsPorOp = (double) melhor / operacoes;
+        resultados.put(nome, nsPorOp);
+        System.out.printf("%-28s %10.2f ns/op %9.2f M op/s %10.3f B/op  gc: %d coletas, %d ms%n",
+                nome, nsPorOp, 1e3 / nsPorOp, (double) bytes / (5 * operacoes), coletas, tempoColetas);
+    }
 
-            } else if (opcao == 2) {
-                usarPocao();
-            } else {
-                System.out.println("Você tenta dialogar, mas o fanatismo do chefe é inabalável.");
-                int danoChefe = 8 + random.nextInt(5);
-                aplicarDanoComHabilidade(danoChefe);
-                System.out.println("Ele responde com um ataque brutal de fogo negro! Dano: " + danoChefe);
+    // Soma de todos os coletores: quantidade de coletas ou tempo acumulado em ms.
+    private static long contarColetas(boolean tempo) {
+        long total = 0;
+        for (java.lang.management.GarbageCollectorMXBean gc
+                : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, tempo ? gc.getCollectionTime() : gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    // Formato da baseline: uma linha "nome ns/op" por benchmark; linhas com # são comentários.
+    private static void gravarBaseline(Path arquivo) throws IOException {
+        List<String> linhas = new ArrayList<>();
+        linhas.add("# ns/op por benchmark (bench --gravar)");
+        for (Map.Entry<String, Double> r : resultados.entrySet()) {
+            linhas.add(r.getKey() + " " + String.format(Locale.ROOT, "%.3f", r.getValue()));
+        }
+        if (arquivo.getParent() != null) Files.createDirectories(arquivo.getParent());
+        Files.write(arquivo, linhas, StandardCharsets.UTF_8);
+    }
+
+    // Devolve false se algum benchmark ficou mais lento que baseline * (1 + tolerancia).
+    private static boolean compararComBaseline(Path arquivo, double tolerancia) throws IOException {
+        boolean ok = true;
+        for (String linha : Files.readAllLines(arquivo, StandardCharsets.UTF_8)) {
+            linha = linha.trim();
+            if (linha.isEmpty() || linha.startsWith("#")) continue;
+            String[] partes = linha.split("\\s+");
+            Double atual = resultados.get(partes[0]);
+            if (atual == null) continue;
+            double referencia = Double.parseDouble(partes[1]);
+            double variacao = atual / referencia - 1;
+            if (variacao > tolerancia) {
+                System.out.printf("REGRESSÃO %s: %.2f ns/op (baseline %.2f, %+.0f%%)%n",
+                        partes[0], atual, referencia, variacao * 100);
+                ok = false;
             }
         }
+        if (ok) System.out.println("Sem regressões acima de " + Math.round(tolerancia * 100) + "% da baseline.");
+        return ok;
+    }
+}
 
-        if (vidaChefe <= 0 && jogador.getVida() > 0) {
-            System.out.println("\nO chefe cai derrotado. A chama vazia começa a se dissipar...");
-            return true;
+// ================================================
+// Diário de sessão (append-only) e replay determinístico
+// ================================================
+
+// Observa tudo o que torna uma sessão única: as linhas digitadas e as rolagens de dado.
+interface RegistroSessao {
+    // Quantas entradas entre instantâneos no menu principal.
+    int ENTRADAS_POR_INSTANTANEO = 64;
+
+    void entrada(String linha);
+
+    void rolagem(int limite, int valor);
+
+    // Estado completo no menu principal; tudo registrado antes dele pode ser descartado.
+    void instantaneo(EstadoSessao estado);
+
+    // Chamado antes de mostrar um prompt: bloqueia até o que foi registrado estar seguro.
+    void confirmar();
+}
+
+// Diário binário append-only de uma sessão.
+// Cabeçalho: int mágico "ELDJ", short versão, long semente.
+// Registros: byte tipo + dados, com inteiros em varint:
+//   ENTRADA    tamanho + bytes UTF-8 da linha
+//   ROLAGEM    limite + valor
+//   INSTANTANEO  slot no formato de ArquivoSessoes (TAMANHO_SLOT bytes)
+//
+// Os registros vão para um buffer em memória; o GravadorDiarios junta os buffers de todas as sessões
+// abertas e os grava com um force por arquivo a cada rodada (group commit). Com aguardarGravacao,
+// confirmar() segura o prompt até o turno estar no disco, então uma queda não perde nada que o
+// jogador já tenha visto. Um instantâneo compacta o arquivo: o diário é reescrito como
+// cabeçalho + instantâneo (arquivo temporário + move atômico) e segue crescendo a partir dali.
+// O replay refaz as rolagens com as regras de combate atuais: mudar quantas rolagens uma luta consome
+// (ou o que elas significam) exige uma nova VERSAO. Versão 2: habilidades de todas as classes.
+// Versão 3: instantâneos no formato 2 de ArquivoSessoes (itens pelo nome).
+class DiarioSessao implements RegistroSessao, Closeable {
+    static final int MAGICO = 0x454C444A; // "ELDJ"
+    static final short VERSAO = 3;
+    static final int CABECALHO = 14;
+    static final byte ENTRADA = 1;
+    static final byte ROLAGEM = 2;
+    static final byte INSTANTANEO = 3;
+
+    private final Path arquivo;
+    private final long semente;
+    private final boolean aguardarGravacao;
+    private FileChannel canal;
+
+    // pendente recebe os registros (protegido por this); emGravacao só é usado pelo gravador.
+    private ByteBuffer pendente = ByteBuffer.allocate(1024);
+    private ByteBuffer emGravacao = ByteBuffer.allocate(1024);
+    private long sequencia;
+    private long sequenciaGravada;
+    private IOException falha;
+    // Exclusão entre o gravador (escrita + force) e a compactação (troca do arquivo).
+    private final Object gravacao = new Object();
+
+    private DiarioSessao(Path arquivo, long semente, boolean aguardarGravacao, FileChannel canal) {
+        this.arquivo = arquivo;
+        this.semente = semente;
+        this.aguardarGravacao = aguardarGravacao;
+        this.canal = canal;
+    }
+
+    // Cria um diário novo (substituindo um antigo com o mesmo nome) e o registra no gravador.
+    static DiarioSessao criar(Path arquivo, long semente, boolean aguardarGravacao) throws IOException {
+        if (arquivo.getParent() != null) Files.createDirectories(arquivo.getParent());
+        FileChannel canal = abrirComCabecalho(arquivo, semente, null);
+        DiarioSessao diario = new DiarioSessao(arquivo, semente, aguardarGravacao, canal);
+        GravadorDiarios.registrar(diario);
+        return diario;
+    }
+
+    // Escreve cabeçalho (+ instantâneo opcional) num arquivo novo, já sincronizado com o disco.
+    private static FileChannel abrirComCabecalho(Path arquivo, long semente, EstadoSessao instantaneo)
+            throws IOException {
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer inicio = ByteBuffer.allocate(CABECALHO + 1 + ArquivoSessoes.TAMANHO_SLOT);
+        inicio.putInt(MAGICO).putShort(VERSAO).putLong(semente);
+        if (instantaneo != null) {
+            inicio.put(INSTANTANEO);
+            ArquivoSessoes.codificar(inicio, inicio.position(), instantaneo);
+            inicio.position(inicio.position() + ArquivoSessoes.TAMANHO_SLOT);
         }
+        inicio.flip();
+        while (inicio.hasRemaining()) canal.write(inicio);
+        canal.force(true);
+        return canal;
+    }
 
-        return false;
+    @Override
+    public synchronized void entrada(String linha) {
+        byte[] bytes = linha.getBytes(StandardCharsets.UTF_8);
+        garantirEspaco(1 + 5 + bytes.length);
+        pendente.put(ENTRADA);
+        escreverVarint(pendente, bytes.length);
+        pendente.put(bytes);
+        sequencia++;
+    }
+
+    @Override
+    public synchronized void rolagem(int limite, int valor) {
+        garantirEspaco(1 + 5 + 5);
+        pendente.put(ROLAGEM);
+        escreverVarint(pendente, limite);
+        escreverVarint(pendente, valor);
+        sequencia++;
     }
 
-    // Aplica o dano levando em conta a habilidade especial de certas classes.
-    // Aqui o exemplo concreto é o Cavaleiro.
-    private void aplicarDanoComHabilidade(int danoBruto) {
-        // Cavaleiro reduz o primeiro dano em 3 pontos
-        if (jogador instanceof Cavaleiro && danoBruto > 0) {
-            danoBruto = Math.max(0, danoBruto - 3);
+    // Compactação: o novo arquivo (cabeçalho + instantâneo) substitui o antigo de forma atômica.
+    @Override
+    public void instantaneo(EstadoSessao estado) {
+        synchronized (gravacao) {
+            try {
+                Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+                FileChannel novo = abrirComCabecalho(temporario, semente, estado);
+                Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileChannel antigo;
+                synchronized (this) {
+                    antigo = canal;
+                    canal = novo;
+                    // Tudo o que estava pendente está contido no instantâneo.
+                    pendente.clear();
+                    sequenciaGravada = sequencia;
+                    notifyAll();
+                }
+                antigo.close();
+            } catch (IOException e) {
+                registrarFalha(e);
+            }
         }
+    }
 
-        // Berserk: quanto menor a vida, maior a chance de tomar dano extra,
-        // mas aqui vamos apenas aplicar o dano normal (a habilidade foi descrita na narrativa).
+    // Uma falha de gravação encerra a sessão: seguir jogando perderia turnos que o jogador já viu.
+    @Override
+    public synchronized void confirmar() {
+        if (aguardarGravacao) {
+            long alvo = sequencia;
+            GravadorDiarios.acordar();
+            while (sequenciaGravada < alvo && falha == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        if (falha != null) throw new UncheckedIOException("Falha ao gravar o diário " + arquivo, falha);
+    }
 
-        jogador.receberDano(danoBruto);
+    // Chamado pelo GravadorDiarios: grava o lote pendente e faz um único force. A sequência gravada só
+    // avança depois do force; depois de uma falha nada mais é escrito (o arquivo teria um buraco).
+    void gravarPendentes() {
+        synchronized (gravacao) {
+            long lote;
+            synchronized (this) {
+                if (pendente.position() == 0 || falha != null) return;
+                ByteBuffer cheio = pendente;
+                pendente = emGravacao;
+                emGravacao = cheio;
+                lote = sequencia;
+            }
+            try {
+                emGravacao.flip();
+                while (emGravacao.hasRemaining()) canal.write(emGravacao);
+                canal.force(false);
+            } catch (IOException e) {
+                registrarFalha(e);
+                return;
+            } finally {
+                emGravacao.clear();
+            }
+            synchronized (this) {
+                sequenciaGravada = Math.max(sequenciaGravada, lote);
+                notifyAll();
+            }
+        }
     }
 
-    // Exibe o conteúdo do inventário usando o método genérico Inventario.imprimirLista.
-    private void mostrarInventario() {
-        System.out.println("\nInventário:");
-        if (inventario.estaVazio()) {
-            System.out.println("(vazio)");
-        } else {
-            Inventario.imprimirLista(inventario.getItens());
+    private synchronized void registrarFalha(IOException e) {
+        falha = e;
+        notifyAll();
+    }
+
+    // Grava o que faltar e fecha o arquivo.
+    @Override
+    public void close() throws IOException {
+        GravadorDiarios.remover(this);
+        gravarPendentes();
+        synchronized (this) {
+            canal.close();
+            if (falha != null) throw falha;
         }
     }
 
-    // Simula um descanso do personagem, recuperando vida.
-    private void descansar() {
-        System.out.println("\nVocê encontra um local relativamente seguro e decide descansar um pouco.");
-        int vidaAntes = jogador.getVida();
-        int cura = 5;
+    private void garantirEspaco(int necessario) {
+        if (pendente.remaining() >= necessario) return;
+        ByteBuffer maior = ByteBuffer.allocate(Math.max(pendente.capacity() * 2, pendente.position() + necessario));
+        pendente.flip();
+        maior.put(pendente);
+        pendente = maior;
+    }
 
-        // Elfo se cura mais ao descansar (relacionado à habilidade narrativa).
-        if (jogador instanceof Elfo) {
-            cura = 8;
+    static void escreverVarint(ByteBuffer destino, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            destino.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
         }
+        destino.put((byte) valor);
+    }
 
-        // Vida máxima simples para fins de exemplo.
-        int vidaMaxima = 40;
-        int novaVida = Math.min(vidaMaxima, vidaAntes + cura);
+    // Um int ocupa no máximo 5 bytes: um sexto byte com o bit de continuação só sai de dados corrompidos.
+    static int lerVarint(ByteBuffer origem) throws IOException {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+            byte b = origem.get();
+            valor |= (b & 0x7F) << deslocamento;
+            if (b >= 0) return valor;
+        }
+        throw new IOException("Varint com mais de 5 bytes.");
+    }
+}
 
-        // Não temos setter público, então vamos simular cura com dano negativo
-        // (apenas para o exemplo; em um projeto real seria melhor ter um método curar(int)).
-        int diferenca = novaVida - vidaAntes;
-        if (diferenca > 0) {
-            jogador.receberDano(-diferenca); // truque para "curar"
+// Thread única que faz o group commit de todos os diários abertos: a cada rodada grava os lotes
+// pendentes, com um force por arquivo, e dorme até INTERVALO_MS ou até alguém pedir confirmação.
+final class GravadorDiarios {
+    static final long INTERVALO_MS = 2;
+
+    private static final Set<DiarioSessao> diarios = ConcurrentHashMap.newKeySet();
+    private static final Object sinal = new Object();
+    private static boolean acordado;
+    private static Thread thread;
+
+    private GravadorDiarios() {
+    }
+
+    static synchronized void registrar(DiarioSessao diario) {
+        diarios.add(diario);
+        if (thread == null) {
+            thread = new Thread(GravadorDiarios::executar, "gravador-diarios");
+            thread.setDaemon(true);
+            thread.start();
         }
+    }
 
-        System.out.println("Você recupera " + diferenca + " pontos de vida.");
-        System.out.println("Vida atual: " + jogador.getVida());
+    static void remover(DiarioSessao diario) {
+        diarios.remove(diario);
     }
 
-    // Usa o inventário para consumir uma poção de cura (se houver) e atualizar a vida do personagem.
-    private void usarPocao() {
-        List<String> itens = inventario.getItens();
-        if (itens.contains("Poção de cura menor")) {
-            System.out.println("Você bebe uma poção de cura menor.");
-            int vidaAntes = jogador.getVida();
-            int cura = 10;
-            int vidaMaxima = 40;
-            int novaVida = Math.min(vidaMaxima, vidaAntes + cura);
-            int diferenca = novaVida - vidaAntes;
-            if (diferenca > 0) {
-                jogador.receberDano(-diferenca);
+    static void acordar() {
+        synchronized (sinal) {
+            acordado = true;
+            sinal.notify();
+        }
+    }
+
+    private static void executar() {
+        while (true) {
+            synchronized (sinal) {
+                if (!acordado) {
+                    try {
+                        sinal.wait(INTERVALO_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                acordado = false;
             }
+            for (DiarioSessao diario : diarios) {
+                diario.gravarPendentes();
+            }
+        }
+    }
+}
 
-            // Remove apenas uma poção reconstruindo o inventário (mantendo a ideia de lista imutável exposta).
-            Inventario<String> aux = new Inventario<>();
-            boolean removeu = false;
-            for (String item : itens) {
-                if (!removeu && item.equals("Poção de cura menor")) {
-                    removeu = true;
-                    continue;
+// Lê um diário e refaz a sessão sem interface: restaura o último instantâneo (se houver), entrega as
+// entradas gravadas à engine e confere cada rolagem com a registrada.
+class ReprodutorDiario {
+    private long semente;
+    private EstadoSessao instantaneo;
+    private List<String> entradas = new ArrayList<>();
+    private int[] rolagens = new int[64]; // pares (limite, valor)
+    private int quantidadeRolagens;
+
+    public static ReprodutorDiario ler(Path arquivo) throws IOException {
+        ByteBuffer dados = ByteBuffer.wrap(Files.readAllBytes(arquivo));
+        if (dados.remaining() < DiarioSessao.CABECALHO || dados.getInt() != DiarioSessao.MAGICO) {
+            throw new IOException("Não é um diário de sessão: " + arquivo);
+        }
+        if (dados.getShort() != DiarioSessao.VERSAO) {
+            throw new IOException("Versão de diário não suportada.");
+        }
+        ReprodutorDiario reprodutor = new ReprodutorDiario();
+        reprodutor.semente = dados.getLong();
+
+        try {
+            while (dados.hasRemaining()) {
+                byte tipo = dados.get();
+                if (tipo == DiarioSessao.ENTRADA) {
+                    int tamanho = DiarioSessao.lerVarint(dados);
+                    // Tamanho lixo (negativo ou além do arquivo) não pode virar uma alocação de gigabytes.
+                    if (tamanho < 0 || tamanho > dados.remaining()) break;
+                    byte[] linha = new byte[tamanho];
+                    dados.get(linha);
+                    reprodutor.entradas.add(new String(linha, StandardCharsets.UTF_8));
+                } else if (tipo == DiarioSessao.ROLAGEM) {
+                    int limite = DiarioSessao.lerVarint(dados);
+                    int valor = DiarioSessao.lerVarint(dados);
+                    reprodutor.adicionarRolagem(limite, valor);
+                } else if (tipo == DiarioSessao.INSTANTANEO) {
+                    reprodutor.instantaneo = ArquivoSessoes.decodificar(dados, dados.position());
+                    dados.position(dados.position() + ArquivoSessoes.TAMANHO_SLOT);
+                    reprodutor.entradas.clear();
+                    reprodutor.quantidadeRolagens = 0;
+                } else {
+                    break; // fim corrompido: usa o que foi lido até aqui
                 }
-                aux.adicionar(item);
             }
-            this.inventario = aux;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IOException e) {
+            // Último registro incompleto (queda no meio de uma gravação) ou corrompido: é descartado,
+            // junto com tudo o que vem depois dele.
+        }
+        return reprodutor;
+    }
+
+    private void adicionarRolagem(int limite, int valor) {
+        if (quantidadeRolagens * 2 == rolagens.length) {
+            rolagens = Arrays.copyOf(rolagens, rolagens.length * 2);
+        }
+        rolagens[quantidadeRolagens * 2] = limite;
+        rolagens[quantidadeRolagens * 2 + 1] = valor;
+        quantidadeRolagens++;
+    }
+
+    public int quantidadeEventos() {
+        return entradas.size() + quantidadeRolagens;
+    }
 
-            System.out.println("Você recupera " + diferenca + " pontos de vida. Vida atual: " + jogador.getVida());
+    // Refaz a sessão e devolve o estado final (null se o personagem nem chegou a ser criado).
+    public EstadoSessao reproduzir() throws IOException {
+        Verificador verificador = new Verificador();
+        JogoRPG jogo = new JogoRPG(new EntradaRoteiro(entradas.toArray(new String[0]), false),
+                new SaidaNula(), new AleatorioSessao(semente));
+        jogo.setRegistro(verificador);
+        if (instantaneo != null) {
+            jogo.retomar(instantaneo);
         } else {
-            System.out.println("Você não possui nenhuma poção!");
+            jogo.iniciar();
+        }
+        return jogo.temJogador() ? jogo.capturarEstado() : null;
+    }
+
+    // Confere as rolagens do replay com as do diário; instantâneos e confirmações são ignorados.
+    private class Verificador implements RegistroSessao {
+        private int proxima;
+
+        @Override
+        public void entrada(String linha) {
+        }
+
+        @Override
+        public void rolagem(int limite, int valor) {
+            if (proxima < quantidadeRolagens
+                    && (rolagens[proxima * 2] != limite || rolagens[proxima * 2 + 1] != valor)) {
+                throw new IllegalStateException("Replay divergiu do diário na rolagem " + proxima);
+            }
+            proxima++;
+        }
+
+        @Override
+        public void instantaneo(EstadoSessao estado) {
+        }
+
+        @Override
+        public void confirmar() {
+        }
+    }
+
+    // Uso: reproduzir <arquivo>
+    public static void main(String[] args) throws IOException {
+        Path arquivo = Paths.get(args.length > 0 ? args[0] : "sessao.diario");
+        ReprodutorDiario reprodutor = ler(arquivo);
+        long inicio = System.nanoTime();
+        EstadoSessao estado = reprodutor.reproduzir();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.out.printf("%d eventos reproduzidos em %.3f ms (%.0f eventos/s)%s%n",
+                reprodutor.quantidadeEventos(), segundos * 1e3, reprodutor.quantidadeEventos() / segundos,
+                reprodutor.instantaneo != null ? ", a partir de um instantâneo" : "");
+        if (estado != null) {
+            System.out.println("Estado final: " + JogoRPG.CLASSES[estado.classe - 1] + " " + estado.nome
+                    + ", vida " + estado.vida + ", região " + estado.regiaoAtual);
         }
     }
 }
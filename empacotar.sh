@@ -0,0 +1,19 @@
+#!/bin/sh
+# Empacota o servidor para partidas rápidas: compila, monta build/eldoria.jar e gera o arquivo CDS
+# build/eldoria.jsa com as classes carregadas por uma rodada de treino (java Main treinar).
+# A concatenação de Strings é compilada em StringBuilder (-XDstringConcat=inline): a versão com
+# invokedynamic gera em tempo de execução uma classe por formato de mensagem, e o CDS do JDK 17 não
+# as arquiva.
+# O CDS só arquiva classes vindas de jar e guarda o caminho absoluto dele, por isso o servidor precisa
+# rodar a partir desse mesmo jar:
+#   java -XX:SharedArchiveFile=build/eldoria.jsa -jar "$PWD/build/eldoria.jar" servidor
+# Com -Deldoria.aquecer[=ms] o servidor ainda treina o JIT antes de abrir a porta.
+# Para comparar com a JVM fria: java -jar build/eldoria.jar bench inicio
+set -e
+cd "$(dirname "$0")"
+rm -rf build/classes
+mkdir -p build/classes
+javac -encoding UTF-8 -XDstringConcat=inline -d build/classes Main.java
+jar --create --file build/eldoria.jar --main-class Main -C build/classes .
+java -XX:ArchiveClassesAtExit=build/eldoria.jsa -jar "$(pwd)/build/eldoria.jar" treinar "${TREINO_MS:-2000}"
+echo "Gerados build/eldoria.jar e build/eldoria.jsa"